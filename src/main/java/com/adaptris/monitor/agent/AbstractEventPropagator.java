@@ -1,67 +1,245 @@
 package com.adaptris.monitor.agent;
 
-import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adaptris.monitor.agent.activity.ActivityMap;
-import com.adaptris.profiler.ProcessStep;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.StreamingActivityAggregator;
 
 public abstract class AbstractEventPropagator implements EventPropagator {
-  
+
   protected transient Logger log = LoggerFactory.getLogger(this.getClass());
-  
+
+  private static final String PROPAGATION_INTERVAL_KEY = "com.adaptris.monitor.agent.PropagationIntervalMs";
+
+  private static final String PROPAGATION_MODE_KEY = "com.adaptris.monitor.agent.PropagationMode";
+
+  private static final String FLUSH_THRESHOLD_KEY = "com.adaptris.monitor.agent.FlushThreshold";
+
+  private static final String MAX_IDLE_INTERVAL_KEY = "com.adaptris.monitor.agent.MaxIdleIntervalMs";
+
+  private static final long DEFAULT_INTERVAL_MS = 5000;
+
+  private static final long DEFAULT_MAX_IDLE_INTERVAL_MS = 60000;
+
   private volatile boolean running;
-  
-  private static final int DELAY_ON_POLL_MS = 5000;
 
   private EventMonitorReceiver eventMonitorReciever;
-  
+
+  private final ProcessStepBatch eventBatch = new ProcessStepBatch();
+
+  private long intervalStartMillis = System.currentTimeMillis();
+
+  private long intervalMs;
+
+  private long maxIdleIntervalMs;
+
+  private int flushThreshold;
+
+  private PropagationMode propagationMode;
+
+  private volatile ScheduledExecutorService scheduler;
+
+  private ScheduledFuture<?> nextPropagation;
+
+  private long currentDelayMs;
+
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
   public AbstractEventPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
     eventMonitorReciever = eventMonitorReceiver;
-    running = true;
+    intervalMs = MonitorSettings.getLong(PROPAGATION_INTERVAL_KEY, DEFAULT_INTERVAL_MS);
+    maxIdleIntervalMs = MonitorSettings.getLong(MAX_IDLE_INTERVAL_KEY, DEFAULT_MAX_IDLE_INTERVAL_MS);
+    flushThreshold = MonitorSettings.getInt(FLUSH_THRESHOLD_KEY, 0);
+    propagationMode = PropagationMode.getMode(MonitorSettings.getString(PROPAGATION_MODE_KEY, PropagationMode.FIXED_RATE.name()));
+  }
+
+  /**
+   * Acquire whatever the propagator needs to send, called by {@link #startPropagator()}; the counterpart of
+   * {@link #stop()}.
+   */
+  protected void start() {
   }
-  
+
   protected abstract void stop();
 
+  /**
+   * Aggregate everything seen since the last interval and propagate it; called by the scheduler started in
+   * {@link #startPropagator()}.
+   */
   @Override
   public void run() {
-    while(running) {
-      try {
-        Thread.sleep(DELAY_ON_POLL_MS);
-      } catch (InterruptedException e) {
-        running = false;
-      }
+    flushRequested.set(false);
+    long eventCount = 0;
+    try {
+      eventCount = aggregateAndPropagate();
+    } catch (Throwable t) {
+      log.error("Failed to propagate profiling events.", t);
+    }
+    if (running && propagationMode == PropagationMode.ADAPTIVE)
+      scheduleAdaptively(eventCount);
+  }
+
+  private long aggregateAndPropagate() {
+    // create a map of the events we have seen, then send the map.
+    ActivityMap activityMap = eventMonitorReciever.getAdapterActivityMap();
+    long eventCount;
+    StreamingActivityAggregator aggregator = eventMonitorReciever.getStreamingAggregator();
+    if (aggregator != null) {
+      activityMap = aggregator.getActivityMap();
+      eventCount = aggregator.snapshot();
+    } else {
+      eventCount = replayBufferedEvents(activityMap);
+    }
 
-      List<ProcessStep> events = eventMonitorReciever.getEvents();
-      log.debug("Getting process events - " + events.size());
-      if(events.size() > 0) {
-        try {
-          // create a map of the events we have seen, then send the map.
-          ActivityMap activityMap = eventMonitorReciever.getAdapterActivityMap();
+    log.debug("Getting process events - {} (dropped {}, high water mark {})", eventCount,
+        eventMonitorReciever.getDroppedEventCount(), eventMonitorReciever.getEventBufferHighWaterMark());
+    long intervalEndMillis = System.currentTimeMillis();
+    if (eventCount > 0 && activityMap != null)
+      propagateSnapshot(ActivitySnapshot.capture(activityMap, intervalStartMillis, intervalEndMillis));
+    intervalStartMillis = intervalEndMillis;
+    return eventCount;
+  }
+
+  private long replayBufferedEvents(ActivityMap activityMap) {
+    long eventCount = 0;
+    int drained;
+    do {
+      drained = eventMonitorReciever.drainEvents(eventBatch);
+      if (activityMap != null) {
+        if (eventCount == 0 && drained > 0)
           activityMap.resetActivity();
-          for(ProcessStep step : events) {
-            activityMap.addActivity(step);
-          }
-
-          propagateProcessEvent(activityMap);
-        } catch (Throwable t) {
-          t.printStackTrace();
-        }
+        for (int index = 0; index < drained; index++)
+          activityMap.addActivity(eventBatch.get(index));
       }
-    }
+      eventCount += drained;
+    } while (drained == eventBatch.capacity());
+    eventBatch.clear();
+    if (activityMap != null && eventCount > 0)
+      activityMap.calculateStatistics();
+    return eventCount;
+  }
+
+  // Back off (doubling up to the max idle interval) while nothing happens, return to the configured interval on activity.
+  private synchronized void scheduleAdaptively(long eventCount) {
+    if (scheduler == null)
+      return;
+    currentDelayMs = eventCount > 0 ? intervalMs : Math.min(Math.max(currentDelayMs, intervalMs) * 2, maxIdleIntervalMs);
+    if (nextPropagation != null)
+      nextPropagation.cancel(false);
+    nextPropagation = scheduler.schedule(this, currentDelayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Intervals without activity are not propagated, so a propagator that serves the latest snapshot on demand uses this to
+   * tell that nothing has happened since: the next propagation is due an interval after the snapshot ended, and another is
+   * allowed for it to be aggregated.
+   *
+   * @return true if the snapshot is no longer the interval just passed.
+   */
+  protected boolean isIdle(ActivitySnapshot snapshot) {
+    return System.currentTimeMillis() - snapshot.getIntervalEndMillis() > 2 * intervalMs;
   }
-  
+
+  /**
+   * In {@link PropagationMode#ADAPTIVE} mode, propagate now rather than waiting for the interval to expire.
+   */
   @Override
-  public void startPropagator() {
+  public void requestFlush() {
+    // Not synchronized, so the scheduler may be stopped (and cleared) at any point.
+    ScheduledExecutorService executor = scheduler;
+    if (executor != null && running && propagationMode == PropagationMode.ADAPTIVE && flushRequested.compareAndSet(false, true)) {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException ex) {
+        flushRequested.set(false);
+      }
+    }
+  }
 
+  @Override
+  public synchronized void startPropagator() {
+    if (running)
+      return;
+    running = true;
+    start();
+    intervalStartMillis = System.currentTimeMillis();
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Profiler Event Propagator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (propagationMode == PropagationMode.ADAPTIVE) {
+      currentDelayMs = intervalMs;
+      nextPropagation = scheduler.schedule(this, intervalMs, TimeUnit.MILLISECONDS);
+      int threshold = flushThreshold > 0 ? flushThreshold : eventMonitorReciever.getEventBuffer().capacity() / 2;
+      eventMonitorReciever.setFlushThreshold(threshold);
+    } else {
+      nextPropagation = scheduler.scheduleAtFixedRate(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    log.debug("Propagating profiling events every {}ms ({})", intervalMs, propagationMode);
   }
 
   @Override
-  public void stopPropagator() {
+  public synchronized void stopPropagator() {
     running = false;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    eventMonitorReciever.setFlushThreshold(0);
     stop();
   }
-  
+
+  protected EventMonitorReceiver getEventMonitorReceiver() {
+    return eventMonitorReciever;
+  }
+
+  public long getIntervalMs() {
+    return intervalMs;
+  }
+
+  public void setIntervalMs(long intervalMs) {
+    this.intervalMs = intervalMs;
+  }
+
+  public long getMaxIdleIntervalMs() {
+    return maxIdleIntervalMs;
+  }
+
+  public void setMaxIdleIntervalMs(long maxIdleIntervalMs) {
+    this.maxIdleIntervalMs = maxIdleIntervalMs;
+  }
+
+  public int getFlushThreshold() {
+    return flushThreshold;
+  }
+
+  public void setFlushThreshold(int flushThreshold) {
+    this.flushThreshold = flushThreshold;
+  }
+
+  public PropagationMode getPropagationMode() {
+    return propagationMode;
+  }
+
+  public void setPropagationMode(PropagationMode propagationMode) {
+    this.propagationMode = propagationMode;
+  }
+
+  /**
+   * @return the delay before the next propagation in {@link PropagationMode#ADAPTIVE} mode.
+   */
+  public synchronized long getCurrentDelayMs() {
+    return currentDelayMs;
+  }
+
 }
@@ -0,0 +1,112 @@
+package com.adaptris.monitor.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects activity documents and emits them as one payload once there are {@code maxItems} of them, or the oldest has
+ * waited {@code maxDelayMs}, whichever comes first.
+ */
+public class ActivityMessageBatcher {
+
+  protected transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+  private final int maxItems;
+
+  private final long maxDelayMs;
+
+  private final BatchFormat format;
+
+  private final Consumer<byte[]> emitter;
+
+  private final ByteArrayOutputStream batch = new ByteArrayOutputStream(8192);
+
+  private int items;
+
+  private long firstItemMillis;
+
+  private ScheduledExecutorService timer;
+
+  public ActivityMessageBatcher(int maxItems, long maxDelayMs, BatchFormat format, Consumer<byte[]> emitter) {
+    this.maxItems = Math.max(1, maxItems);
+    this.maxDelayMs = Math.max(1, maxDelayMs);
+    this.format = format;
+    this.emitter = emitter;
+  }
+
+  /**
+   * Start the timer that emits a partial batch once it is due, even if nothing else arrives.
+   */
+  public synchronized void start() {
+    if (timer != null)
+      return;
+    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Profiler Batch Timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1, maxDelayMs / 4);
+    timer.scheduleWithFixedDelay(() -> flushIfDue(System.currentTimeMillis()), period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop the timer and emit whatever is waiting.
+   */
+  public synchronized void stop() {
+    if (timer != null) {
+      timer.shutdownNow();
+      timer = null;
+    }
+    flush();
+  }
+
+  public synchronized void add(byte[] document) {
+    if (items == 0) {
+      firstItemMillis = System.currentTimeMillis();
+      write(format.open());
+    } else {
+      write(format.separator());
+    }
+    write(document);
+    write(format.terminator());
+    if (++items >= maxItems)
+      flush();
+  }
+
+  synchronized void flushIfDue(long now) {
+    if (items > 0 && now - firstItemMillis >= maxDelayMs)
+      flush();
+  }
+
+  /**
+   * Emit the waiting documents, if any. The emitter is called with the lock held so that batches leave in order.
+   */
+  public synchronized void flush() {
+    if (items == 0)
+      return;
+    write(format.close());
+    byte[] payload = batch.toByteArray();
+    batch.reset();
+    items = 0;
+    try {
+      emitter.accept(payload);
+    } catch (Exception ex) {
+      log.error("Failed to emit batch of profiling events.", ex);
+    }
+  }
+
+  public synchronized int size() {
+    return items;
+  }
+
+  private void write(byte[] bytes) {
+    batch.write(bytes, 0, bytes.length);
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.adaptris.monitor.agent;
+
+/**
+ * How {@link EventMonitorReceiver} turns incoming process steps into activity.
+ */
+public enum AggregationMode {
+
+  /**
+   * Steps are queued and replayed into the activity map by the propagator.
+   */
+  BUFFERED,
+
+  /**
+   * Steps update per component counters as they arrive; the propagator only snapshots and resets them.
+   */
+  STREAMING;
+
+  public static AggregationMode getMode(String mode) {
+    try {
+      return AggregationMode.valueOf(mode.toUpperCase().trim());
+    } catch (Exception ex) {
+      return BUFFERED;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.adaptris.monitor.agent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How {@link UDPProfilerConsumer} joins the activity documents of a batch into one message payload.
+ */
+public enum BatchFormat {
+
+  /**
+   * One JSON document per line.
+   */
+  NDJSON("", "", "\n", ""),
+
+  /**
+   * A single JSON array of documents.
+   */
+  JSON_ARRAY("[", ",", "", "]");
+
+  private final byte[] open;
+
+  private final byte[] separator;
+
+  private final byte[] terminator;
+
+  private final byte[] close;
+
+  private BatchFormat(String open, String separator, String terminator, String close) {
+    this.open = open.getBytes(StandardCharsets.UTF_8);
+    this.separator = separator.getBytes(StandardCharsets.UTF_8);
+    this.terminator = terminator.getBytes(StandardCharsets.UTF_8);
+    this.close = close.getBytes(StandardCharsets.UTF_8);
+  }
+
+  byte[] open() {
+    return open;
+  }
+
+  byte[] separator() {
+    return separator;
+  }
+
+  byte[] terminator() {
+    return terminator;
+  }
+
+  byte[] close() {
+    return close;
+  }
+
+}
@@ -1,10 +1,19 @@
 package com.adaptris.monitor.agent;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.adaptris.monitor.agent.http.HttpMetricsPropagator;
 import com.adaptris.monitor.agent.jmx.JmxEventPropagator;
 import com.adaptris.monitor.agent.multicast.MulticastEventPropagator;
+import com.adaptris.monitor.agent.statsd.LineProtocol;
+import com.adaptris.monitor.agent.statsd.StatsdEventPropagator;
 
 public enum ClientEventPropagatorCreator {
 
@@ -20,6 +29,27 @@ public enum ClientEventPropagatorCreator {
     public EventPropagator createClientPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
       return new MulticastEventPropagator(eventMonitorReceiver);
     }
+  },
+
+  HTTP {
+    @Override
+    public EventPropagator createClientPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
+      return new HttpMetricsPropagator(eventMonitorReceiver);
+    }
+  },
+
+  STATSD {
+    @Override
+    public EventPropagator createClientPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
+      return new StatsdEventPropagator(eventMonitorReceiver, LineProtocol.STATSD);
+    }
+  },
+
+  GRAPHITE {
+    @Override
+    public EventPropagator createClientPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
+      return new StatsdEventPropagator(eventMonitorReceiver, LineProtocol.GRAPHITE);
+    }
   };
   
   protected static final Logger log = LoggerFactory.getLogger(ClientEventPropagatorCreator.class);
@@ -38,4 +68,26 @@ public enum ClientEventPropagatorCreator {
     
     return eventPropagatorCreator;
   }
+
+  /**
+   * Create the propagator for a comma separated list of implementations; more than one results in a
+   * {@link CompositeEventPropagator} that shares a single aggregation pass between them.
+   */
+  public static EventPropagator createPropagator(String implementations, EventMonitorReceiver eventMonitorReceiver) throws Exception {
+    Set<ClientEventPropagatorCreator> creators = new LinkedHashSet<>();
+    for (String implementation : StringUtils.defaultString(implementations).split(",")) {
+      if (!StringUtils.isBlank(implementation))
+        creators.add(getCreator(implementation));
+    }
+    if (creators.isEmpty())
+      return getCreator(StringUtils.defaultString(implementations)).createClientPropagator(eventMonitorReceiver);
+    if (creators.size() == 1)
+      return creators.iterator().next().createClientPropagator(eventMonitorReceiver);
+
+    List<EventPropagator> propagators = new ArrayList<>();
+    for (ClientEventPropagatorCreator creator : creators)
+      propagators.add(creator.createClientPropagator(eventMonitorReceiver));
+    log.debug("Profiling events will be propagated by {}.", creators);
+    return new CompositeEventPropagator(eventMonitorReceiver, propagators);
+  }
 }
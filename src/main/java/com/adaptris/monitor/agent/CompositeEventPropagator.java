@@ -0,0 +1,125 @@
+package com.adaptris.monitor.agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+/**
+ * Fans each interval's snapshot out to several transports.
+ * <p>
+ * Aggregation happens once, on this propagator's scheduler; the delegates are never started themselves. Each delegate
+ * sends from its own single thread with a bounded queue, so a slow JMX client or a blocked socket only delays (and
+ * eventually drops the oldest pending snapshots of) its own transport.
+ * </p>
+ */
+public class CompositeEventPropagator extends AbstractEventPropagator {
+
+  private static final String QUEUE_SIZE_KEY = "com.adaptris.monitor.agent.PropagatorQueueSize";
+
+  private static final int DEFAULT_QUEUE_SIZE = 16;
+
+  private final List<Transport> transports;
+
+  public CompositeEventPropagator(EventMonitorReceiver eventMonitorReceiver, List<EventPropagator> propagators)
+      throws Exception {
+    super(eventMonitorReceiver);
+    int queueSize = Math.max(1, MonitorSettings.getInt(QUEUE_SIZE_KEY, DEFAULT_QUEUE_SIZE));
+    List<Transport> transportList = new ArrayList<>();
+    for (EventPropagator propagator : propagators)
+      transportList.add(new Transport(propagator, queueSize));
+    transports = Collections.unmodifiableList(transportList);
+  }
+
+  @Override
+  public void propagateSnapshot(ActivitySnapshot snapshot) {
+    for (Transport transport : transports)
+      transport.send(snapshot);
+  }
+
+  @Override
+  public void propagateProcessEvent(ActivityMap activityMap) {
+    propagateSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  @Override
+  protected void start() {
+    for (Transport transport : transports)
+      transport.start();
+  }
+
+  @Override
+  protected void stop() {
+    for (Transport transport : transports)
+      transport.stop();
+  }
+
+  public List<EventPropagator> getPropagators() {
+    List<EventPropagator> propagators = new ArrayList<>();
+    for (Transport transport : transports)
+      propagators.add(transport.propagator);
+    return propagators;
+  }
+
+  /**
+   * @return the number of snapshots the given delegate has dropped because its queue was full.
+   */
+  public long getDroppedCount(EventPropagator propagator) {
+    for (Transport transport : transports)
+      if (transport.propagator == propagator)
+        return transport.dropped.sum();
+    return 0;
+  }
+
+  private class Transport {
+
+    private final EventPropagator propagator;
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder dropped = new LongAdder();
+
+    Transport(EventPropagator propagator, int queueSize) {
+      this.propagator = propagator;
+      final String threadName = "Profiler " + propagator.getClass().getSimpleName();
+      executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+      }, (runnable, pool) -> {
+        if (!pool.isShutdown()) {
+          dropped.increment();
+          pool.getQueue().poll();
+          pool.execute(runnable);
+        }
+      });
+    }
+
+    void send(ActivitySnapshot snapshot) {
+      executor.execute(() -> {
+        try {
+          propagator.propagateSnapshot(snapshot);
+        } catch (Throwable t) {
+          log.error("{} failed to propagate profiling events.", propagator.getClass().getSimpleName(), t);
+        }
+      });
+    }
+
+    // The delegate's own scheduler is never started, only what it needs to send.
+    void start() {
+      if (propagator instanceof AbstractEventPropagator)
+        ((AbstractEventPropagator) propagator).start();
+    }
+
+    void stop() {
+      executor.shutdownNow();
+      propagator.stopPropagator();
+    }
+  }
+}
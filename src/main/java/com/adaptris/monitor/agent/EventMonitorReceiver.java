@@ -2,11 +2,9 @@ package com.adaptris.monitor.agent;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
 
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.StreamingActivityAggregator;
 import com.adaptris.profiler.ProcessStep;
 import com.adaptris.profiler.ProfilerSettings;
 import com.adaptris.profiler.client.EventReceiver;
@@ -14,35 +12,36 @@ import com.adaptris.profiler.client.EventReceiver;
 public final class EventMonitorReceiver implements EventReceiver {
 
   private static final String EVENT_PROPAGATOR_KEY = "com.adaptris.monitor.agent.EventPropagator";
+
+  private static final String EVENT_BUFFER_CAPACITY_KEY = "com.adaptris.monitor.agent.EventBufferCapacity";
+
+  private static final String AGGREGATION_MODE_KEY = "com.adaptris.monitor.agent.AggregationMode";
   
   private static EventMonitorReceiver INSTANCE;
   
   private EventPropagator eventPropagator;
   
-  private List<ProcessStep> unprocessedEvents;
-    
-  private ReentrantLock unprocessedListLock = new ReentrantLock(false);
+  private ProcessStepRingBuffer unprocessedEvents;
 
   private ActivityMap adapterActivityMap;
+
+  private volatile AggregationMode aggregationMode;
+
+  private volatile StreamingActivityAggregator streamingAggregator;
+
+  // Number of buffered events at which the propagator is asked to flush early, 0 to disable.
+  private volatile int flushThreshold;
     
   private EventMonitorReceiver() throws Exception {
-    unprocessedEvents = new ArrayList<>();
-    eventPropagator = ClientEventPropagatorCreator.getCreator(ProfilerSettings.getProperty(EVENT_PROPAGATOR_KEY)).createClientPropagator(this);
+    aggregationMode = AggregationMode.getMode(MonitorSettings.getString(AGGREGATION_MODE_KEY, AggregationMode.BUFFERED.name()));
+    unprocessedEvents = new ProcessStepRingBuffer(MonitorSettings.getInt(EVENT_BUFFER_CAPACITY_KEY, ProcessStepRingBuffer.DEFAULT_CAPACITY));
+    eventPropagator = ClientEventPropagatorCreator.createPropagator(ProfilerSettings.getProperty(EVENT_PROPAGATOR_KEY), this);
   }
   
   public static EventMonitorReceiver getInstance() throws Exception {
     if(INSTANCE == null) {
       INSTANCE = new EventMonitorReceiver();
-      
-      new Thread(new Runnable() {
-        
-        @Override
-        public void run() {
-          ExecutorService newSingleThreadExecutor = Executors.newSingleThreadExecutor();
-          newSingleThreadExecutor.submit(INSTANCE.getEventPropagator());
-        }
-      }).start();
-      
+      INSTANCE.getEventPropagator().startPropagator();
     }
     
     return INSTANCE;
@@ -50,23 +49,53 @@ public final class EventMonitorReceiver implements EventReceiver {
   
   @Override
   public void onEvent(ProcessStep processStep) {
-    unprocessedListLock.lock();
-    try {
-      unprocessedEvents.add(processStep);
-    } finally {
-      unprocessedListLock.unlock();
+    if (aggregationMode == AggregationMode.STREAMING) {
+      // Nothing to aggregate against until the adapter has started.
+      StreamingActivityAggregator aggregator = streamingAggregator;
+      if (aggregator != null)
+        aggregator.record(processStep);
+    } else {
+      unprocessedEvents.offer(processStep);
+      int threshold = flushThreshold;
+      if (threshold > 0 && unprocessedEvents.size() >= threshold)
+        eventPropagator.requestFlush();
     }
   }
   
+  /**
+   * Drain the next batch of unprocessed events into the given (reusable) batch.
+   * @return the number of events drained, less than the batch capacity once the buffer is empty.
+   */
+  public int drainEvents(ProcessStepBatch batch) {
+    return unprocessedEvents.drain(batch);
+  }
+
+  /**
+   * Convenience that drains every unprocessed event into a new list; the propagators use {@link #drainEvents(ProcessStepBatch)}.
+   */
   public List<ProcessStep> getEvents() {
-    unprocessedListLock.lock();
-    try {
-       ArrayList<ProcessStep> returnedList = new ArrayList<ProcessStep>(unprocessedEvents);
-       unprocessedEvents.clear();
-       return returnedList;
-    } finally {
-      unprocessedListLock.unlock();
-    }
+    List<ProcessStep> returnedList = new ArrayList<ProcessStep>();
+    ProcessStepBatch batch = new ProcessStepBatch();
+    int drained;
+    do {
+      drained = drainEvents(batch);
+      for (int index = 0; index < drained; index++)
+        returnedList.add(batch.get(index));
+    } while (drained == batch.capacity());
+    batch.clear();
+    return returnedList;
+  }
+
+  public ProcessStepRingBuffer getEventBuffer() {
+    return unprocessedEvents;
+  }
+
+  public long getDroppedEventCount() {
+    return unprocessedEvents.getDroppedCount();
+  }
+
+  public long getEventBufferHighWaterMark() {
+    return unprocessedEvents.getHighWaterMark();
   }
 
   public EventPropagator getEventPropagator() {
@@ -79,10 +108,42 @@ public final class EventMonitorReceiver implements EventReceiver {
 
   public void setAdapterActivityMap(ActivityMap createBaseMap) {
     this.adapterActivityMap = createBaseMap;
+    this.streamingAggregator = createStreamingAggregator();
   }
   
   public ActivityMap getAdapterActivityMap() {
     return this.adapterActivityMap;
   }
+
+  public int getFlushThreshold() {
+    return flushThreshold;
+  }
+
+  public void setFlushThreshold(int flushThreshold) {
+    this.flushThreshold = flushThreshold;
+  }
+
+  public AggregationMode getAggregationMode() {
+    return aggregationMode;
+  }
+
+  public void setAggregationMode(AggregationMode aggregationMode) {
+    this.aggregationMode = aggregationMode;
+    this.streamingAggregator = createStreamingAggregator();
+  }
+
+  /**
+   * @return the in-place aggregator when running in {@link AggregationMode#STREAMING} mode against a started adapter, or
+   *         null.
+   */
+  public StreamingActivityAggregator getStreamingAggregator() {
+    return streamingAggregator;
+  }
+
+  private StreamingActivityAggregator createStreamingAggregator() {
+    if (aggregationMode == AggregationMode.STREAMING && adapterActivityMap != null)
+      return new StreamingActivityAggregator(adapterActivityMap);
+    return null;
+  }
   
 }
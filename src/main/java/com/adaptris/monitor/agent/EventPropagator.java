@@ -1,13 +1,28 @@
 package com.adaptris.monitor.agent;
 
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
 
 public interface EventPropagator extends Runnable {
   
   public void propagateProcessEvent(ActivityMap activityMap);
   
+  /**
+   * Default behaviour is to hand a standalone copy of the snapshot to {@link #propagateProcessEvent(ActivityMap)}, since the
+   * live map will be reset and refilled during the next interval.
+   */
+  public default void propagateSnapshot(ActivitySnapshot snapshot) {
+    propagateProcessEvent(snapshot.toActivityMap());
+  }
+  
   public void startPropagator();
   
+  /**
+   * Propagate as soon as possible rather than waiting for the interval to expire; ignored by default.
+   */
+  public default void requestFlush() {
+  }
+  
   public void stopPropagator();
 
 }
@@ -0,0 +1,50 @@
+package com.adaptris.monitor.agent;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.profiler.ProfilerSettings;
+
+/**
+ * Typed access to the monitor agent keys held in the interlok-profiler.properties via {@link ProfilerSettings}.
+ */
+public final class MonitorSettings {
+
+  private static final Logger log = LoggerFactory.getLogger(MonitorSettings.class);
+
+  private MonitorSettings() {
+  }
+
+  public static String getString(String key, String defaultValue) {
+    String value = null;
+    try {
+      value = ProfilerSettings.getProperty(key);
+    } catch (Exception ex) {
+      log.trace("Could not read profiler setting {}", key, ex);
+    }
+    return StringUtils.isBlank(value) ? defaultValue : value.trim();
+  }
+
+  public static int getInt(String key, int defaultValue) {
+    return (int) getLong(key, defaultValue);
+  }
+
+  public static long getLong(String key, long defaultValue) {
+    String value = getString(key, null);
+    if (value == null)
+      return defaultValue;
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException ex) {
+      log.warn("Profiler setting {} has a non numeric value {}, using {}", key, value, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  public static boolean getBoolean(String key, boolean defaultValue) {
+    String value = getString(key, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+}
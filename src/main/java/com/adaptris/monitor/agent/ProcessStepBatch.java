@@ -0,0 +1,53 @@
+package com.adaptris.monitor.agent;
+
+import java.util.Arrays;
+
+import com.adaptris.profiler.ProcessStep;
+
+/**
+ * Reusable fixed size holder that {@link ProcessStepRingBuffer#drain(ProcessStepBatch)} fills.
+ */
+public class ProcessStepBatch {
+
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  private final ProcessStep[] steps;
+
+  private int size;
+
+  public ProcessStepBatch() {
+    this(DEFAULT_BATCH_SIZE);
+  }
+
+  public ProcessStepBatch(int capacity) {
+    steps = new ProcessStep[capacity];
+  }
+
+  void add(ProcessStep processStep) {
+    steps[size++] = processStep;
+  }
+
+  public ProcessStep get(int index) {
+    if (index >= size)
+      throw new IndexOutOfBoundsException("Index " + index + " >= " + size);
+    return steps[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return steps.length;
+  }
+
+  public boolean isFull() {
+    return size == steps.length;
+  }
+
+  public void clear() {
+    Arrays.fill(steps, 0, size, null);
+    size = 0;
+  }
+
+}
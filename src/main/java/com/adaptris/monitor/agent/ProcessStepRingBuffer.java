@@ -0,0 +1,151 @@
+package com.adaptris.monitor.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.adaptris.profiler.ProcessStep;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer ring buffer for {@link ProcessStep} events.
+ * <p>
+ * Every workflow thread may call {@link #offer(ProcessStep)} concurrently; a slot is claimed with a single CAS and published
+ * with an ordered write of its sequence number. When the buffer is full the event is dropped and counted rather than
+ * blocking the workflow thread. Draining is performed by the propagator thread into a reusable {@link ProcessStepBatch}, so
+ * the steady state allocates nothing.
+ * </p>
+ */
+public class ProcessStepRingBuffer {
+
+  public static final int DEFAULT_CAPACITY = 65536;
+
+  private final int capacity;
+
+  private final int mask;
+
+  private final AtomicReferenceArray<ProcessStep> slots;
+
+  // Per slot sequence; a slot is free for the producer at position p when sequence == p, readable when sequence == p + 1.
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong tail = new AtomicLong();
+
+  private volatile long head;
+
+  private final LongAdder offeredCount = new LongAdder();
+
+  private final LongAdder droppedCount = new LongAdder();
+
+  private final AtomicLong highWaterMark = new AtomicLong();
+
+  public ProcessStepRingBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ProcessStepRingBuffer(int requestedCapacity) {
+    if (requestedCapacity < 1)
+      throw new IllegalArgumentException("Ring buffer capacity must be positive: " + requestedCapacity);
+    capacity = roundUpToPowerOfTwo(requestedCapacity);
+    mask = capacity - 1;
+    slots = new AtomicReferenceArray<>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    for (int index = 0; index < capacity; index++)
+      sequences.set(index, index);
+  }
+
+  /**
+   * Add a step to the buffer.
+   *
+   * @param processStep the step.
+   * @return false if the buffer was full and the step has been dropped.
+   */
+  public boolean offer(ProcessStep processStep) {
+    offeredCount.increment();
+    long position;
+    int index;
+    for (;;) {
+      position = tail.get();
+      index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1))
+          break;
+      } else if (difference < 0) {
+        droppedCount.increment();
+        return false;
+      }
+    }
+    slots.lazySet(index, processStep);
+    sequences.lazySet(index, position + 1);
+    recordDepth(position + 1 - head);
+    return true;
+  }
+
+  /**
+   * Move as many published steps as will fit into the given batch.
+   * <p>
+   * The batch is cleared first; callers should keep calling this method until it returns fewer steps than the batch capacity.
+   * </p>
+   *
+   * @param batch the reusable batch to fill.
+   * @return the number of steps drained.
+   */
+  public synchronized int drain(ProcessStepBatch batch) {
+    batch.clear();
+    long position = head;
+    while (!batch.isFull()) {
+      int index = (int) (position & mask);
+      if (sequences.get(index) != position + 1)
+        break;
+      batch.add(slots.get(index));
+      slots.lazySet(index, null);
+      sequences.lazySet(index, position + capacity);
+      position++;
+    }
+    head = position;
+    return batch.size();
+  }
+
+  private void recordDepth(long depth) {
+    long currentMark = highWaterMark.get();
+    while (depth > currentMark && !highWaterMark.compareAndSet(currentMark, depth))
+      currentMark = highWaterMark.get();
+  }
+
+  private static int roundUpToPowerOfTwo(int value) {
+    if (value > (1 << 30))
+      return 1 << 30;
+    int highestBit = Integer.highestOneBit(value);
+    return highestBit == value ? value : highestBit << 1;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return an approximation of the number of steps waiting to be drained.
+   */
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  public long getOfferedCount() {
+    return offeredCount.sum();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  public long getHighWaterMark() {
+    return highWaterMark.get();
+  }
+
+  public void resetHighWaterMark() {
+    highWaterMark.set(0);
+  }
+
+}
@@ -0,0 +1,26 @@
+package com.adaptris.monitor.agent;
+
+/**
+ * How often {@link AbstractEventPropagator} propagates the aggregated activity.
+ */
+public enum PropagationMode {
+
+  /**
+   * Propagate at a fixed rate, regardless of how long aggregation and sending take.
+   */
+  FIXED_RATE,
+
+  /**
+   * Propagate at the configured interval, but flush early when the event buffer fills past a threshold and back off while
+   * the adapter is idle.
+   */
+  ADAPTIVE;
+
+  public static PropagationMode getMode(String mode) {
+    try {
+      return PropagationMode.valueOf(mode.toUpperCase().trim());
+    } catch (Exception ex) {
+      return FIXED_RATE;
+    }
+  }
+}
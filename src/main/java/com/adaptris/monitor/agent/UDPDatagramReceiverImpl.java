@@ -2,17 +2,27 @@ package com.adaptris.monitor.agent;
 
 import java.net.DatagramPacket;
 import java.net.MulticastSocket;
+import java.util.Arrays;
 
+/**
+ * Receives into one reusable buffer of the consumer's packet size and hands back a packet holding a right sized copy, so
+ * each datagram costs an allocation of its own size rather than of the largest possible datagram.
+ */
 public class UDPDatagramReceiverImpl implements UDPDatagramReceiver {
 
+  private byte[] receiveBuffer = new byte[0];
+
   @Override
-  public DatagramPacket receive(UDPProfilerConsumer consumer) throws Exception {
-    final byte[] udpPacket = new byte[getPacketSize(consumer)];
+  public synchronized DatagramPacket receive(UDPProfilerConsumer consumer) throws Exception {
+    int packetSize = getPacketSize(consumer);
+    if (receiveBuffer.length != packetSize)
+      receiveBuffer = new byte[packetSize];
     
-    final DatagramPacket packet = new DatagramPacket(udpPacket, udpPacket.length);
+    final DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
     getSocket(consumer).receive(packet);
     
-    return packet;
+    byte[] data = Arrays.copyOfRange(receiveBuffer, packet.getOffset(), packet.getOffset() + packet.getLength());
+    return new DatagramPacket(data, data.length, packet.getSocketAddress());
   } 
   
   private int getPacketSize(UDPProfilerConsumer consumer) {
@@ -1,18 +1,40 @@
 package com.adaptris.monitor.agent;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
 import java.net.DatagramPacket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.adaptris.core.CoreException;
 import com.adaptris.core.PollerImp;
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.wire.ActivityPacketReader;
+import com.adaptris.monitor.agent.wire.ChunkAssembler;
+import com.adaptris.monitor.agent.wire.SequenceTracker;
 
+/**
+ * Receives profiling activity in two stages.
+ * <p>
+ * The receive thread only reads datagrams and hands them to one of the consumer's {@code decodeThreads} decode stages,
+ * chosen by sender, so that everything from one sender is reassembled, decoded, marshalled and submitted in the order it
+ * arrived while different senders are processed in parallel. Each decode stage has a bounded queue; when it is full the
+ * datagram is dropped and counted rather than stalling the receive thread.
+ * </p>
+ */
 public class UDPPoller extends PollerImp {
 
-    private transient boolean stopped = false;
+    protected transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private transient volatile boolean stopped = false;
     private transient Thread monitorThread;
     private transient UDPDatagramReceiver datagramReceiver;
+    private transient ChunkAssembler chunkAssembler;
+    private transient SequenceTracker sequenceTracker;
+    private transient DecodeStage[] decodeStages = new DecodeStage[0];
+    private transient final LongAdder received = new LongAdder();
 
     public UDPPoller() {
       this.setDatagramReceiver(new UDPDatagramReceiverImpl());
@@ -27,12 +49,21 @@ public class UDPPoller extends PollerImp {
                 throw new CoreException("UDP Packet size must be non zero");
         }
 
-        monitorThread = createThread();
+        UDPProfilerConsumer consumer = (UDPProfilerConsumer) this.retrieveConsumer();
+        chunkAssembler = new ChunkAssembler(consumer.getReassemblyTimeoutMs(), consumer.getReassemblyMaxBytes());
+        sequenceTracker = new SequenceTracker();
+        DecodeStage[] stages = new DecodeStage[Math.max(1, consumer.getDecodeThreads())];
+        for (int index = 0; index < stages.length; index++)
+            stages[index] = new DecodeStage(index, consumer);
+        decodeStages = stages;
     }
 
     @Override
     public void start() throws CoreException {
         stopped = false;
+        for (DecodeStage stage : decodeStages)
+            stage.start();
+        monitorThread = createThread();
         monitorThread.start();
     }
 
@@ -41,6 +72,8 @@ public class UDPPoller extends PollerImp {
         stopped = true;
         if(monitorThread != null)
             monitorThread.interrupt();
+        for (DecodeStage stage : decodeStages)
+            stage.stop();
     }
 
     private Thread createThread() {
@@ -50,23 +83,73 @@ public class UDPPoller extends PollerImp {
                 while(!stopped) {
                     try {
                         DatagramPacket packet = getDatagramReceiver().receive(((UDPProfilerConsumer)retrieveConsumer()));
-                        
-                        ObjectInputStream iStream = new ObjectInputStream(new ByteArrayInputStream(packet.getData()));
-                        ActivityMap activityMap = (ActivityMap) iStream.readObject();
-                        convertAndProcessMessage(activityMap);
+                        received.increment();
+                        stageFor(packet).offer(packet);
                     } catch (Exception ex) {
-                        ex.printStackTrace();
+                        if (!stopped)
+                            log.warn("Failed to receive profiling events.", ex);
                     }
                 }
             }
         };
     }
 
-    // TODO implement marshalling
+    private DecodeStage stageFor(DatagramPacket packet) {
+        int hash = packet.getAddress() == null ? 0 : packet.getAddress().hashCode() * 31 + packet.getPort();
+        return decodeStages[Math.floorMod(hash, decodeStages.length)];
+    }
+
     private void convertAndProcessMessage(ActivityMap activityMap) {
         ((UDPProfilerConsumer)retrieveConsumer()).processMessage(activityMap);
     }
 
+    /**
+     * @return the reassembly of chunked activity, with counts of the messages that could not be completed; null until
+     *         initialised.
+     */
+    public ChunkAssembler getChunkAssembler() {
+      return chunkAssembler;
+    }
+
+    /**
+     * @return the packets lost, duplicated and reordered by each sender; null until initialised.
+     */
+    public SequenceTracker getSequenceTracker() {
+      return sequenceTracker;
+    }
+
+    public long getReceivedCount() {
+      return received.sum();
+    }
+
+    public int getDecodeStageCount() {
+      return decodeStages.length;
+    }
+
+    /**
+     * @return the number of datagrams waiting in the given decode stage.
+     */
+    public int getQueueDepth(int stage) {
+      return decodeStages[stage].queue.size();
+    }
+
+    public long getProcessedCount() {
+      long processed = 0;
+      for (DecodeStage stage : decodeStages)
+        processed += stage.processed.sum();
+      return processed;
+    }
+
+    /**
+     * @return the number of datagrams discarded because their decode stage was a full queue behind.
+     */
+    public long getDroppedCount() {
+      long dropped = 0;
+      for (DecodeStage stage : decodeStages)
+        dropped += stage.dropped.sum();
+      return dropped;
+    }
+
     public UDPDatagramReceiver getDatagramReceiver() {
       return datagramReceiver;
     }
@@ -74,4 +157,58 @@ public class UDPPoller extends PollerImp {
     public void setDatagramReceiver(UDPDatagramReceiver datagramReceiver) {
       this.datagramReceiver = datagramReceiver;
     }
+
+    private class DecodeStage implements Runnable {
+
+        private final int index;
+        private final BlockingQueue<DatagramPacket> queue;
+        private final ActivityPacketReader packetReader;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private Thread thread;
+
+        DecodeStage(int index, UDPProfilerConsumer consumer) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, consumer.getDecodeQueueSize()));
+            this.packetReader = new ActivityPacketReader(chunkAssembler, sequenceTracker, consumer.isAllowJavaSerialization());
+        }
+
+        void offer(DatagramPacket packet) {
+            if (!queue.offer(packet))
+                dropped.increment();
+        }
+
+        void start() {
+            thread = new Thread(this, "UDP Event Decoder " + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            if (thread != null)
+                thread.interrupt();
+            queue.clear();
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                DatagramPacket packet;
+                try {
+                    packet = queue.take();
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                try {
+                    ActivityMap activityMap = packetReader.read(packet);
+                    if (activityMap != null) {
+                        convertAndProcessMessage(activityMap);
+                        processed.increment();
+                    }
+                } catch (Exception ex) {
+                    log.warn("Failed to process profiling events.", ex);
+                }
+            }
+        }
+    }
 }
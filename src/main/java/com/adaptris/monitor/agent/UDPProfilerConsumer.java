@@ -6,15 +6,40 @@ import com.adaptris.core.AdaptrisPollingConsumer;
 import com.adaptris.core.CoreException;
 import com.adaptris.monitor.agent.activity.ActivityMap;
 import com.adaptris.monitor.agent.json.EventJsonMarshaller;
+import com.adaptris.monitor.agent.wire.ChunkAssembler;
 
 public class UDPProfilerConsumer extends AdaptrisPollingConsumer {
     private int packetSize = 120400;
+    private boolean allowJavaSerialization = true;
+    private long reassemblyTimeoutMs = ChunkAssembler.DEFAULT_TIMEOUT_MS;
+    private long reassemblyMaxBytes = ChunkAssembler.DEFAULT_MAX_BYTES;
+    private int decodeThreads = 2;
+    private int decodeQueueSize = 256;
+    private int batchSize = 1;
+    private long batchWindowMs = 1000;
+    private BatchFormat batchFormat = BatchFormat.NDJSON;
     private EventJsonMarshaller jsonMarshaller;
+    private transient ActivityMessageBatcher batcher;
 
 
     @Override
     protected void prepareConsumer() throws CoreException {
         jsonMarshaller = new EventJsonMarshaller();
+        batcher = getBatchSize() > 1 ? new ActivityMessageBatcher(getBatchSize(), getBatchWindowMs(), getBatchFormat(), this::submit) : null;
+    }
+
+    @Override
+    public void start() throws CoreException {
+        if (batcher != null)
+            batcher.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (batcher != null)
+            batcher.stop();
     }
 
     public int getPacketSize() {
@@ -25,14 +50,108 @@ public class UDPProfilerConsumer extends AdaptrisPollingConsumer {
         this.packetSize = packetSize;
     }
 
+    /**
+     * Whether activity sent with Java serialization by older agents is accepted; it is unsafe to deserialize untrusted data
+     * so turn this off once every agent sends the binary format.
+     */
+    public boolean isAllowJavaSerialization() {
+        return allowJavaSerialization;
+    }
+
+    public void setAllowJavaSerialization(boolean allowJavaSerialization) {
+        this.allowJavaSerialization = allowJavaSerialization;
+    }
+
+    /**
+     * How long the chunks of a partially received message are kept waiting for the rest.
+     */
+    public long getReassemblyTimeoutMs() {
+        return reassemblyTimeoutMs;
+    }
+
+    public void setReassemblyTimeoutMs(long reassemblyTimeoutMs) {
+        this.reassemblyTimeoutMs = reassemblyTimeoutMs;
+    }
+
+    /**
+     * The most memory held for partially received messages, the oldest are discarded first.
+     */
+    public long getReassemblyMaxBytes() {
+        return reassemblyMaxBytes;
+    }
+
+    public void setReassemblyMaxBytes(long reassemblyMaxBytes) {
+        this.reassemblyMaxBytes = reassemblyMaxBytes;
+    }
+
+    /**
+     * The number of threads decoding and submitting received activity; activity from any one sender is always handled by
+     * the same thread, in order.
+     */
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    /**
+     * The datagrams each decode thread may have waiting before further datagrams are dropped.
+     */
+    public int getDecodeQueueSize() {
+        return decodeQueueSize;
+    }
+
+    public void setDecodeQueueSize(int decodeQueueSize) {
+        this.decodeQueueSize = decodeQueueSize;
+    }
+
+    /**
+     * The number of received activity documents to emit as one message; 1, the default, emits each as it arrives.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The longest a received document waits for its batch to fill before a partial batch is emitted.
+     */
+    public long getBatchWindowMs() {
+        return batchWindowMs;
+    }
+
+    public void setBatchWindowMs(long batchWindowMs) {
+        this.batchWindowMs = batchWindowMs;
+    }
+
+    public BatchFormat getBatchFormat() {
+        return batchFormat;
+    }
+
+    public void setBatchFormat(BatchFormat batchFormat) {
+        this.batchFormat = batchFormat;
+    }
+
     @Override
     protected int processMessages() {
         return 1;
     }
 
     public void processMessage(ActivityMap activityMap) {
-        String data = jsonMarshaller.marshallToJson(activityMap);
-        AdaptrisMessage msg = AdaptrisMessageFactory.defaultIfNull(getMessageFactory()).newMessage(data);
+        byte[] data = jsonMarshaller.marshallToJsonBytes(activityMap);
+        if (batcher != null)
+            batcher.add(data);
+        else
+            submit(data);
+    }
+
+    private void submit(byte[] payload) {
+        AdaptrisMessage msg = AdaptrisMessageFactory.defaultIfNull(getMessageFactory()).newMessage(payload);
         retrieveAdaptrisMessageListener().onAdaptrisMessage(msg);
     }
 }
@@ -1,8 +1,13 @@
 package com.adaptris.monitor.agent.activity;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.adaptris.profiler.ProcessStep;
 import com.google.gson.annotations.Expose;
@@ -14,14 +19,78 @@ public class ActivityMap implements Serializable {
   @Expose
   private Map<String, BaseActivity> adapters;
 
+  // Flat uniqueId -> component index, in traversal order; rebuilt on demand after deserialization.
+  private transient Map<String, BaseFlowActivity> flowActivityIndex;
+
+  private transient ActivitySnapshot.Layout snapshotLayout;
+
+  // Written on the aggregation thread, read from anywhere.
+  private transient LongAdder unknownActivityCount = new LongAdder();
+
   public ActivityMap() {
     adapters = new HashMap<>();
   }
 
+  /**
+   * Route the step straight to the component with the matching uniqueId; steps for components that are not part of this
+   * map are counted (see {@link #getUnknownActivityCount()}). The step type plays no part: a consumer or producer step
+   * whose id matches no component is unknown, just as it was never counted by a consumer or producer before.
+   */
   public void addActivity(ProcessStep activity) {
-    for(String key : this.getAdapters().keySet()) {
-      this.getAdapters().get(key).addActivity(activity);
-    }
+    BaseFlowActivity flowActivity = this.getFlowActivityIndex().get(activity.getStepInstanceId());
+    if (flowActivity != null)
+      flowActivity.addActivity(activity);
+    else
+      unknownActivityCount.increment();
+  }
+
+  /**
+   * @return an unmodifiable view of every consumer, producer and service in this map keyed on uniqueId.
+   */
+  public Map<String, BaseFlowActivity> getFlowActivityIndex() {
+    if (flowActivityIndex == null)
+      flowActivityIndex = Collections.unmodifiableMap(buildFlowActivityIndex());
+    return flowActivityIndex;
+  }
+
+  public void setFlowActivityIndex(Map<String, BaseFlowActivity> flowActivityIndex) {
+    this.flowActivityIndex = flowActivityIndex == null ? null : Collections.unmodifiableMap(flowActivityIndex);
+    this.snapshotLayout = null;
+  }
+
+  /**
+   * @return the component ordering shared by every {@link ActivitySnapshot} taken from this map.
+   */
+  public ActivitySnapshot.Layout getSnapshotLayout() {
+    if (snapshotLayout == null)
+      snapshotLayout = new ActivitySnapshot.Layout(this);
+    return snapshotLayout;
+  }
+
+  /**
+   * Discard the index so that it is rebuilt from the current hierarchy; required if adapters are added after the first
+   * step has been routed.
+   */
+  public void reindex() {
+    flowActivityIndex = null;
+    snapshotLayout = null;
+  }
+
+  public long getUnknownActivityCount() {
+    return unknownActivityCount.sum();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    unknownActivityCount = new LongAdder();
+  }
+  
+  /**
+   * Derive the per interval averages for every component; call once before the map is propagated.
+   */
+  public void calculateStatistics() {
+    for (BaseFlowActivity flowActivity : this.getFlowActivityIndex().values())
+      flowActivity.calculateStatistics();
   }
   
   public void resetActivity() {
@@ -30,6 +99,17 @@ public class ActivityMap implements Serializable {
     }
   }
 
+  /**
+   * @return a copy of the component hierarchy carrying no activity.
+   */
+  public ActivityMap copyStructure() {
+    ActivityMap copy = new ActivityMap();
+    for(Map.Entry<String, BaseActivity> adapter : this.getAdapters().entrySet()) {
+      copy.getAdapters().put(adapter.getKey(), adapter.getValue().copyStructure());
+    }
+    return copy;
+  }
+
   public Map<String, BaseActivity> getAdapters() {
     return adapters;
   }
@@ -38,6 +118,37 @@ public class ActivityMap implements Serializable {
     this.adapters = adapters;
   }
 
+  private Map<String, BaseFlowActivity> buildFlowActivityIndex() {
+    Map<String, BaseFlowActivity> index = new LinkedHashMap<>();
+    for (BaseActivity adapter : getAdapters().values())
+      indexFlowActivities(adapter, index);
+    return index;
+  }
+
+  private static void indexFlowActivities(BaseActivity activity, Map<String, BaseFlowActivity> index) {
+    if (activity == null)
+      return;
+    if (activity instanceof AdapterActivity) {
+      for (ChannelActivity channel : ((AdapterActivity) activity).getChannels().values())
+        indexFlowActivities(channel, index);
+    } else if (activity instanceof ChannelActivity) {
+      for (WorkflowActivity workflow : ((ChannelActivity) activity).getWorkflows().values())
+        indexFlowActivities(workflow, index);
+    } else if (activity instanceof WorkflowActivity) {
+      WorkflowActivity workflow = (WorkflowActivity) activity;
+      indexFlowActivities(workflow.getConsumerActivity(), index);
+      for (ServiceActivity service : workflow.getServices().values())
+        indexFlowActivities(service, index);
+      indexFlowActivities(workflow.getProducerActivity(), index);
+    } else if (activity instanceof BaseFlowActivity) {
+      index.putIfAbsent(activity.getUniqueId(), (BaseFlowActivity) activity);
+      if (activity instanceof ServiceActivity) {
+        for (ServiceActivity service : ((ServiceActivity) activity).getServices().values())
+          indexFlowActivities(service, index);
+      }
+    }
+  }
+
   @Override
   public String toString() {
     StringBuffer buffer = new StringBuffer();
@@ -0,0 +1,433 @@
+package com.adaptris.monitor.agent.activity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, compact copy of the statistics held in an {@link ActivityMap} at the end of an interval.
+ * <p>
+ * The component hierarchy never changes while an adapter is running, so a snapshot only holds a reference to the shared
+ * {@link Layout} (the component ids in index order) plus one primitive array per statistic, and the non-empty histogram
+ * buckets of every component packed into two flat arrays. Capturing a snapshot therefore costs a handful of small arrays
+ * rather than a deep copy of the tree, and the live map can be reset and refilled straight away. An {@link ActivityMap}
+ * is only rebuilt from the snapshot if somebody asks for one with {@link #toActivityMap()}.
+ * </p>
+ * <p>
+ * Alongside the interval statistics every snapshot carries each component's lifetime message count, total time and
+ * histogram, which only ever grow; collectors can difference any two snapshots for exact rates, whatever was lost in
+ * between.
+ * </p>
+ */
+public final class ActivitySnapshot {
+
+  private final Layout layout;
+
+  private final long intervalStartMillis;
+
+  private final long intervalEndMillis;
+
+  private final long[] messageCounts;
+
+  private final long[] totalTimeTaken;
+
+  private final long[] minTimeTaken;
+
+  private final long[] maxTimeTaken;
+
+  private final long[] avgTimeTaken;
+
+  private final double[] sumOfSquares;
+
+  private final double[] stdDevTimeTaken;
+
+  private final long[] p50TimeTaken;
+
+  private final long[] p95TimeTaken;
+
+  private final long[] p99TimeTaken;
+
+  private final long[] p999TimeTaken;
+
+  // Component i owns the buckets in [histogramOffsets[i], histogramOffsets[i + 1]).
+  private final int[] histogramOffsets;
+
+  private final short[] histogramBuckets;
+
+  private final long[] histogramCounts;
+
+  private final long[] cumulativeMessageCounts;
+
+  private final long[] cumulativeTimeTaken;
+
+  private final int[] cumulativeHistogramOffsets;
+
+  private final short[] cumulativeHistogramBuckets;
+
+  private final long[] cumulativeHistogramCounts;
+
+  private ActivitySnapshot(Layout layout, long intervalStartMillis, long intervalEndMillis) {
+    int size = layout.size();
+    this.layout = layout;
+    this.intervalStartMillis = intervalStartMillis;
+    this.intervalEndMillis = intervalEndMillis;
+    messageCounts = new long[size];
+    totalTimeTaken = new long[size];
+    minTimeTaken = new long[size];
+    maxTimeTaken = new long[size];
+    avgTimeTaken = new long[size];
+    sumOfSquares = new double[size];
+    stdDevTimeTaken = new double[size];
+    p50TimeTaken = new long[size];
+    p95TimeTaken = new long[size];
+    p99TimeTaken = new long[size];
+    p999TimeTaken = new long[size];
+    histogramOffsets = new int[size + 1];
+    cumulativeMessageCounts = new long[size];
+    cumulativeTimeTaken = new long[size];
+    cumulativeHistogramOffsets = new int[size + 1];
+
+    int bucketCount = 0;
+    int cumulativeBucketCount = 0;
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      BaseFlowActivity activity = layout.activity(ordinal);
+      LatencyHistogram histogram = activity.getHistogram();
+      if (histogram.getTotalCount() > 0) {
+        for (int index = 0; index < LatencyHistogram.BUCKET_COUNT; index++)
+          if (histogram.getCountInBucket(index) != 0)
+            bucketCount++;
+      }
+      if (activity.getCumulativeMessageCount() > 0) {
+        for (int index = 0; index < LatencyHistogram.BUCKET_COUNT; index++)
+          if (activity.getCumulativeCountInBucket(index) != 0)
+            cumulativeBucketCount++;
+      }
+    }
+    histogramBuckets = new short[bucketCount];
+    histogramCounts = new long[bucketCount];
+    cumulativeHistogramBuckets = new short[cumulativeBucketCount];
+    cumulativeHistogramCounts = new long[cumulativeBucketCount];
+  }
+
+  /**
+   * Copy the current statistics out of the map; statistics should already have been calculated.
+   */
+  public static ActivitySnapshot capture(ActivityMap activityMap) {
+    long now = System.currentTimeMillis();
+    return capture(activityMap, now, now);
+  }
+
+  public static ActivitySnapshot capture(ActivityMap activityMap, long intervalStartMillis, long intervalEndMillis) {
+    ActivitySnapshot snapshot = new ActivitySnapshot(activityMap.getSnapshotLayout(), intervalStartMillis, intervalEndMillis);
+    snapshot.copyFrom();
+    return snapshot;
+  }
+
+  private void copyFrom() {
+    int bucket = 0;
+    int cumulativeBucket = 0;
+    for (int ordinal = 0; ordinal < layout.size(); ordinal++) {
+      BaseFlowActivity activity = layout.activity(ordinal);
+      messageCounts[ordinal] = activity.getMessageCount();
+      totalTimeTaken[ordinal] = activity.getTotalMsTaken();
+      minTimeTaken[ordinal] = activity.getMinMsTaken();
+      maxTimeTaken[ordinal] = activity.getMaxMsTaken();
+      avgTimeTaken[ordinal] = activity.getAvgMsTaken();
+      sumOfSquares[ordinal] = activity.getSumOfSquaresMsTaken();
+      stdDevTimeTaken[ordinal] = activity.getStdDevMsTaken();
+      p50TimeTaken[ordinal] = activity.getP50MsTaken();
+      p95TimeTaken[ordinal] = activity.getP95MsTaken();
+      p99TimeTaken[ordinal] = activity.getP99MsTaken();
+      p999TimeTaken[ordinal] = activity.getP999MsTaken();
+      histogramOffsets[ordinal] = bucket;
+      LatencyHistogram histogram = activity.getHistogram();
+      if (histogram.getTotalCount() > 0) {
+        for (int index = 0; index < LatencyHistogram.BUCKET_COUNT && bucket < histogramBuckets.length; index++) {
+          long count = histogram.getCountInBucket(index);
+          if (count != 0) {
+            histogramBuckets[bucket] = (short) index;
+            histogramCounts[bucket++] = count;
+          }
+        }
+      }
+      cumulativeMessageCounts[ordinal] = activity.getCumulativeMessageCount();
+      cumulativeTimeTaken[ordinal] = activity.getCumulativeMsTaken();
+      cumulativeHistogramOffsets[ordinal] = cumulativeBucket;
+      if (activity.getCumulativeMessageCount() > 0) {
+        for (int index = 0; index < LatencyHistogram.BUCKET_COUNT && cumulativeBucket < cumulativeHistogramBuckets.length; index++) {
+          long count = activity.getCumulativeCountInBucket(index);
+          if (count != 0) {
+            cumulativeHistogramBuckets[cumulativeBucket] = (short) index;
+            cumulativeHistogramCounts[cumulativeBucket++] = count;
+          }
+        }
+      }
+    }
+    histogramOffsets[layout.size()] = bucket;
+    cumulativeHistogramOffsets[layout.size()] = cumulativeBucket;
+  }
+
+  /**
+   * @return a standalone {@link ActivityMap} holding the statistics of this snapshot; a new one on every call, since the
+   *         map is mutable and a snapshot is shared by every propagator and reader.
+   */
+  public ActivityMap toActivityMap() {
+    ActivityMap copy = layout.getTopology().copyStructure();
+    for (BaseFlowActivity activity : copy.getFlowActivityIndex().values()) {
+      int ordinal = layout.ordinalOf(activity.getUniqueId());
+      if (ordinal >= 0)
+        copyTo(ordinal, activity);
+    }
+    return copy;
+  }
+
+  private void copyTo(int ordinal, BaseFlowActivity activity) {
+    activity.setMessageCount((int) Math.min(messageCounts[ordinal], Integer.MAX_VALUE));
+    activity.setMinMsTaken(minTimeTaken[ordinal]);
+    activity.setMaxMsTaken(maxTimeTaken[ordinal]);
+    activity.setAvgMsTaken(avgTimeTaken[ordinal]);
+    activity.setStdDevMsTaken(stdDevTimeTaken[ordinal]);
+    activity.setP50MsTaken(p50TimeTaken[ordinal]);
+    activity.setP95MsTaken(p95TimeTaken[ordinal]);
+    activity.setP99MsTaken(p99TimeTaken[ordinal]);
+    activity.setP999MsTaken(p999TimeTaken[ordinal]);
+    activity.restoreAccumulators(totalTimeTaken[ordinal], sumOfSquares[ordinal]);
+    for (int bucket = histogramOffsets[ordinal]; bucket < histogramOffsets[ordinal + 1]; bucket++)
+      activity.getHistogram().addToBucket(histogramBuckets[bucket], histogramCounts[bucket]);
+    activity.restoreCumulative(cumulativeMessageCounts[ordinal], cumulativeTimeTaken[ordinal]);
+    for (int bucket = cumulativeHistogramOffsets[ordinal]; bucket < cumulativeHistogramOffsets[ordinal + 1]; bucket++)
+      activity.restoreCumulativeBucket(cumulativeHistogramBuckets[bucket], cumulativeHistogramCounts[bucket]);
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  public int size() {
+    return layout.size();
+  }
+
+  public String getUniqueId(int ordinal) {
+    return layout.uniqueId(ordinal);
+  }
+
+  public long getIntervalStartMillis() {
+    return intervalStartMillis;
+  }
+
+  public long getIntervalEndMillis() {
+    return intervalEndMillis;
+  }
+
+  public long getMessageCount(int ordinal) {
+    return messageCounts[ordinal];
+  }
+
+  public long getTotalTimeTaken(int ordinal) {
+    return totalTimeTaken[ordinal];
+  }
+
+  public long getMinTimeTaken(int ordinal) {
+    return minTimeTaken[ordinal];
+  }
+
+  public long getMaxTimeTaken(int ordinal) {
+    return maxTimeTaken[ordinal];
+  }
+
+  public long getAvgTimeTaken(int ordinal) {
+    return avgTimeTaken[ordinal];
+  }
+
+  public double getSumOfSquares(int ordinal) {
+    return sumOfSquares[ordinal];
+  }
+
+  public double getStdDevTimeTaken(int ordinal) {
+    return stdDevTimeTaken[ordinal];
+  }
+
+  public long getP50TimeTaken(int ordinal) {
+    return p50TimeTaken[ordinal];
+  }
+
+  public long getP95TimeTaken(int ordinal) {
+    return p95TimeTaken[ordinal];
+  }
+
+  public long getP99TimeTaken(int ordinal) {
+    return p99TimeTaken[ordinal];
+  }
+
+  public long getP999TimeTaken(int ordinal) {
+    return p999TimeTaken[ordinal];
+  }
+
+  public int getHistogramBucketStart(int ordinal) {
+    return histogramOffsets[ordinal];
+  }
+
+  public int getHistogramBucketEnd(int ordinal) {
+    return histogramOffsets[ordinal + 1];
+  }
+
+  public int getHistogramBucketIndex(int bucket) {
+    return histogramBuckets[bucket];
+  }
+
+  public long getHistogramBucketCount(int bucket) {
+    return histogramCounts[bucket];
+  }
+
+  /**
+   * @return the number of messages the component has seen since the adapter started, up to the end of this snapshot.
+   */
+  public long getCumulativeMessageCount(int ordinal) {
+    return cumulativeMessageCounts[ordinal];
+  }
+
+  public long getCumulativeTimeTaken(int ordinal) {
+    return cumulativeTimeTaken[ordinal];
+  }
+
+  public int getCumulativeHistogramBucketStart(int ordinal) {
+    return cumulativeHistogramOffsets[ordinal];
+  }
+
+  public int getCumulativeHistogramBucketEnd(int ordinal) {
+    return cumulativeHistogramOffsets[ordinal + 1];
+  }
+
+  public int getCumulativeHistogramBucketIndex(int bucket) {
+    return cumulativeHistogramBuckets[bucket];
+  }
+
+  public long getCumulativeHistogramBucketCount(int bucket) {
+    return cumulativeHistogramCounts[bucket];
+  }
+
+  /**
+   * @return the total number of messages seen by all components in this snapshot.
+   */
+  public long getTotalMessageCount() {
+    long total = 0;
+    for (long count : messageCounts)
+      total += count;
+    return total;
+  }
+
+  /**
+   * The fixed ordering of the flow components of an {@link ActivityMap}, shared by every snapshot taken from it.
+   */
+  public static final class Layout {
+
+    private final ActivityMap topology;
+
+    private final String[] uniqueIds;
+
+    private final BaseFlowActivity[] activities;
+
+    private final Map<String, Integer> ordinals;
+
+    private final String[] adapterIds;
+
+    private final String[] channelIds;
+
+    private final String[] workflowIds;
+
+    Layout(ActivityMap topology) {
+      Map<String, BaseFlowActivity> index = topology.getFlowActivityIndex();
+      this.topology = topology;
+      uniqueIds = new String[index.size()];
+      activities = new BaseFlowActivity[index.size()];
+      Map<String, Integer> ordinalMap = new HashMap<>();
+      int ordinal = 0;
+      for (Map.Entry<String, BaseFlowActivity> entry : index.entrySet()) {
+        uniqueIds[ordinal] = entry.getKey();
+        activities[ordinal] = entry.getValue();
+        ordinalMap.put(entry.getKey(), ordinal++);
+      }
+      ordinals = Collections.unmodifiableMap(ordinalMap);
+      adapterIds = new String[uniqueIds.length];
+      channelIds = new String[uniqueIds.length];
+      workflowIds = new String[uniqueIds.length];
+      for (BaseActivity adapter : topology.getAdapters().values()) {
+        if (!(adapter instanceof AdapterActivity))
+          continue;
+        for (ChannelActivity channel : ((AdapterActivity) adapter).getChannels().values()) {
+          for (WorkflowActivity workflow : channel.getWorkflows().values()) {
+            String[] path = { adapter.getUniqueId(), channel.getUniqueId(), workflow.getUniqueId() };
+            locate(workflow.getConsumerActivity(), path);
+            for (ServiceActivity service : workflow.getServices().values())
+              locate(service, path);
+            locate(workflow.getProducerActivity(), path);
+          }
+        }
+      }
+    }
+
+    // Only the occurrence that was indexed is located, matching ActivityMap#getFlowActivityIndex().
+    private void locate(BaseFlowActivity activity, String[] path) {
+      if (activity == null)
+        return;
+      Integer ordinal = ordinals.get(activity.getUniqueId());
+      if (ordinal != null && activities[ordinal] == activity) {
+        adapterIds[ordinal] = path[0];
+        channelIds[ordinal] = path[1];
+        workflowIds[ordinal] = path[2];
+      }
+      if (activity instanceof ServiceActivity) {
+        for (ServiceActivity service : ((ServiceActivity) activity).getServices().values())
+          locate(service, path);
+      }
+    }
+
+    public ActivityMap getTopology() {
+      return topology;
+    }
+
+    public int size() {
+      return uniqueIds.length;
+    }
+
+    public String uniqueId(int ordinal) {
+      return uniqueIds[ordinal];
+    }
+
+    BaseFlowActivity activity(int ordinal) {
+      return activities[ordinal];
+    }
+
+    /**
+     * @return the uniqueId of the adapter containing the component, null if it is not part of a workflow.
+     */
+    public String adapterId(int ordinal) {
+      return adapterIds[ordinal];
+    }
+
+    public String channelId(int ordinal) {
+      return channelIds[ordinal];
+    }
+
+    public String workflowId(int ordinal) {
+      return workflowIds[ordinal];
+    }
+
+    /**
+     * @return one of consumer, producer or service.
+     */
+    public String componentType(int ordinal) {
+      if (activities[ordinal] instanceof ConsumerActivity)
+        return "consumer";
+      return activities[ordinal] instanceof ProducerActivity ? "producer" : "service";
+    }
+
+    /**
+     * @return the position of the component in every snapshot sharing this layout, or -1.
+     */
+    public int ordinalOf(String uniqueId) {
+      Integer ordinal = ordinals.get(uniqueId);
+      return ordinal == null ? -1 : ordinal;
+    }
+  }
+}
@@ -32,6 +32,16 @@ public class AdapterActivity extends BaseActivity implements Serializable {
     }
   }
 
+  @Override
+  public AdapterActivity copyStructure() {
+    AdapterActivity copy = new AdapterActivity();
+    copy.setUniqueId(this.getUniqueId());
+    for(ChannelActivity channel : this.getChannels().values()) {
+      copy.addChannelActivity(channel.copyStructure());
+    }
+    return copy;
+  }
+
   public void addChannelActivity(ChannelActivity channelActivity) {
     getChannels().put(channelActivity.getUniqueId(), channelActivity);
   }
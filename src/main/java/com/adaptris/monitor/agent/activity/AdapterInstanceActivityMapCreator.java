@@ -7,7 +7,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -30,12 +32,16 @@ public class AdapterInstanceActivityMapCreator implements ActivityMapCreator {
   // Keep track of unique-ids we have seen, then we can for actual uniqueness.
   private List<String> componentIds;
 
+  // Flat uniqueId -> component index handed to the ActivityMap so that steps can be routed with a single lookup.
+  private Map<String, BaseFlowActivity> flowActivityIndex;
+
   /**
    * Given an Adapter instance, we will traverse the instance creating a hierarchical ActivityMap.
    */
   @Override
   public ActivityMap createBaseMap(Object object) {
     componentIds = new ArrayList<>();
+    flowActivityIndex = new LinkedHashMap<>();
     
     ActivityMap returnedMap = new ActivityMap();
     
@@ -46,6 +52,7 @@ public class AdapterInstanceActivityMapCreator implements ActivityMapCreator {
     } else 
       throw new RuntimeException("Cannot create an ActivityMap from an instance of " + object.getClass().getName());
     
+    returnedMap.setFlowActivityIndex(flowActivityIndex);
     return returnedMap;
   }
 
@@ -71,18 +78,29 @@ public class AdapterInstanceActivityMapCreator implements ActivityMapCreator {
         
         workflowActivity.setConsumerActivity(consumerActivity);
         workflowActivity.setProducerActivity(producerActivity);
+        indexFlowActivity(consumerActivity);
         
         for(Service service : ((WorkflowImp) workflow).getServiceCollection()) {
           ServiceActivity serviceActivity = (ServiceActivity) createActivityObject(service);
           serviceActivity.setClassName(service.getClass().getSimpleName());
           workflowActivity.addServiceActivity(serviceActivity);
+          indexFlowActivity(serviceActivity);
 
           traverseServiceForServices(serviceActivity, service);
         }
+        indexFlowActivity(producerActivity);
       }
     }
   }
 
+  /**
+   * Record the component in the flat index; the first component wins on a uniqueId clash (which is already warned about).
+   * @param flowActivity
+   */
+  private void indexFlowActivity(BaseFlowActivity flowActivity) {
+    flowActivityIndex.putIfAbsent(flowActivity.getUniqueId(), flowActivity);
+  }
+
   /**
    * Scan through the given service looking for child services to maintain a hierarchical component map.
    * @param serviceActivity
@@ -95,6 +113,7 @@ public class AdapterInstanceActivityMapCreator implements ActivityMapCreator {
         ServiceActivity childServiceActivity = (ServiceActivity) this.createActivityObject(childService);
         childServiceActivity.setClassName(service.getClass().getSimpleName());
         serviceActivity.getServices().put(childServiceActivity.getUniqueId(), childServiceActivity);
+        indexFlowActivity(childServiceActivity);
         
         if(childService instanceof ServiceCollection)
           this.traverseServiceForServices(childServiceActivity, childService);
@@ -20,6 +20,11 @@ public abstract class BaseActivity implements Serializable {
   
   public abstract void resetActivity();
 
+  /**
+   * @return a copy of this component and its children carrying no activity.
+   */
+  public abstract BaseActivity copyStructure();
+
   public String getUniqueId() {
     return uniqueId;
   }
@@ -3,8 +3,6 @@ package com.adaptris.monitor.agent.activity;
 import com.google.gson.annotations.Expose;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 public abstract class BaseFlowActivity extends BaseActivity implements Serializable {
 
@@ -12,34 +10,197 @@ public abstract class BaseFlowActivity extends BaseActivity implements Serializa
 
   private String className;
 
-  private transient List<Long> msTaken;
-
   @Expose
   private int messageCount;
 
   @Expose
   private long avgMsTaken;
 
+  @Expose
+  private long minMsTaken;
+
+  @Expose
+  private long maxMsTaken;
+
+  @Expose
+  private double stdDevMsTaken;
+
+  @Expose
+  private long p50MsTaken;
+
+  @Expose
+  private long p95MsTaken;
+
+  @Expose
+  private long p99MsTaken;
+
+  @Expose
+  private long p999MsTaken;
+
+  // Lifetime totals up to and including the interval last calculated, never reset.
+  @Expose
+  private long cumulativeMessageCount;
+
+  @Expose
+  private long cumulativeMsTaken;
+
+  private LatencyHistogram histogram;
+
+  // Running accumulators for the current interval; avg and stddev are derived from them in calculateStatistics().
+  private long totalMsTaken;
+
+  private double sumOfSquaresMsTaken;
+
+  // Totals of every interval before the current one, folded in as each interval is reset.
+  private long previousMessageCount;
+
+  private long previousMsTaken;
+
+  private LatencyHistogram previousHistogram;
+
   public BaseFlowActivity() {
-    msTaken = new ArrayList<>();
-  }
-  
-  protected long calculateAvgTimeTaken() {
-    long totalTimeTaken = 0;
-    for(long timeTaken : this.getMsTaken())
-      totalTimeTaken += timeTaken;
-    
-    if(totalTimeTaken > 0)
-      return totalTimeTaken / this.getMsTaken().size();
-    else
-      return 0;
-  }
-  
+    histogram = new LatencyHistogram();
+  }
+
+  /**
+   * Add a single sample to the running accumulators in constant time.
+   */
+  public void addTimeTaken(long timeTaken) {
+    if (this.getMessageCount() == 0) {
+      this.setMinMsTaken(timeTaken);
+      this.setMaxMsTaken(timeTaken);
+    } else {
+      this.setMinMsTaken(Math.min(this.getMinMsTaken(), timeTaken));
+      this.setMaxMsTaken(Math.max(this.getMaxMsTaken(), timeTaken));
+    }
+    this.setMessageCount(this.getMessageCount() + 1);
+    histogram.recordValue(timeTaken);
+    totalMsTaken += timeTaken;
+    sumOfSquaresMsTaken += (double) timeTaken * timeTaken;
+  }
+
+  /**
+   * Derive the average, standard deviation and percentiles from the running accumulators; called once per interval when
+   * the activity is about to be propagated.
+   */
+  public void calculateStatistics() {
+    cumulativeMessageCount = previousMessageCount + this.getMessageCount();
+    cumulativeMsTaken = previousMsTaken + totalMsTaken;
+    int count = this.getMessageCount();
+    if (count > 0) {
+      double mean = (double) totalMsTaken / count;
+      this.setAvgMsTaken(totalMsTaken / count);
+      double variance = (sumOfSquaresMsTaken / count) - (mean * mean);
+      this.setStdDevMsTaken(variance > 0 ? Math.sqrt(variance) : 0);
+    }
+    if (histogram.getTotalCount() > 0) {
+      this.setP50MsTaken(percentileWithinRange(50));
+      this.setP95MsTaken(percentileWithinRange(95));
+      this.setP99MsTaken(percentileWithinRange(99));
+      this.setP999MsTaken(percentileWithinRange(99.9));
+    }
+  }
+
+  // The bucket midpoint may fall outside what was actually recorded; clamp to the exact min / max.
+  private long percentileWithinRange(double percentile) {
+    long value = histogram.getValueAtPercentile(percentile);
+    return Math.max(this.getMinMsTaken(), Math.min(this.getMaxMsTaken(), value));
+  }
+
   @Override
   public void resetActivity() {
+    foldIntoPrevious();
     this.setAvgMsTaken(0);
     this.setMessageCount(0);
-    this.setMsTaken(new ArrayList<>());
+    this.setMinMsTaken(0);
+    this.setMaxMsTaken(0);
+    this.setStdDevMsTaken(0);
+    this.setP50MsTaken(0);
+    this.setP95MsTaken(0);
+    this.setP99MsTaken(0);
+    this.setP999MsTaken(0);
+    histogram.reset();
+    totalMsTaken = 0;
+    sumOfSquaresMsTaken = 0;
+    cumulativeMessageCount = previousMessageCount;
+    cumulativeMsTaken = previousMsTaken;
+  }
+
+  // Costs nothing per sample; the interval histogram is only added to the lifetime one when it had samples.
+  private void foldIntoPrevious() {
+    previousMessageCount += this.getMessageCount();
+    previousMsTaken += totalMsTaken;
+    if (histogram.getTotalCount() > 0) {
+      if (previousHistogram == null)
+        previousHistogram = new LatencyHistogram();
+      previousHistogram.add(histogram);
+    }
+  }
+
+  /**
+   * Apply statistics that were aggregated elsewhere (see {@link StreamingActivityAggregator}) rather than from individual
+   * samples; the histogram buckets are expected to have been added to {@link #getHistogram()} already.
+   */
+  public void recordStatistics(long count, long totalTimeTaken, long minTimeTaken, long maxTimeTaken, double sumOfSquares) {
+    this.setMessageCount((int) Math.min(count, Integer.MAX_VALUE));
+    this.setMinMsTaken(minTimeTaken);
+    this.setMaxMsTaken(maxTimeTaken);
+    totalMsTaken = totalTimeTaken;
+    sumOfSquaresMsTaken = sumOfSquares;
+    this.calculateStatistics();
+  }
+
+  protected void copyIdentityTo(BaseFlowActivity copy) {
+    copy.setUniqueId(this.getUniqueId());
+    copy.setClassName(this.getClassName());
+  }
+
+  /**
+   * Restore the accumulators behind already derived statistics, used when rebuilding an activity from an
+   * {@link ActivitySnapshot} or a received packet.
+   */
+  public void restoreAccumulators(long totalTimeTaken, double sumOfSquares) {
+    totalMsTaken = totalTimeTaken;
+    sumOfSquaresMsTaken = sumOfSquares;
+  }
+
+  /**
+   * Restore the lifetime totals of an activity rebuilt from an {@link ActivitySnapshot} or a received packet; the interval
+   * values and histogram should already have been restored.
+   */
+  public void restoreCumulative(long messageCount, long msTaken) {
+    cumulativeMessageCount = messageCount;
+    cumulativeMsTaken = msTaken;
+    previousMessageCount = messageCount - this.getMessageCount();
+    previousMsTaken = msTaken - totalMsTaken;
+  }
+
+  /**
+   * Restore one bucket of the lifetime histogram, see {@link #restoreCumulative(long, long)}.
+   */
+  public void restoreCumulativeBucket(int index, long count) {
+    long previous = count - histogram.getCountInBucket(index);
+    if (previous > 0) {
+      if (previousHistogram == null)
+        previousHistogram = new LatencyHistogram();
+      previousHistogram.addToBucket(index, previous);
+    }
+  }
+
+  /**
+   * @return the lifetime count, as of the interval last calculated, of the given bucket of {@link #getHistogram()}.
+   */
+  public long getCumulativeCountInBucket(int index) {
+    long count = histogram.getCountInBucket(index);
+    return previousHistogram == null ? count : count + previousHistogram.getCountInBucket(index);
+  }
+
+  public long getCumulativeMessageCount() {
+    return cumulativeMessageCount;
+  }
+
+  public long getCumulativeMsTaken() {
+    return cumulativeMsTaken;
   }
 
   public String getClassName() {
@@ -51,7 +212,7 @@ public abstract class BaseFlowActivity extends BaseActivity implements Serializa
   }
 
   public void addMessageId(String messageId, long timeTaken) {
-    getMsTaken().add(timeTaken);
+    addTimeTaken(timeTaken);
   }
 
   public int getMessageCount() {
@@ -62,14 +223,6 @@ public abstract class BaseFlowActivity extends BaseActivity implements Serializa
     this.messageCount = messageCount;
   }
 
-  public List<Long> getMsTaken() {
-    return msTaken;
-  }
-
-  public void setMsTaken(List<Long> msTaken) {
-    this.msTaken = msTaken;
-  }
-
   public long getAvgMsTaken() {
     return avgMsTaken;
   }
@@ -78,4 +231,72 @@ public abstract class BaseFlowActivity extends BaseActivity implements Serializa
     this.avgMsTaken = avgMsTaken;
   }
 
+  public long getMinMsTaken() {
+    return minMsTaken;
+  }
+
+  public void setMinMsTaken(long minMsTaken) {
+    this.minMsTaken = minMsTaken;
+  }
+
+  public long getMaxMsTaken() {
+    return maxMsTaken;
+  }
+
+  public void setMaxMsTaken(long maxMsTaken) {
+    this.maxMsTaken = maxMsTaken;
+  }
+
+  public double getStdDevMsTaken() {
+    return stdDevMsTaken;
+  }
+
+  public void setStdDevMsTaken(double stdDevMsTaken) {
+    this.stdDevMsTaken = stdDevMsTaken;
+  }
+
+  public long getP50MsTaken() {
+    return p50MsTaken;
+  }
+
+  public void setP50MsTaken(long p50MsTaken) {
+    this.p50MsTaken = p50MsTaken;
+  }
+
+  public long getP95MsTaken() {
+    return p95MsTaken;
+  }
+
+  public void setP95MsTaken(long p95MsTaken) {
+    this.p95MsTaken = p95MsTaken;
+  }
+
+  public long getP99MsTaken() {
+    return p99MsTaken;
+  }
+
+  public void setP99MsTaken(long p99MsTaken) {
+    this.p99MsTaken = p99MsTaken;
+  }
+
+  public long getP999MsTaken() {
+    return p999MsTaken;
+  }
+
+  public void setP999MsTaken(long p999MsTaken) {
+    this.p999MsTaken = p999MsTaken;
+  }
+
+  public LatencyHistogram getHistogram() {
+    return histogram;
+  }
+
+  public long getTotalMsTaken() {
+    return totalMsTaken;
+  }
+
+  public double getSumOfSquaresMsTaken() {
+    return sumOfSquaresMsTaken;
+  }
+
 }
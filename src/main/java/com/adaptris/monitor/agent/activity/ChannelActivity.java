@@ -32,6 +32,16 @@ public class ChannelActivity extends BaseActivity implements Serializable {
     }
   }
 
+  @Override
+  public ChannelActivity copyStructure() {
+    ChannelActivity copy = new ChannelActivity();
+    copy.setUniqueId(this.getUniqueId());
+    for(WorkflowActivity workflow : this.getWorkflows().values()) {
+      copy.addWorkflow(workflow.copyStructure());
+    }
+    return copy;
+  }
+
   public void addWorkflow(WorkflowActivity workflowActivity) {
     getWorkflows().put(workflowActivity.getUniqueId(), workflowActivity);
   }
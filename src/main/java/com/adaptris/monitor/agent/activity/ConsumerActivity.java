@@ -12,15 +12,17 @@ public class ConsumerActivity extends BaseFlowActivity implements Serializable {
   @Override
   public void addActivity(ProcessStep processStep) {
     if (StringUtils.equals(processStep.getStepInstanceId(), this.getUniqueId())) {
-      this.getMsTaken().add(processStep.getTimeTakenMs());
-      this.setAvgMsTaken(super.calculateAvgTimeTaken());
-      this.setMessageCount(this.getMessageCount() + 1);
-    }
-    else {
-      System.err.println("Unknown consumer event received");
+      this.addTimeTaken(processStep.getTimeTakenMs());
     }
   }
 
+  @Override
+  public ConsumerActivity copyStructure() {
+    ConsumerActivity copy = new ConsumerActivity();
+    copyIdentityTo(copy);
+    return copy;
+  }
+
   @Override
   public String toString() {
     StringBuffer buffer = new StringBuffer();
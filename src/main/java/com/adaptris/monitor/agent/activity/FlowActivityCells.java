@@ -0,0 +1,74 @@
+package com.adaptris.monitor.agent.activity;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped, contention free counters for a single flow component (consumer, producer or service).
+ * <p>
+ * Workflow threads record directly into these cells, the propagator thread periodically takes and resets the values. A
+ * sample recorded while the cells are being reset may be split across two intervals, which is acceptable for profiling.
+ * </p>
+ */
+public class FlowActivityCells {
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder totalTimeTaken = new LongAdder();
+
+  private final DoubleAdder sumOfSquares = new DoubleAdder();
+
+  private final LongAccumulator minTimeTaken = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+  private final LongAccumulator maxTimeTaken = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+  // Same bucket layout as LatencyHistogram, but safe for concurrent recording.
+  private final AtomicLongArray histogramBuckets = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+  public void record(long timeTaken) {
+    count.increment();
+    totalTimeTaken.add(timeTaken);
+    sumOfSquares.add((double) timeTaken * timeTaken);
+    minTimeTaken.accumulate(timeTaken);
+    maxTimeTaken.accumulate(timeTaken);
+    histogramBuckets.incrementAndGet(LatencyHistogram.bucketIndex(timeTaken));
+  }
+
+  /**
+   * Move the current values into the given activity and reset the cells for the next interval.
+   *
+   * @return the number of samples moved.
+   */
+  public long drainTo(BaseFlowActivity activity) {
+    long sampleCount = count.sumThenReset();
+    long total = totalTimeTaken.sumThenReset();
+    double squares = sumOfSquares.sumThenReset();
+    long min = minTimeTaken.getThenReset();
+    long max = maxTimeTaken.getThenReset();
+    activity.resetActivity();
+    if (sampleCount > 0) {
+      LatencyHistogram histogram = activity.getHistogram();
+      for (int index = 0; index < LatencyHistogram.BUCKET_COUNT; index++) {
+        long bucketCount = histogramBuckets.getAndSet(index, 0);
+        if (bucketCount > 0)
+          histogram.addToBucket(index, bucketCount);
+      }
+      activity.recordStatistics(sampleCount, total, min, max, squares);
+    }
+    return sampleCount;
+  }
+
+  /**
+   * @return the number of samples recorded so far in the current interval.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalTimeTaken() {
+    return totalTimeTaken.sum();
+  }
+
+}
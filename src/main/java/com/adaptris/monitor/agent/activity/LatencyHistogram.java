@@ -0,0 +1,156 @@
+package com.adaptris.monitor.agent.activity;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Fixed memory, log bucketed histogram of primitive counts (in the style of HdrHistogram).
+ * <p>
+ * Values below {@value #SUB_BUCKET_COUNT} are counted exactly; above that each power of two range is split into
+ * {@value #SUB_BUCKET_HALF_COUNT} linear sub buckets, so any reported value is within roughly 3% of a recorded one. Values
+ * from 0 up to 2<sup>40</sup> are tracked (over 18 minutes at nanosecond resolution) and anything larger is counted in the
+ * top bucket. Recording is a shift, a couple of adds and an array increment; it never allocates.
+ * </p>
+ * <p>
+ * Instances are not thread safe, concurrent recorders should accumulate with {@link #bucketIndex(long)} into their own
+ * storage and then {@link #addToBucket(int, long)}. Serialization only writes the non-empty buckets.
+ * </p>
+ */
+public class LatencyHistogram implements Serializable {
+
+  private static final long serialVersionUID = -3316239480372212417L;
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  public static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  private static final int MAX_VALUE_BITS = 40;
+
+  public static final long HIGHEST_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  public static final int BUCKET_COUNT = bucketIndex(HIGHEST_TRACKABLE_VALUE) + 1;
+
+  private transient long[] counts;
+
+  private transient long totalCount;
+
+  public LatencyHistogram() {
+    counts = new long[BUCKET_COUNT];
+  }
+
+  /**
+   * @return the bucket that the value is counted in.
+   */
+  public static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT)
+      return value < 0 ? 0 : (int) value;
+    long clamped = Math.min(value, HIGHEST_TRACKABLE_VALUE);
+    int shift = 63 - Long.numberOfLeadingZeros(clamped) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + ((shift - 1) << (SUB_BUCKET_BITS - 1)) + (int) (clamped >>> shift) - SUB_BUCKET_HALF_COUNT;
+  }
+
+  /**
+   * @return the smallest value counted in the given bucket.
+   */
+  public static long lowestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+    int offset = index - SUB_BUCKET_COUNT;
+    int shift = (offset >> (SUB_BUCKET_BITS - 1)) + 1;
+    long subBucket = (offset & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+    return subBucket << shift;
+  }
+
+  /**
+   * @return the value reported for the given bucket, the midpoint of its range.
+   */
+  public static long representativeValue(int index) {
+    if (index < SUB_BUCKET_COUNT)
+      return index;
+    long lowest = lowestValueInBucket(index);
+    long width = lowestValueInBucket(index + 1) - lowest;
+    return lowest + (width >> 1);
+  }
+
+  public void recordValue(long value) {
+    counts[bucketIndex(value)]++;
+    totalCount++;
+  }
+
+  public void addToBucket(int index, long count) {
+    counts[index] += count;
+    totalCount += count;
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int index = 0; index < BUCKET_COUNT; index++)
+      counts[index] += other.counts[index];
+    totalCount += other.totalCount;
+  }
+
+  public long getCountInBucket(int index) {
+    return counts[index];
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return the value at or below which the given percentage of samples fall, 0 if the histogram is empty.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0)
+      return 0;
+    double requested = Math.min(Math.max(percentile, 0), 100);
+    long target = Math.max(1, (long) Math.ceil(requested / 100 * totalCount));
+    long cumulative = 0;
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      cumulative += counts[index];
+      if (cumulative >= target)
+        return representativeValue(index);
+    }
+    return representativeValue(BUCKET_COUNT - 1);
+  }
+
+  public void reset() {
+    if (totalCount > 0) {
+      Arrays.fill(counts, 0);
+      totalCount = 0;
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    int nonEmpty = 0;
+    for (long count : counts)
+      if (count != 0)
+        nonEmpty++;
+    out.writeShort(nonEmpty);
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      if (counts[index] != 0) {
+        out.writeShort(index);
+        out.writeLong(counts[index]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    counts = new long[BUCKET_COUNT];
+    int nonEmpty = in.readUnsignedShort();
+    for (int entry = 0; entry < nonEmpty; entry++) {
+      int index = in.readUnsignedShort();
+      long count = in.readLong();
+      if (index < BUCKET_COUNT)
+        addToBucket(index, count);
+    }
+  }
+
+}
@@ -22,9 +22,7 @@ public class ServiceActivity extends BaseFlowActivity implements Serializable {
   @Override
   public void addActivity(ProcessStep processStep) {
     if (StringUtils.equals(processStep.getStepInstanceId(), this.getUniqueId())) {
-      this.getMsTaken().add(processStep.getTimeTakenMs());
-      this.setAvgMsTaken(super.calculateAvgTimeTaken());
-      this.setMessageCount(this.getMessageCount() + 1);
+      this.addTimeTaken(processStep.getTimeTakenMs());
     } else {
       for(String serviceId : this.getServices().keySet()) {
         if(processStep.getStepInstanceId().equals(serviceId))
@@ -33,6 +31,16 @@ public class ServiceActivity extends BaseFlowActivity implements Serializable {
     }
   }
 
+  @Override
+  public ServiceActivity copyStructure() {
+    ServiceActivity copy = new ServiceActivity();
+    copyIdentityTo(copy);
+    for(ServiceActivity service : this.getServices().values()) {
+      copy.getServices().put(service.getUniqueId(), service.copyStructure());
+    }
+    return copy;
+  }
+
   public Map<String, ServiceActivity> getServices() {
     return services;
   }
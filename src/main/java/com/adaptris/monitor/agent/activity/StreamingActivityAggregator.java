@@ -0,0 +1,72 @@
+package com.adaptris.monitor.agent.activity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.adaptris.profiler.ProcessStep;
+
+/**
+ * Aggregates {@link ProcessStep}s in place as they arrive instead of buffering them until the next propagation.
+ * <p>
+ * Each flow component of the {@link ActivityMap} gets a set of {@link FlowActivityCells}; the component set is fixed when
+ * the aggregator is created so the ingest path is a single read-only map lookup followed by striped adds, and memory stays
+ * constant whatever the message rate.
+ * </p>
+ */
+public class StreamingActivityAggregator {
+
+  private final ActivityMap activityMap;
+
+  private final Map<String, FlowActivityCells> cells;
+
+  private final Map<String, BaseFlowActivity> activities;
+
+  private final LongAdder unknownStepCount = new LongAdder();
+
+  public StreamingActivityAggregator(ActivityMap activityMap) {
+    this.activityMap = activityMap;
+    activities = activityMap.getFlowActivityIndex();
+    Map<String, FlowActivityCells> flowCells = new HashMap<>();
+    for (String uniqueId : activities.keySet())
+      flowCells.put(uniqueId, new FlowActivityCells());
+    cells = Collections.unmodifiableMap(flowCells);
+  }
+
+  public void record(ProcessStep processStep) {
+    FlowActivityCells flowCells = cells.get(processStep.getStepInstanceId());
+    if (flowCells != null)
+      flowCells.record(processStep.getTimeTakenMs());
+    else
+      unknownStepCount.increment();
+  }
+
+  /**
+   * Copy the values recorded since the last call into the activity map, resetting the cells.
+   *
+   * @return the number of steps recorded during the interval.
+   */
+  public long snapshot() {
+    long stepCount = 0;
+    for (Map.Entry<String, BaseFlowActivity> entry : activities.entrySet())
+      stepCount += cells.get(entry.getKey()).drainTo(entry.getValue());
+    return stepCount;
+  }
+
+  /**
+   * @return the live cells of the given component, null if it is not part of the map.
+   */
+  public FlowActivityCells getCells(String uniqueId) {
+    return cells.get(uniqueId);
+  }
+
+  public ActivityMap getActivityMap() {
+    return activityMap;
+  }
+
+  public long getUnknownStepCount() {
+    return unknownStepCount.sum();
+  }
+
+}
@@ -52,6 +52,20 @@ public class WorkflowActivity extends BaseActivity implements Serializable {
     this.getProducerActivity().resetActivity();
   }
 
+  @Override
+  public WorkflowActivity copyStructure() {
+    WorkflowActivity copy = new WorkflowActivity();
+    copy.setUniqueId(this.getUniqueId());
+    for(ServiceActivity service : this.getServices().values()) {
+      copy.addServiceActivity(service.copyStructure());
+    }
+    if(this.getConsumerActivity() != null)
+      copy.setConsumerActivity(this.getConsumerActivity().copyStructure());
+    if(this.getProducerActivity() != null)
+      copy.setProducerActivity(this.getProducerActivity().copyStructure());
+    return copy;
+  }
+
   public void addServiceActivity(ServiceActivity serviceActivity) {
     getServices().put(serviceActivity.getUniqueId(), serviceActivity);
   }
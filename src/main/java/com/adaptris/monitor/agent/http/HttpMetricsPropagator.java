@@ -0,0 +1,132 @@
+package com.adaptris.monitor.agent.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.adaptris.monitor.agent.AbstractEventPropagator;
+import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.MonitorSettings;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the latest snapshot over HTTP for Prometheus (or anything else that reads OpenMetrics) to scrape.
+ * <p>
+ * Propagating only swaps the snapshot reference; each scrape writes it into the same reused buffer with an
+ * {@link OpenMetricsWriter}. The server is the JDK's own {@link HttpServer}, created each time the propagator starts and
+ * stopped with it.
+ * </p>
+ */
+public class HttpMetricsPropagator extends AbstractEventPropagator {
+
+  public static final String HTTP_HOST_KEY = "com.adaptris.monitor.agent.HttpMetricsHost";
+
+  public static final String HTTP_PORT_KEY = "com.adaptris.monitor.agent.HttpMetricsPort";
+
+  public static final String HTTP_PATH_KEY = "com.adaptris.monitor.agent.HttpMetricsPath";
+
+  static final int DEFAULT_PORT = 9464;
+
+  static final String DEFAULT_PATH = "/metrics";
+
+  private volatile ActivitySnapshot latestSnapshot;
+
+  private final OpenMetricsWriter writer = new OpenMetricsWriter();
+
+  private final InetSocketAddress address;
+
+  private final String path;
+
+  private HttpServer server;
+
+  public HttpMetricsPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
+    this(eventMonitorReceiver, configuredAddress(), MonitorSettings.getString(HTTP_PATH_KEY, DEFAULT_PATH));
+  }
+
+  public HttpMetricsPropagator(EventMonitorReceiver eventMonitorReceiver, InetSocketAddress address, String path) throws Exception {
+    super(eventMonitorReceiver);
+    this.address = address;
+    this.path = path;
+  }
+
+  private static InetSocketAddress configuredAddress() {
+    String host = MonitorSettings.getString(HTTP_HOST_KEY, null);
+    int port = MonitorSettings.getInt(HTTP_PORT_KEY, DEFAULT_PORT);
+    return StringUtils.isBlank(host) ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+  }
+
+  @Override
+  public void propagateProcessEvent(ActivityMap activityMap) {
+    propagateSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  @Override
+  public void propagateSnapshot(ActivitySnapshot snapshot) {
+    latestSnapshot = snapshot;
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", OpenMetricsWriter.CONTENT_TYPE);
+      synchronized (writer) {
+        ActivitySnapshot snapshot = latestSnapshot;
+        int length = writer.write(snapshot, snapshot != null && isIdle(snapshot));
+        if ("HEAD".equals(method)) {
+          exchange.sendResponseHeaders(200, -1);
+          return;
+        }
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream body = exchange.getResponseBody()) {
+          body.write(writer.array(), 0, length);
+        }
+      }
+    } catch (IOException ex) {
+      log.debug("Failed to serve profiling metrics.", ex);
+      throw ex;
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * @return the address the metrics are served on, useful when listening on an ephemeral port.
+   */
+  public synchronized InetSocketAddress getAddress() {
+    return server == null ? address : server.getAddress();
+  }
+
+  @Override
+  protected synchronized void start() {
+    if (server != null)
+      return;
+    try {
+      HttpServer newServer = HttpServer.create(address, 0);
+      newServer.createContext(path, this::handle);
+      newServer.start();
+      server = newServer;
+      log.debug("Serving profiling metrics on {}", server.getAddress());
+    } catch (IOException ex) {
+      log.error("Could not serve profiling metrics on {}", address, ex);
+    }
+  }
+
+  @Override
+  protected synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+}
@@ -0,0 +1,218 @@
+package com.adaptris.monitor.agent.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+/**
+ * Writes a snapshot in the OpenMetrics text exposition format.
+ * <p>
+ * Every component becomes one series per metric, labelled with its adapter, channel, workflow, uniqueId and type. The
+ * label sets are escaped once per topology and the document is written into a buffer that is reused for every scrape, so
+ * writing allocates nothing per series. Lifetime counts and totals are exposed as the {@code _count} and {@code _sum} of
+ * a summary whose quantiles are those of the last interval; the other interval statistics are gauges, and like the
+ * quantiles are written as zero once the adapter is idle.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public class OpenMetricsWriter {
+
+  public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  private static final String PREFIX = "interlok_profiler_";
+
+  private static final byte[] TIME_TAKEN = ascii(PREFIX + "time_taken_milliseconds");
+
+  private static final byte[] TIME_TAKEN_HEADER = ascii("# TYPE " + PREFIX + "time_taken_milliseconds summary\n"
+      + "# UNIT " + PREFIX + "time_taken_milliseconds milliseconds\n"
+      + "# HELP " + PREFIX + "time_taken_milliseconds Time taken per message; quantiles cover the last interval, count and sum the lifetime.\n");
+
+  private static final byte[][] QUANTILES = { ascii(",quantile=\"0.5\"}"), ascii(",quantile=\"0.95\"}"),
+      ascii(",quantile=\"0.99\"}"), ascii(",quantile=\"0.999\"}") };
+
+  private static final byte[] COUNT = ascii("_count");
+
+  private static final byte[] SUM = ascii("_sum");
+
+  private static final byte[] INTERVAL_MESSAGES = ascii(PREFIX + "interval_messages");
+
+  private static final byte[] INTERVAL_MESSAGES_HEADER = ascii("# TYPE " + PREFIX + "interval_messages gauge\n"
+      + "# HELP " + PREFIX + "interval_messages Messages processed during the last interval.\n");
+
+  private static final byte[] INTERVAL_AVG = ascii(PREFIX + "interval_avg_time_taken_milliseconds");
+
+  private static final byte[] INTERVAL_AVG_HEADER = gaugeHeader("interval_avg_time_taken_milliseconds",
+      "Mean time taken per message during the last interval.");
+
+  private static final byte[] INTERVAL_MIN = ascii(PREFIX + "interval_min_time_taken_milliseconds");
+
+  private static final byte[] INTERVAL_MIN_HEADER = gaugeHeader("interval_min_time_taken_milliseconds",
+      "Shortest time taken by a message during the last interval.");
+
+  private static final byte[] INTERVAL_MAX = ascii(PREFIX + "interval_max_time_taken_milliseconds");
+
+  private static final byte[] INTERVAL_MAX_HEADER = gaugeHeader("interval_max_time_taken_milliseconds",
+      "Longest time taken by a message during the last interval.");
+
+  private static final byte[] EOF = ascii("# EOF\n");
+
+  private final MetricsBuffer buffer = new MetricsBuffer();
+
+  private final byte[] digits = new byte[20];
+
+  private ActivitySnapshot.Layout layout;
+
+  // Per component, the opening brace and labels without the closing brace, so that further labels can follow.
+  private byte[][] labels;
+
+  /**
+   * Write the document into the internal buffer, replacing whatever was there.
+   *
+   * @param snapshot the snapshot to expose, null for an empty document.
+   * @param idle true if there has been no activity since the snapshot, so that only its lifetime values still apply.
+   * @return the length of the document, see {@link #array()}.
+   */
+  public int write(ActivitySnapshot snapshot, boolean idle) {
+    buffer.reset();
+    if (snapshot != null) {
+      prepareLabels(snapshot.getLayout());
+      int size = snapshot.size();
+      buffer.write(TIME_TAKEN_HEADER);
+      for (int ordinal = 0; ordinal < size; ordinal++) {
+        writeQuantile(ordinal, 0, idle ? 0 : snapshot.getP50TimeTaken(ordinal));
+        writeQuantile(ordinal, 1, idle ? 0 : snapshot.getP95TimeTaken(ordinal));
+        writeQuantile(ordinal, 2, idle ? 0 : snapshot.getP99TimeTaken(ordinal));
+        writeQuantile(ordinal, 3, idle ? 0 : snapshot.getP999TimeTaken(ordinal));
+        writeSample(TIME_TAKEN, COUNT, ordinal, snapshot.getCumulativeMessageCount(ordinal));
+        writeSample(TIME_TAKEN, SUM, ordinal, snapshot.getCumulativeTimeTaken(ordinal));
+      }
+      buffer.write(INTERVAL_MESSAGES_HEADER);
+      for (int ordinal = 0; ordinal < size; ordinal++)
+        writeSample(INTERVAL_MESSAGES, null, ordinal, idle ? 0 : snapshot.getMessageCount(ordinal));
+      buffer.write(INTERVAL_AVG_HEADER);
+      for (int ordinal = 0; ordinal < size; ordinal++)
+        writeSample(INTERVAL_AVG, null, ordinal, idle ? 0 : snapshot.getAvgTimeTaken(ordinal));
+      buffer.write(INTERVAL_MIN_HEADER);
+      for (int ordinal = 0; ordinal < size; ordinal++)
+        writeSample(INTERVAL_MIN, null, ordinal, idle ? 0 : snapshot.getMinTimeTaken(ordinal));
+      buffer.write(INTERVAL_MAX_HEADER);
+      for (int ordinal = 0; ordinal < size; ordinal++)
+        writeSample(INTERVAL_MAX, null, ordinal, idle ? 0 : snapshot.getMaxTimeTaken(ordinal));
+    }
+    buffer.write(EOF);
+    return buffer.size();
+  }
+
+  /**
+   * @return the internal buffer holding the last document in its first {@link #size()} bytes; overwritten by the next
+   *         write.
+   */
+  public byte[] array() {
+    return buffer.array();
+  }
+
+  public int size() {
+    return buffer.size();
+  }
+
+  private void writeQuantile(int ordinal, int quantile, long value) {
+    buffer.write(TIME_TAKEN);
+    buffer.write(labels[ordinal]);
+    buffer.write(QUANTILES[quantile]);
+    buffer.write(' ');
+    writeLong(value);
+    buffer.write('\n');
+  }
+
+  private void writeSample(byte[] name, byte[] suffix, int ordinal, long value) {
+    buffer.write(name);
+    if (suffix != null)
+      buffer.write(suffix);
+    buffer.write(labels[ordinal]);
+    buffer.write('}');
+    buffer.write(' ');
+    writeLong(value);
+    buffer.write('\n');
+  }
+
+  private void prepareLabels(ActivitySnapshot.Layout snapshotLayout) {
+    if (snapshotLayout == layout)
+      return;
+    byte[][] labelSets = new byte[snapshotLayout.size()][];
+    StringBuilder builder = new StringBuilder();
+    for (int ordinal = 0; ordinal < labelSets.length; ordinal++) {
+      builder.setLength(0);
+      builder.append('{');
+      appendLabel(builder, "adapter", snapshotLayout.adapterId(ordinal));
+      appendLabel(builder, "channel", snapshotLayout.channelId(ordinal));
+      appendLabel(builder, "workflow", snapshotLayout.workflowId(ordinal));
+      appendLabel(builder, "component", snapshotLayout.uniqueId(ordinal));
+      appendLabel(builder, "type", snapshotLayout.componentType(ordinal));
+      builder.setLength(builder.length() - 1);
+      labelSets[ordinal] = builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    labels = labelSets;
+    layout = snapshotLayout;
+  }
+
+  private static void appendLabel(StringBuilder builder, String name, String value) {
+    builder.append(name).append("=\"");
+    if (value != null) {
+      for (int index = 0; index < value.length(); index++) {
+        char c = value.charAt(index);
+        if (c == '\\' || c == '"')
+          builder.append('\\').append(c);
+        else if (c == '\n')
+          builder.append("\\n");
+        else
+          builder.append(c);
+      }
+    }
+    builder.append("\",");
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      buffer.write(ascii(Long.toString(value)));
+      return;
+    }
+    if (value < 0) {
+      buffer.write('-');
+      value = -value;
+    }
+    int position = digits.length;
+    do {
+      digits[--position] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    buffer.write(digits, position, digits.length - position);
+  }
+
+  private static byte[] gaugeHeader(String name, String help) {
+    return ascii("# TYPE " + PREFIX + name + " gauge\n# UNIT " + PREFIX + name + " milliseconds\n# HELP " + PREFIX + name
+        + " " + help + "\n");
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static final class MetricsBuffer extends ByteArrayOutputStream {
+
+    MetricsBuffer() {
+      super(8192);
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+      write(bytes, 0, bytes.length);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+  }
+}
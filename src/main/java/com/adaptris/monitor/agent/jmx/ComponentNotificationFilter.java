@@ -0,0 +1,61 @@
+package com.adaptris.monitor.agent.jmx;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Passes the {@link ProfilerEventClient#COMPONENT_NOTIFICATION} of the chosen components only, and optionally the
+ * {@link ProfilerEventClient#INTERVAL_NOTIFICATION}s. The filter is applied inside the adapter, so a remote client is only
+ * sent what it asked for.
+ */
+public class ComponentNotificationFilter implements NotificationFilter {
+
+  private static final long serialVersionUID = 4629310746830284557L;
+
+  private final Set<String> componentIds;
+
+  private boolean includeIntervals;
+
+  /**
+   * @param componentIds the uniqueIds of the components wanted, none for every component.
+   */
+  public ComponentNotificationFilter(String... componentIds) {
+    this(Arrays.asList(componentIds));
+  }
+
+  public ComponentNotificationFilter(Collection<String> componentIds) {
+    this.componentIds = new HashSet<>(componentIds);
+  }
+
+  @Override
+  public boolean isNotificationEnabled(Notification notification) {
+    if (ProfilerEventClient.INTERVAL_NOTIFICATION.equals(notification.getType()))
+      return includeIntervals;
+    if (!ProfilerEventClient.COMPONENT_NOTIFICATION.equals(notification.getType()))
+      return false;
+    if (componentIds.isEmpty())
+      return true;
+    Object userData = notification.getUserData();
+    return userData instanceof CompositeData
+        && componentIds.contains(((CompositeData) userData).get(ComponentStatistics.UNIQUE_ID));
+  }
+
+  public Set<String> getComponentIds() {
+    return componentIds;
+  }
+
+  public boolean isIncludeIntervals() {
+    return includeIntervals;
+  }
+
+  public void setIncludeIntervals(boolean includeIntervals) {
+    this.includeIntervals = includeIntervals;
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.adaptris.monitor.agent.jmx;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+/**
+ * Open type views of a snapshot, so that JMX clients need none of our classes to read them.
+ */
+public final class ComponentStatistics {
+
+  public static final String UNIQUE_ID = "uniqueId";
+
+  private static final String[] COMPONENT_ITEMS = { UNIQUE_ID, "intervalStartMillis", "intervalEndMillis", "messageCount",
+      "avgMsTaken", "minMsTaken", "maxMsTaken", "p50MsTaken", "p95MsTaken", "p99MsTaken", "cumulativeMessageCount",
+      "cumulativeMsTaken" };
+
+  private static final String[] INTERVAL_ITEMS = { "sequence", "intervalStartMillis", "intervalEndMillis",
+      "totalMessageCount", "componentCount", "activeComponentCount" };
+
+  public static final CompositeType COMPONENT_TYPE;
+
+  public static final CompositeType INTERVAL_TYPE;
+
+  static {
+    try {
+      OpenType<?>[] componentTypes = new OpenType<?>[COMPONENT_ITEMS.length];
+      componentTypes[0] = SimpleType.STRING;
+      for (int index = 1; index < componentTypes.length; index++)
+        componentTypes[index] = SimpleType.LONG;
+      COMPONENT_TYPE = new CompositeType("ComponentStatistics", "Statistics of one component for one interval",
+          COMPONENT_ITEMS, COMPONENT_ITEMS, componentTypes);
+      OpenType<?>[] intervalTypes = new OpenType<?>[INTERVAL_ITEMS.length];
+      for (int index = 0; index < intervalTypes.length; index++)
+        intervalTypes[index] = index < 4 ? SimpleType.LONG : SimpleType.INTEGER;
+      INTERVAL_TYPE = new CompositeType("IntervalSummary", "Summary of one propagated interval", INTERVAL_ITEMS,
+          INTERVAL_ITEMS, intervalTypes);
+    } catch (OpenDataException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private ComponentStatistics() {
+  }
+
+  public static CompositeData component(ActivitySnapshot snapshot, int ordinal) throws OpenDataException {
+    return new CompositeDataSupport(COMPONENT_TYPE, COMPONENT_ITEMS, new Object[] { snapshot.getUniqueId(ordinal),
+        snapshot.getIntervalStartMillis(), snapshot.getIntervalEndMillis(), snapshot.getMessageCount(ordinal),
+        snapshot.getAvgTimeTaken(ordinal), snapshot.getMinTimeTaken(ordinal), snapshot.getMaxTimeTaken(ordinal),
+        snapshot.getP50TimeTaken(ordinal), snapshot.getP95TimeTaken(ordinal), snapshot.getP99TimeTaken(ordinal),
+        snapshot.getCumulativeMessageCount(ordinal), snapshot.getCumulativeTimeTaken(ordinal) });
+  }
+
+  public static CompositeData interval(ActivitySnapshot snapshot, long sequence) throws OpenDataException {
+    int active = 0;
+    for (int ordinal = 0; ordinal < snapshot.size(); ordinal++)
+      if (snapshot.getMessageCount(ordinal) > 0)
+        active++;
+    return new CompositeDataSupport(INTERVAL_TYPE, INTERVAL_ITEMS, new Object[] { sequence,
+        snapshot.getIntervalStartMillis(), snapshot.getIntervalEndMillis(), snapshot.getTotalMessageCount(),
+        snapshot.size(), active });
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.adaptris.monitor.agent.jmx;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+
+/**
+ * The result of {@link ProfilerEventClientMBean#getEventsSince(long, int)}: consecutive events from the history and the
+ * cursor to pass on the next call.
+ */
+public class EventBatch implements Serializable {
+
+  private static final long serialVersionUID = -5712398473621938471L;
+
+  private final long firstSequence;
+
+  private final long nextSequence;
+
+  private final long missedCount;
+
+  private final boolean reset;
+
+  private final List<ActivityMap> events;
+
+  public EventBatch(long firstSequence, long nextSequence, long missedCount, boolean reset, List<ActivityMap> events) {
+    this.firstSequence = firstSequence;
+    this.nextSequence = nextSequence;
+    this.missedCount = missedCount;
+    this.reset = reset;
+    this.events = events;
+  }
+
+  /**
+   * @return the sequence number of the first event in the batch.
+   */
+  public long getFirstSequence() {
+    return firstSequence;
+  }
+
+  /**
+   * @return the sequence number to ask for next.
+   */
+  public long getNextSequence() {
+    return nextSequence;
+  }
+
+  /**
+   * @return the number of events after the requested sequence that had already dropped out of the history; always 0 when
+   *         reading from the oldest or after a reset.
+   */
+  public long getMissedCount() {
+    return missedCount;
+  }
+
+  /**
+   * @return true if the requested sequence was ahead of the history, because the agent restarted and its numbering began
+   *         again, so the batch starts from the oldest event held instead.
+   */
+  public boolean isReset() {
+    return reset;
+  }
+
+  public List<ActivityMap> getEvents() {
+    return events;
+  }
+
+}
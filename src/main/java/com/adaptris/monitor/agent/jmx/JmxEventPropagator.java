@@ -10,11 +10,22 @@ import com.adaptris.core.runtime.AdapterComponentMBean;
 import com.adaptris.core.util.JmxHelper;
 import com.adaptris.monitor.agent.AbstractEventPropagator;
 import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.MonitorSettings;
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
 
+/**
+ * Keeps the history of snapshots in the {@link ProfilerEventClient} MBean and, unless
+ * {@value #COMPONENT_MBEANS_KEY} is false, exposes the latest statistics of every component through its own
+ * {@link ProfiledComponentMXBean}.
+ */
 public class JmxEventPropagator extends AbstractEventPropagator {
+
+  public static final String COMPONENT_MBEANS_KEY = "com.adaptris.monitor.agent.JmxComponentMBeans";
   
   private ProfilerEventClient eventMBean;
+
+  private ProfiledComponentRegistry componentRegistry;
   
   private static ObjectName mbeanName;
   
@@ -23,6 +34,8 @@ public class JmxEventPropagator extends AbstractEventPropagator {
     this.setEventMBean(new ProfilerEventClient());
     mbeanName = new ObjectName(AdapterComponentMBean.JMX_DOMAIN_NAME + ":type=Profiler");
     this.registerMBean(eventMBean);
+    if (MonitorSettings.getBoolean(COMPONENT_MBEANS_KEY, true))
+      componentRegistry = new ProfiledComponentRegistry(this::isIdle);
   }
 
   private void registerMBean(ProfilerEventClient eventMBean2) throws MBeanRegistrationException, InstanceNotFoundException, InstanceAlreadyExistsException, NotCompliantMBeanException {
@@ -33,15 +46,29 @@ public class JmxEventPropagator extends AbstractEventPropagator {
   public void propagateProcessEvent(ActivityMap activityMap) {
     log.debug(activityMap.toString());
 
-    sendJmx(activityMap);
+    propagateSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  /**
+   * The history keeps the immutable snapshot itself, an ActivityMap is only rebuilt if a client asks for it.
+   */
+  @Override
+  public void propagateSnapshot(ActivitySnapshot snapshot) {
+    this.eventMBean.addEventSnapshot(snapshot);
+    if (componentRegistry != null)
+      componentRegistry.update(snapshot, this.getEventMonitorReceiver().getStreamingAggregator());
   }
 
-  private void sendJmx(ActivityMap activityMap) {
-    this.eventMBean.addEventActivityMap(activityMap);
+  @Override
+  protected void start() {
+    if (componentRegistry != null)
+      componentRegistry.open();
   }
 
   @Override
   protected void stop() {
+    if (componentRegistry != null)
+      componentRegistry.close();
   }
 
   public ProfilerEventClient getEventMBean() {
@@ -52,4 +79,8 @@ public class JmxEventPropagator extends AbstractEventPropagator {
     this.eventMBean = eventMBean;
   }
 
+  ProfiledComponentRegistry getComponentRegistry() {
+    return componentRegistry;
+  }
+
 }
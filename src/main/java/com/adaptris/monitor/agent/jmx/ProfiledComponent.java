@@ -0,0 +1,158 @@
+package com.adaptris.monitor.agent.jmx;
+
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.FlowActivityCells;
+
+/**
+ * Reads one component's values straight out of the latest snapshot (by ordinal) and the live cells; nothing is copied.
+ * Interval values are zero while the adapter is idle, see {@link ProfiledComponentRegistry}.
+ */
+final class ProfiledComponent implements ProfiledComponentMXBean {
+
+  private final ProfiledComponentRegistry registry;
+
+  private final ActivitySnapshot.Layout layout;
+
+  private final int ordinal;
+
+  private final FlowActivityCells cells;
+
+  ProfiledComponent(ProfiledComponentRegistry registry, ActivitySnapshot.Layout layout, int ordinal, FlowActivityCells cells) {
+    this.registry = registry;
+    this.layout = layout;
+    this.ordinal = ordinal;
+    this.cells = cells;
+  }
+
+  // Null once the topology has been replaced, until this bean is unregistered.
+  private ActivitySnapshot snapshot() {
+    return ofLayout(registry.getLatestSnapshot());
+  }
+
+  // As above, and null while idle so that interval values drop to zero rather than repeating the last busy interval.
+  private ActivitySnapshot intervalSnapshot() {
+    return ofLayout(registry.getCurrentSnapshot());
+  }
+
+  private ActivitySnapshot ofLayout(ActivitySnapshot snapshot) {
+    return snapshot != null && snapshot.getLayout() == layout ? snapshot : null;
+  }
+
+  @Override
+  public String getUniqueId() {
+    return layout.uniqueId(ordinal);
+  }
+
+  @Override
+  public String getComponentType() {
+    return layout.componentType(ordinal);
+  }
+
+  @Override
+  public String getAdapterId() {
+    return layout.adapterId(ordinal);
+  }
+
+  @Override
+  public String getChannelId() {
+    return layout.channelId(ordinal);
+  }
+
+  @Override
+  public String getWorkflowId() {
+    return layout.workflowId(ordinal);
+  }
+
+  @Override
+  public long getIntervalStartMillis() {
+    ActivitySnapshot snapshot = snapshot();
+    return snapshot == null ? 0 : snapshot.getIntervalStartMillis();
+  }
+
+  @Override
+  public long getIntervalEndMillis() {
+    ActivitySnapshot snapshot = snapshot();
+    return snapshot == null ? 0 : snapshot.getIntervalEndMillis();
+  }
+
+  @Override
+  public long getMessageCount() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getMessageCount(ordinal);
+  }
+
+  @Override
+  public double getMessagesPerSecond() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    if (snapshot == null)
+      return 0;
+    long elapsed = snapshot.getIntervalEndMillis() - snapshot.getIntervalStartMillis();
+    return elapsed <= 0 ? 0 : snapshot.getMessageCount(ordinal) * 1000.0 / elapsed;
+  }
+
+  @Override
+  public long getAvgMsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getAvgTimeTaken(ordinal);
+  }
+
+  @Override
+  public long getMinMsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getMinTimeTaken(ordinal);
+  }
+
+  @Override
+  public long getMaxMsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getMaxTimeTaken(ordinal);
+  }
+
+  @Override
+  public double getStdDevMsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getStdDevTimeTaken(ordinal);
+  }
+
+  @Override
+  public long getP50MsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getP50TimeTaken(ordinal);
+  }
+
+  @Override
+  public long getP95MsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getP95TimeTaken(ordinal);
+  }
+
+  @Override
+  public long getP99MsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getP99TimeTaken(ordinal);
+  }
+
+  @Override
+  public long getP999MsTaken() {
+    ActivitySnapshot snapshot = intervalSnapshot();
+    return snapshot == null ? 0 : snapshot.getP999TimeTaken(ordinal);
+  }
+
+  @Override
+  public long getCumulativeMessageCount() {
+    ActivitySnapshot snapshot = snapshot();
+    return snapshot == null ? 0 : snapshot.getCumulativeMessageCount(ordinal);
+  }
+
+  @Override
+  public long getCumulativeMsTaken() {
+    ActivitySnapshot snapshot = snapshot();
+    return snapshot == null ? 0 : snapshot.getCumulativeTimeTaken(ordinal);
+  }
+
+  @Override
+  public long getCurrentIntervalMessageCount() {
+    return cells == null ? -1 : cells.getCount();
+  }
+
+}
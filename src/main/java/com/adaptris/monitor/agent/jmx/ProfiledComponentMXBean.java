@@ -0,0 +1,60 @@
+package com.adaptris.monitor.agent.jmx;
+
+/**
+ * The statistics of one consumer, producer or service, as open types that any JMX client can read.
+ * <p>
+ * Interval values are those of the interval last propagated, or zero if nothing has been propagated for a whole interval
+ * since; {@link #getCurrentIntervalMessageCount()} is read from the live aggregation and is only available in streaming
+ * aggregation mode.
+ * </p>
+ */
+public interface ProfiledComponentMXBean {
+
+  String getUniqueId();
+
+  /**
+   * @return one of consumer, producer or service.
+   */
+  String getComponentType();
+
+  String getAdapterId();
+
+  String getChannelId();
+
+  String getWorkflowId();
+
+  long getIntervalStartMillis();
+
+  long getIntervalEndMillis();
+
+  long getMessageCount();
+
+  double getMessagesPerSecond();
+
+  long getAvgMsTaken();
+
+  long getMinMsTaken();
+
+  long getMaxMsTaken();
+
+  double getStdDevMsTaken();
+
+  long getP50MsTaken();
+
+  long getP95MsTaken();
+
+  long getP99MsTaken();
+
+  long getP999MsTaken();
+
+  long getCumulativeMessageCount();
+
+  long getCumulativeMsTaken();
+
+  /**
+   * @return the messages recorded so far in the interval that has not yet been propagated, -1 if not aggregating in
+   *         streaming mode.
+   */
+  long getCurrentIntervalMessageCount();
+
+}
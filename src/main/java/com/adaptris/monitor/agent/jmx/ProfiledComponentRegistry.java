@@ -0,0 +1,130 @@
+package com.adaptris.monitor.agent.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.core.runtime.AdapterComponentMBean;
+import com.adaptris.core.util.JmxHelper;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.FlowActivityCells;
+import com.adaptris.monitor.agent.activity.StreamingActivityAggregator;
+
+/**
+ * Registers a {@link ProfiledComponentMXBean} for every component of the topology being propagated, named
+ * {@code com.adaptris:type=ProfiledComponent,adapter=..,channel=..,workflow=..,component=..}, and keeps the snapshot they
+ * read from. The beans are registered once per topology; each interval only replaces the snapshot reference.
+ * <p>
+ * Idle intervals are not propagated, so once a whole propagation interval has passed since the latest snapshot ended
+ * the adapter is taken to be idle and the beans report no interval activity; lifetime totals are unaffected.
+ * </p>
+ */
+class ProfiledComponentRegistry {
+
+  protected transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+  static final String TYPE = "ProfiledComponent";
+
+  private volatile ActivitySnapshot latestSnapshot;
+
+  private ActivitySnapshot.Layout registeredLayout;
+
+  private final List<ObjectName> registered = new ArrayList<>();
+
+  // Set while the propagator is stopped, so that an interval still in flight cannot register beans after the stop.
+  private boolean closed;
+
+  private final Predicate<ActivitySnapshot> idle;
+
+  ProfiledComponentRegistry(Predicate<ActivitySnapshot> idle) {
+    this.idle = idle;
+  }
+
+  void update(ActivitySnapshot snapshot, StreamingActivityAggregator aggregator) {
+    latestSnapshot = snapshot;
+    if (snapshot.getLayout() != registeredLayout)
+      register(snapshot.getLayout(), aggregator);
+  }
+
+  private synchronized void register(ActivitySnapshot.Layout layout, StreamingActivityAggregator aggregator) {
+    if (closed || layout == registeredLayout)
+      return;
+    unregisterAll();
+    registeredLayout = layout;
+    // The live cells only belong to these components if the aggregator produced this topology.
+    boolean live = aggregator != null && aggregator.getActivityMap().getSnapshotLayout() == layout;
+    for (int ordinal = 0; ordinal < layout.size(); ordinal++) {
+      try {
+        FlowActivityCells cells = live ? aggregator.getCells(layout.uniqueId(ordinal)) : null;
+        ObjectName name = objectName(layout, ordinal);
+        JmxHelper.register(name, new ProfiledComponent(this, layout, ordinal, cells));
+        registered.add(name);
+      } catch (Exception ex) {
+        log.warn("Failed to register profiling MBean for {}", layout.uniqueId(ordinal), ex);
+      }
+    }
+    log.debug("Registered {} profiled component MBeans", registered.size());
+  }
+
+  synchronized void open() {
+    closed = false;
+  }
+
+  synchronized void close() {
+    closed = true;
+    unregisterAll();
+  }
+
+  private void unregisterAll() {
+    for (ObjectName name : registered) {
+      try {
+        JmxHelper.unregister(name);
+      } catch (Exception ex) {
+        log.trace("Failed to unregister {}", name, ex);
+      }
+    }
+    registered.clear();
+    registeredLayout = null;
+  }
+
+  ActivitySnapshot getLatestSnapshot() {
+    return latestSnapshot;
+  }
+
+  /**
+   * @return the latest snapshot if it is for the interval just passed, null if there has been no activity since.
+   */
+  ActivitySnapshot getCurrentSnapshot() {
+    ActivitySnapshot snapshot = latestSnapshot;
+    return snapshot != null && !idle.test(snapshot) ? snapshot : null;
+  }
+
+  synchronized List<ObjectName> getRegisteredNames() {
+    return new ArrayList<>(registered);
+  }
+
+  static ObjectName objectName(ActivitySnapshot.Layout layout, int ordinal) throws MalformedObjectNameException {
+    StringBuilder name = new StringBuilder(AdapterComponentMBean.JMX_DOMAIN_NAME).append(":type=").append(TYPE);
+    appendKey(name, "adapter", layout.adapterId(ordinal));
+    appendKey(name, "channel", layout.channelId(ordinal));
+    appendKey(name, "workflow", layout.workflowId(ordinal));
+    appendKey(name, "component", layout.uniqueId(ordinal));
+    return new ObjectName(name.toString());
+  }
+
+  private static void appendKey(StringBuilder name, String key, String value) {
+    if (value == null)
+      return;
+    name.append(',').append(key).append('=');
+    boolean plain = !value.isEmpty();
+    for (int index = 0; plain && index < value.length(); index++)
+      plain = ",=:\"*?\n".indexOf(value.charAt(index)) < 0;
+    name.append(plain ? value : ObjectName.quote(value));
+  }
+}
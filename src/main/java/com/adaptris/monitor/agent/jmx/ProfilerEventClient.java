@@ -1,23 +1,66 @@
 package com.adaptris.monitor.agent.jmx;
 
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.OpenDataException;
 
-import org.apache.commons.collections4.QueueUtils;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
 
-public class ProfilerEventClient implements ProfilerEventClientMBean {
+/**
+ * Keeps the most recent activity in a sequence numbered history.
+ * <p>
+ * {@link #getEventsSince(long, int)} reads without removing anything, so independent clients (a dashboard, an alerting
+ * scraper) each keep their own cursor and fetch a whole batch per call. {@link #getEventActivityMap()} keeps its original
+ * behaviour of handing each event to one caller only, by way of a single shared cursor; it no longer takes the event out
+ * of the history for everybody else.
+ * </p>
+ * <p>
+ * Clients that would rather be told than poll can subscribe: every event added sends one
+ * {@value #INTERVAL_NOTIFICATION} summarising it and one {@value #COMPONENT_NOTIFICATION} per component that saw messages,
+ * each carrying open type data (see {@link ComponentStatistics}). Use a {@link ComponentNotificationFilter} to receive
+ * only the components of interest. Nothing is built while nobody is listening.
+ * </p>
+ */
+public class ProfilerEventClient extends NotificationBroadcasterSupport implements ProfilerEventClientMBean {
   
   protected transient Logger log = LoggerFactory.getLogger(this.getClass());
 
+  public static final String INTERVAL_NOTIFICATION = "com.adaptris.monitor.agent.interval";
+
+  public static final String COMPONENT_NOTIFICATION = "com.adaptris.monitor.agent.component";
+
+  private static final MBeanNotificationInfo[] NOTIFICATION_INFO = {
+      new MBeanNotificationInfo(new String[] { INTERVAL_NOTIFICATION }, Notification.class.getName(),
+          "Summary of each propagated interval"),
+      new MBeanNotificationInfo(new String[] { COMPONENT_NOTIFICATION }, Notification.class.getName(),
+          "Statistics of each component active during a propagated interval") };
+
   private static final int DEFAULT_MAX_EVENT_HISTORY = 100;
   
   private int maxEventHistory = 0;
   
-  private Queue<ActivityMap> eventQueue;
+  private volatile SnapshotHistory history;
+
+  private final AtomicLong pollCursor = new AtomicLong();
+
+  private final AtomicLong notificationSequence = new AtomicLong();
+
+  // Registrations per listener, so that notifications are only built while somebody is listening.
+  private final Map<NotificationListener, Integer> listeners = new ConcurrentHashMap<>();
   
   public ProfilerEventClient() {
     
@@ -35,31 +78,132 @@ public class ProfilerEventClient implements ProfilerEventClientMBean {
     return this.getMaxEventHistory() > 0 ? this.getMaxEventHistory() : DEFAULT_MAX_EVENT_HISTORY;
   }
 
-  public Queue<ActivityMap> getEventQueue() {
-    if(eventQueue == null)
-      this.setEventQueue(QueueUtils.synchronizedQueue(new CircularFifoQueue<ActivityMap>(this.maxEventHistory())));
-    
-    log.trace("get queue: " + eventQueue.size());
-    return eventQueue;
-  }
-
-  public void setEventQueue(Queue<ActivityMap> eventBuffer) {
-    this.eventQueue = eventBuffer;
+  // Sized on first use, like the queue it replaces, so that setMaxEventHistory can still be applied after construction.
+  private SnapshotHistory getHistory() {
+    SnapshotHistory result = history;
+    if (result == null) {
+      synchronized (this) {
+        result = history;
+        if (result == null) {
+          result = new SnapshotHistory(this.maxEventHistory());
+          history = result;
+        }
+      }
+    }
+    return result;
   }
   
+  /**
+   * @return the number of events not yet taken by {@link #getEventActivityMap()}.
+   */
+  @Override
   public int getEventCount() {
-    log.trace("get count: " + this.getEventQueue().size());
-    return this.getEventQueue().size();
+    SnapshotHistory events = this.getHistory();
+    long next = events.getNextSequence();
+    return (int) (next - Math.max(pollCursor.get(), events.getOldestSequence()));
   }
   
+  /**
+   * Adds an immutable capture of the map's current statistics, so later changes to the map are not seen in the history.
+   */
+  @Override
   public void addEventActivityMap(ActivityMap activityMap) {
-    this.getEventQueue().offer(activityMap);
-    log.trace("Add: " + this.getEventCount());
+    this.addEventSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  public void addEventSnapshot(ActivitySnapshot snapshot) {
+    long sequence = this.getHistory().add(snapshot);
+    log.trace("Add: {}", sequence);
+    if (!listeners.isEmpty())
+      notifyListeners(snapshot, sequence);
+  }
+
+  private void notifyListeners(ActivitySnapshot snapshot, long sequence) {
+    try {
+      Notification interval = new Notification(INTERVAL_NOTIFICATION, this, notificationSequence.incrementAndGet(),
+          snapshot.getIntervalEndMillis(), "Profiling interval " + sequence);
+      interval.setUserData(ComponentStatistics.interval(snapshot, sequence));
+      sendNotification(interval);
+      for (int ordinal = 0; ordinal < snapshot.size(); ordinal++) {
+        if (snapshot.getMessageCount(ordinal) > 0) {
+          Notification component = new Notification(COMPONENT_NOTIFICATION, this, notificationSequence.incrementAndGet(),
+              snapshot.getIntervalEndMillis(), snapshot.getUniqueId(ordinal));
+          component.setUserData(ComponentStatistics.component(snapshot, ordinal));
+          sendNotification(component);
+        }
+      }
+    } catch (OpenDataException ex) {
+      log.error("Failed to build profiling notification.", ex);
+    }
+  }
+
+  @Override
+  public void addNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+    super.addNotificationListener(listener, filter, handback);
+    listeners.merge(listener, 1, Integer::sum);
+  }
+
+  @Override
+  public void removeNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+    super.removeNotificationListener(listener);
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void removeNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+      throws ListenerNotFoundException {
+    super.removeNotificationListener(listener, filter, handback);
+    listeners.computeIfPresent(listener, (key, count) -> count > 1 ? count - 1 : null);
+  }
+
+  @Override
+  public MBeanNotificationInfo[] getNotificationInfo() {
+    return NOTIFICATION_INFO.clone();
   }
   
+  @Override
   public ActivityMap getEventActivityMap() {
-    log.trace("get map: " + this.getEventCount());
-    return (ActivityMap) this.getEventQueue().poll();
+    SnapshotHistory events = this.getHistory();
+    while (true) {
+      long cursor = pollCursor.get();
+      long sequence = Math.max(cursor, events.getOldestSequence());
+      if (sequence >= events.getNextSequence())
+        return null;
+      ActivitySnapshot snapshot = events.get(sequence);
+      if (snapshot == null) {
+        // Either overwritten while we looked, so try again from the new oldest, or not yet fully added.
+        if (sequence >= events.getOldestSequence())
+          return null;
+        continue;
+      }
+      if (pollCursor.compareAndSet(cursor, sequence + 1))
+        return snapshot.toActivityMap();
+    }
+  }
+
+  @Override
+  public EventBatch getEventsSince(long sequence, int max) {
+    SnapshotHistory events = this.getHistory();
+    long oldest = events.getOldestSequence();
+    // A cursor beyond anything added belongs to an earlier history, the agent has restarted since.
+    boolean reset = sequence > events.getNextSequence();
+    long first = reset ? oldest : Math.max(Math.max(0, sequence), oldest);
+    long missed = reset || sequence <= 0 ? 0 : first - sequence;
+    List<ActivityMap> result = new ArrayList<>(Math.max(0, Math.min(max, events.capacity())));
+    long next = first;
+    while (result.size() < max) {
+      ActivitySnapshot snapshot = events.get(next);
+      if (snapshot == null)
+        break;
+      result.add(snapshot.toActivityMap());
+      next++;
+    }
+    return new EventBatch(first, next, missed, reset, result);
+  }
+
+  @Override
+  public long getNextSequence() {
+    return this.getHistory().getNextSequence();
   }
   
 }
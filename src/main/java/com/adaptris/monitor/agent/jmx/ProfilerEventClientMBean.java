@@ -9,5 +9,19 @@ public interface ProfilerEventClientMBean {
   public ActivityMap getEventActivityMap();
   
   public int getEventCount();
+
+  /**
+   * Read up to {@code max} events from the history, oldest first, starting at the given sequence number; nothing is
+   * removed, so any number of clients can read the same history.
+   *
+   * @param sequence 0 for the oldest event still held, otherwise {@link EventBatch#getNextSequence()} from the last call; a
+   *          sequence beyond {@link #getNextSequence()} starts again from the oldest, see {@link EventBatch#isReset()}.
+   */
+  public EventBatch getEventsSince(long sequence, int max);
+
+  /**
+   * @return the sequence number the next event will be given.
+   */
+  public long getNextSequence();
   
 }
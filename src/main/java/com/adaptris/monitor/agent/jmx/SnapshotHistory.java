@@ -0,0 +1,72 @@
+package com.adaptris.monitor.agent.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+/**
+ * Fixed size, lock free ring of the most recent snapshots, each numbered from 0 in the order they were added.
+ * <p>
+ * Reading never removes anything, so any number of readers can each keep their own cursor; a reader that falls more than
+ * the capacity behind simply finds the oldest entries gone. A slot is only trusted if the entry in it carries the sequence
+ * number asked for, which covers both an entry that has been overwritten and one that is still being written.
+ * </p>
+ */
+class SnapshotHistory {
+
+  private final AtomicReferenceArray<Entry> ring;
+
+  private final AtomicLong nextSequence = new AtomicLong();
+
+  SnapshotHistory(int capacity) {
+    ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+  }
+
+  long add(ActivitySnapshot snapshot) {
+    long sequence = nextSequence.getAndIncrement();
+    ring.set(slot(sequence), new Entry(sequence, snapshot));
+    return sequence;
+  }
+
+  /**
+   * @return the snapshot with the given sequence number, or null if it has been overwritten or not yet added.
+   */
+  ActivitySnapshot get(long sequence) {
+    if (sequence < 0)
+      return null;
+    Entry entry = ring.get(slot(sequence));
+    return entry != null && entry.sequence == sequence ? entry.snapshot : null;
+  }
+
+  /**
+   * @return the sequence number the next snapshot will be given.
+   */
+  long getNextSequence() {
+    return nextSequence.get();
+  }
+
+  long getOldestSequence() {
+    return Math.max(0, nextSequence.get() - ring.length());
+  }
+
+  int capacity() {
+    return ring.length();
+  }
+
+  private int slot(long sequence) {
+    return (int) (sequence % ring.length());
+  }
+
+  private static final class Entry {
+
+    private final long sequence;
+
+    private final ActivitySnapshot snapshot;
+
+    Entry(long sequence, ActivitySnapshot snapshot) {
+      this.sequence = sequence;
+      this.snapshot = snapshot;
+    }
+  }
+}
@@ -0,0 +1,423 @@
+package com.adaptris.monitor.agent.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.BaseActivity;
+import com.adaptris.monitor.agent.activity.BaseFlowActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.ProducerActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+/**
+ * Writes an {@link ActivityMap} as UTF-8 JSON straight into a reusable buffer, producing the same document as
+ * {@link EventJsonMarshaller#marshallToJson(ActivityMap)} without building a Gson tree or an intermediate String.
+ * <p>
+ * The topology does not change while an adapter runs, so every component id and map key is escaped and quoted once and
+ * kept in a cache that may be shared by several writers. A writer itself is not thread safe.
+ * </p>
+ */
+public class ActivityJsonWriter {
+
+    static final int MAX_CACHED_NAMES = 16384;
+
+    private static final byte[] DATETIMESTAMP = ascii("{\"datetimestamp\":");
+    private static final byte[] ADAPTERS = ascii(",\"adapters\":");
+    private static final byte[] CHANNELS = ascii("\"channels\":");
+    private static final byte[] WORKFLOWS = ascii("\"workflows\":");
+    private static final byte[] SERVICES = ascii("\"services\":");
+    private static final byte[] PRODUCER_ACTIVITY = ascii("\"producerActivity\":");
+    private static final byte[] CONSUMER_ACTIVITY = ascii("\"consumerActivity\":");
+    private static final byte[] UNIQUE_ID = ascii("\"uniqueId\":");
+    private static final byte[] MESSAGE_COUNT = ascii("\"messageCount\":");
+    private static final byte[] AVG_MS_TAKEN = ascii(",\"avgMsTaken\":");
+    private static final byte[] MIN_MS_TAKEN = ascii(",\"minMsTaken\":");
+    private static final byte[] MAX_MS_TAKEN = ascii(",\"maxMsTaken\":");
+    private static final byte[] STD_DEV_MS_TAKEN = ascii(",\"stdDevMsTaken\":");
+    private static final byte[] P50_MS_TAKEN = ascii(",\"p50MsTaken\":");
+    private static final byte[] P95_MS_TAKEN = ascii(",\"p95MsTaken\":");
+    private static final byte[] P99_MS_TAKEN = ascii(",\"p99MsTaken\":");
+    private static final byte[] P999_MS_TAKEN = ascii(",\"p999MsTaken\":");
+    private static final byte[] CUMULATIVE_MESSAGE_COUNT = ascii(",\"cumulativeMessageCount\":");
+    private static final byte[] CUMULATIVE_MS_TAKEN = ascii(",\"cumulativeMsTaken\":");
+    private static final byte[] MSG_COUNT = ascii("\"msgCount\":");
+    private static final byte[] AVERAGE_TIME_TAKEN = ascii(",\"averageTimeTaken\":");
+    private static final byte[] MIN_TIME_TAKEN = ascii(",\"minTimeTaken\":");
+    private static final byte[] MAX_TIME_TAKEN = ascii(",\"maxTimeTaken\":");
+    private static final byte[] STD_DEV_TIME_TAKEN = ascii(",\"stdDevTimeTaken\":");
+    private static final byte[] P50_TIME_TAKEN = ascii(",\"p50TimeTaken\":");
+    private static final byte[] P95_TIME_TAKEN = ascii(",\"p95TimeTaken\":");
+    private static final byte[] P99_TIME_TAKEN = ascii(",\"p99TimeTaken\":");
+    private static final byte[] P999_TIME_TAKEN = ascii(",\"p999TimeTaken\":");
+    private static final byte[] CUMULATIVE_MSG_COUNT = ascii(",\"cumulativeMsgCount\":");
+    private static final byte[] CUMULATIVE_TIME_TAKEN = ascii(",\"cumulativeTimeTaken\":");
+
+    private static final byte[] NULL = ascii("null");
+
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final Map<String, byte[]> quotedNames;
+
+    private final JsonBuffer buffer = new JsonBuffer();
+
+    private final byte[] digits = new byte[20];
+
+    // Whether the object being written has had a member yet, Gson leaves null members out entirely.
+    private boolean first;
+
+    public ActivityJsonWriter() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param quotedNames cache of escaped, quoted names; may be shared with other writers if it is thread safe.
+     */
+    public ActivityJsonWriter(Map<String, byte[]> quotedNames) {
+        this.quotedNames = quotedNames;
+    }
+
+    /**
+     * Write the document into the internal buffer, replacing whatever was there.
+     *
+     * @return the length of the document, see {@link #array()}.
+     */
+    public int write(ActivityMap activityMap, String datetimestamp) {
+        buffer.reset();
+        buffer.write(DATETIMESTAMP);
+        writeString(datetimestamp);
+        buffer.write(ADAPTERS);
+        writeActivityMap(activityMap);
+        buffer.write('}');
+        return buffer.size();
+    }
+
+    public void write(ActivityMap activityMap, String datetimestamp, OutputStream out) throws IOException {
+        write(activityMap, datetimestamp);
+        buffer.writeTo(out);
+    }
+
+    /**
+     * @return the internal buffer holding the last document in its first {@link #size()} bytes; overwritten by the next
+     *         write.
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    public int size() {
+        return buffer.size();
+    }
+
+    public byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    private void writeActivityMap(ActivityMap activityMap) {
+        if (activityMap == null || activityMap.getAdapters() == null) {
+            buffer.write(NULL);
+            return;
+        }
+        writeMap(activityMap.getAdapters());
+    }
+
+    private void writeMap(Map<String, ? extends BaseActivity> activities) {
+        buffer.write('{');
+        boolean firstEntry = true;
+        for (Map.Entry<String, ? extends BaseActivity> entry : activities.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+            if (!firstEntry)
+                buffer.write(',');
+            firstEntry = false;
+            buffer.write(quoted(entry.getKey()));
+            buffer.write(':');
+            writeActivity(entry.getValue());
+        }
+        buffer.write('}');
+    }
+
+    // Members in Gson's reflective order: the fields of the class itself, then those of each superclass.
+    private void writeActivity(BaseActivity activity) {
+        if (activity instanceof ConsumerActivity) {
+            writeConsumer((ConsumerActivity) activity);
+            return;
+        }
+        if (activity instanceof ProducerActivity) {
+            writeProducer((ProducerActivity) activity);
+            return;
+        }
+        buffer.write('{');
+        first = true;
+        if (activity instanceof AdapterActivity) {
+            writeMapMember(CHANNELS, ((AdapterActivity) activity).getChannels());
+        } else if (activity instanceof ChannelActivity) {
+            writeMapMember(WORKFLOWS, ((ChannelActivity) activity).getWorkflows());
+        } else if (activity instanceof WorkflowActivity) {
+            WorkflowActivity workflow = (WorkflowActivity) activity;
+            writeMapMember(SERVICES, workflow.getServices());
+            writeActivityMember(PRODUCER_ACTIVITY, workflow.getProducerActivity());
+            writeActivityMember(CONSUMER_ACTIVITY, workflow.getConsumerActivity());
+        } else if (activity instanceof ServiceActivity) {
+            writeMapMember(SERVICES, ((ServiceActivity) activity).getServices());
+        }
+        if (activity instanceof BaseFlowActivity)
+            writeFlowStatistics((BaseFlowActivity) activity);
+        if (activity.getUniqueId() != null) {
+            separator();
+            buffer.write(UNIQUE_ID);
+            buffer.write(quoted(activity.getUniqueId()));
+        }
+        buffer.write('}');
+        first = false;
+    }
+
+    private void writeFlowStatistics(BaseFlowActivity activity) {
+        separator();
+        buffer.write(MESSAGE_COUNT);
+        writeLong(activity.getMessageCount());
+        buffer.write(AVG_MS_TAKEN);
+        writeLong(activity.getAvgMsTaken());
+        buffer.write(MIN_MS_TAKEN);
+        writeLong(activity.getMinMsTaken());
+        buffer.write(MAX_MS_TAKEN);
+        writeLong(activity.getMaxMsTaken());
+        buffer.write(STD_DEV_MS_TAKEN);
+        writeDouble(activity.getStdDevMsTaken());
+        buffer.write(P50_MS_TAKEN);
+        writeLong(activity.getP50MsTaken());
+        buffer.write(P95_MS_TAKEN);
+        writeLong(activity.getP95MsTaken());
+        buffer.write(P99_MS_TAKEN);
+        writeLong(activity.getP99MsTaken());
+        buffer.write(P999_MS_TAKEN);
+        writeLong(activity.getP999MsTaken());
+        buffer.write(CUMULATIVE_MESSAGE_COUNT);
+        writeLong(activity.getCumulativeMessageCount());
+        buffer.write(CUMULATIVE_MS_TAKEN);
+        writeLong(activity.getCumulativeMsTaken());
+    }
+
+    // Same members as ConsumerActivitySerializer.
+    private void writeConsumer(ConsumerActivity consumer) {
+        buffer.write('{');
+        writeLeadingUniqueId(consumer);
+        buffer.write(MSG_COUNT);
+        writeLong(consumer.getMessageCount());
+        buffer.write(CUMULATIVE_MSG_COUNT);
+        writeLong(consumer.getCumulativeMessageCount());
+        buffer.write('}');
+    }
+
+    // Same members as ProducerActivitySerializer.
+    private void writeProducer(ProducerActivity producer) {
+        buffer.write('{');
+        writeLeadingUniqueId(producer);
+        buffer.write(MSG_COUNT);
+        writeLong(producer.getMessageCount());
+        buffer.write(AVERAGE_TIME_TAKEN);
+        writeLong(producer.getAvgMsTaken());
+        buffer.write(MIN_TIME_TAKEN);
+        writeLong(producer.getMinMsTaken());
+        buffer.write(MAX_TIME_TAKEN);
+        writeLong(producer.getMaxMsTaken());
+        buffer.write(STD_DEV_TIME_TAKEN);
+        writeDouble(producer.getStdDevMsTaken());
+        buffer.write(P50_TIME_TAKEN);
+        writeLong(producer.getP50MsTaken());
+        buffer.write(P95_TIME_TAKEN);
+        writeLong(producer.getP95MsTaken());
+        buffer.write(P99_TIME_TAKEN);
+        writeLong(producer.getP99MsTaken());
+        buffer.write(P999_TIME_TAKEN);
+        writeLong(producer.getP999MsTaken());
+        buffer.write(CUMULATIVE_MSG_COUNT);
+        writeLong(producer.getCumulativeMessageCount());
+        buffer.write(CUMULATIVE_TIME_TAKEN);
+        writeLong(producer.getCumulativeMsTaken());
+        buffer.write('}');
+    }
+
+    private void writeMapMember(byte[] name, Map<String, ? extends BaseActivity> activities) {
+        if (activities == null)
+            return;
+        separator();
+        buffer.write(name);
+        writeMap(activities);
+        first = false;
+    }
+
+    private void writeActivityMember(byte[] name, BaseActivity activity) {
+        if (activity == null)
+            return;
+        separator();
+        buffer.write(name);
+        writeActivity(activity);
+        first = false;
+    }
+
+    private void separator() {
+        if (!first)
+            buffer.write(',');
+        first = false;
+    }
+
+    private void writeLeadingUniqueId(BaseActivity activity) {
+        if (activity.getUniqueId() != null) {
+            buffer.write(UNIQUE_ID);
+            buffer.write(quoted(activity.getUniqueId()));
+            buffer.write(',');
+        }
+    }
+
+    private byte[] quoted(String name) {
+        byte[] result = quotedNames.get(name);
+        if (result == null) {
+            int start = buffer.size();
+            writeString(name);
+            result = Arrays.copyOfRange(buffer.array(), start, buffer.size());
+            buffer.truncate(start);
+            if (quotedNames.size() < MAX_CACHED_NAMES)
+                quotedNames.put(name, result);
+        }
+        return result;
+    }
+
+    // Escapes exactly as Gson's JsonWriter does with its default HTML safe setting.
+    private void writeString(String value) {
+        buffer.write('"');
+        int length = value.length();
+        for (int index = 0; index < length; index++) {
+            char c = value.charAt(index);
+            switch (c) {
+            case '"':
+            case '\\':
+                buffer.write('\\');
+                buffer.write(c);
+                break;
+            case '\t':
+                writeEscape('t');
+                break;
+            case '\b':
+                writeEscape('b');
+                break;
+            case '\n':
+                writeEscape('n');
+                break;
+            case '\r':
+                writeEscape('r');
+                break;
+            case '\f':
+                writeEscape('f');
+                break;
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+            case '\u2028':
+            case '\u2029':
+                writeUnicodeEscape(c);
+                break;
+            default:
+                if (c < 0x20)
+                    writeUnicodeEscape(c);
+                else if (c < 0x80)
+                    buffer.write(c);
+                else
+                    index = writeUtf8(value, index, c);
+            }
+        }
+        buffer.write('"');
+    }
+
+    private void writeEscape(char c) {
+        buffer.write('\\');
+        buffer.write(c);
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buffer.write('\\');
+        buffer.write('u');
+        buffer.write(HEX[(c >> 12) & 0xf]);
+        buffer.write(HEX[(c >> 8) & 0xf]);
+        buffer.write(HEX[(c >> 4) & 0xf]);
+        buffer.write(HEX[c & 0xf]);
+    }
+
+    // @return the index of the last char consumed.
+    private int writeUtf8(String value, int index, char c) {
+        if (c < 0x800) {
+            buffer.write(0xc0 | (c >> 6));
+            buffer.write(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            buffer.write(0xf0 | (codePoint >> 18));
+            buffer.write(0x80 | ((codePoint >> 12) & 0x3f));
+            buffer.write(0x80 | ((codePoint >> 6) & 0x3f));
+            buffer.write(0x80 | (codePoint & 0x3f));
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            buffer.write('?');
+        } else {
+            buffer.write(0xe0 | (c >> 12));
+            buffer.write(0x80 | ((c >> 6) & 0x3f));
+            buffer.write(0x80 | (c & 0x3f));
+        }
+        return index;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.write(ascii(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            buffer.write('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        buffer.write(digits, position, digits.length - position);
+    }
+
+    private void writeDouble(double value) {
+        // Gson refuses to write NaN or infinity at all; report no deviation rather than fail the whole document.
+        buffer.write(ascii(Double.isNaN(value) || Double.isInfinite(value) ? "0.0" : Double.toString(value)));
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class JsonBuffer extends ByteArrayOutputStream {
+
+        JsonBuffer() {
+            super(4096);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+    }
+}
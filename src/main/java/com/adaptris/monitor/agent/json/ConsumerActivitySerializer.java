@@ -15,6 +15,7 @@ public class ConsumerActivitySerializer implements JsonSerializer<ConsumerActivi
 		JsonObject object = new JsonObject();
 		object.addProperty("uniqueId", src.getUniqueId());
 		object.addProperty("msgCount", src.getMessageCount());
+		object.addProperty("cumulativeMsgCount", src.getCumulativeMessageCount());
 		// send back to Gson serializer
 		return object;
 	}
@@ -7,12 +7,20 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EventJsonMarshaller {
     private Gson gson;
 
+    // Escaped ids are shared, each thread gets its own reusable buffer.
+    private final Map<String, byte[]> quotedNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<ActivityJsonWriter> writers = ThreadLocal.withInitial(() -> new ActivityJsonWriter(quotedNames));
+
     public EventJsonMarshaller() {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(ConsumerActivity.class, new ConsumerActivitySerializer());
@@ -31,6 +39,24 @@ public class EventJsonMarshaller {
         return json;
     }
 
+    /**
+     * The same document as {@link #marshallToJson(ActivityMap)} as UTF-8 bytes, written without an intermediate tree or
+     * String.
+     */
+    public byte[] marshallToJsonBytes(ActivityMap activityMap) {
+        ActivityJsonWriter writer = writers.get();
+        writer.write(activityMap, timestamp());
+        return writer.toByteArray();
+    }
+
+    public void marshallToJson(ActivityMap activityMap, OutputStream out) throws IOException {
+        writers.get().write(activityMap, timestamp(), out);
+    }
+
+    private static String timestamp() {
+        return LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    }
+
     // Wrapper class to allow us to add a datestamp to the json output
     private class ActivtyWrapper {
         @Expose
@@ -39,7 +65,7 @@ public class EventJsonMarshaller {
         ActivityMap adapters;
 
         public ActivtyWrapper(ActivityMap metrics) {
-            datetimestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            datetimestamp = timestamp();
             adapters = metrics;
         }
     }
@@ -16,6 +16,15 @@ public class ProducerActivitySerializer implements JsonSerializer<ProducerActivi
 		object.addProperty("uniqueId", src.getUniqueId());
 		object.addProperty("msgCount", src.getMessageCount());
 		object.addProperty("averageTimeTaken", src.getAvgMsTaken());
+		object.addProperty("minTimeTaken", src.getMinMsTaken());
+		object.addProperty("maxTimeTaken", src.getMaxMsTaken());
+		object.addProperty("stdDevTimeTaken", src.getStdDevMsTaken());
+		object.addProperty("p50TimeTaken", src.getP50MsTaken());
+		object.addProperty("p95TimeTaken", src.getP95MsTaken());
+		object.addProperty("p99TimeTaken", src.getP99MsTaken());
+		object.addProperty("p999TimeTaken", src.getP999MsTaken());
+		object.addProperty("cumulativeMsgCount", src.getCumulativeMessageCount());
+		object.addProperty("cumulativeTimeTaken", src.getCumulativeMsTaken());
 		// send back to Gson serializer
 		return object;
 	}
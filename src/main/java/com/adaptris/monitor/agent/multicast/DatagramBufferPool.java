@@ -0,0 +1,40 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of equally sized receive buffers; buffers of another size are simply left to the garbage collector.
+ */
+public class DatagramBufferPool {
+
+  public static final int DEFAULT_POOL_SIZE = 16;
+
+  private final ArrayBlockingQueue<byte[]> buffers;
+
+  public DatagramBufferPool() {
+    this(DEFAULT_POOL_SIZE);
+  }
+
+  public DatagramBufferPool(int poolSize) {
+    buffers = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+  }
+
+  public byte[] acquire(int size) {
+    byte[] buffer;
+    while ((buffer = buffers.poll()) != null) {
+      if (buffer.length == size)
+        return buffer;
+    }
+    return new byte[size];
+  }
+
+  public void release(byte[] buffer) {
+    if (buffer != null)
+      buffers.offer(buffer);
+  }
+
+  public int available() {
+    return buffers.size();
+  }
+
+}
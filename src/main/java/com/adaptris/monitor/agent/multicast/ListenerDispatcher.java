@@ -0,0 +1,224 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.monitor.agent.EventReceiverListener;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+
+/**
+ * Delivers received activity to one {@link EventReceiverListener} from its own thread, through a bounded queue, so that
+ * a slow listener neither delays the others nor stops the socket being drained.
+ */
+public class ListenerDispatcher {
+
+  protected transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private final EventReceiverListener listener;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final int capacity;
+
+  private final ArrayDeque<Pending> queue;
+
+  // COALESCE only: the waiting entry for each adapter key.
+  private final Map<String, Pending> waiting = new HashMap<>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Condition notFull = lock.newCondition();
+
+  private volatile boolean running;
+
+  private Thread worker;
+
+  private final LongAdder delivered = new LongAdder();
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final LongAdder coalesced = new LongAdder();
+
+  private volatile long lastLagNanos;
+
+  private volatile long maxLagNanos;
+
+  public ListenerDispatcher(EventReceiverListener listener, OverflowPolicy overflowPolicy, int capacity) {
+    this.listener = listener;
+    this.overflowPolicy = overflowPolicy;
+    this.capacity = Math.max(1, capacity);
+    this.queue = new ArrayDeque<>(this.capacity);
+  }
+
+  public synchronized void start() {
+    if (running)
+      return;
+    running = true;
+    worker = new Thread(this::deliver, "Event Listener " + listener.getClass().getName());
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (worker != null) {
+      worker.interrupt();
+      worker = null;
+    }
+    lock.lock();
+    try {
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queue activity for the listener, applying the overflow policy if it is a full queue behind.
+   */
+  public void dispatch(ActivityMap activityMap) throws InterruptedException {
+    String key = overflowPolicy == OverflowPolicy.COALESCE ? adapterKey(activityMap) : null;
+    lock.lock();
+    try {
+      if (key != null) {
+        Pending existing = waiting.get(key);
+        if (existing != null) {
+          existing.activityMap = activityMap;
+          coalesced.increment();
+          return;
+        }
+      }
+      while (queue.size() >= capacity) {
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+          if (!running)
+            return;
+          notFull.await();
+        } else {
+          Pending oldest = queue.poll();
+          if (oldest.key != null)
+            waiting.remove(oldest.key);
+          dropped.increment();
+        }
+      }
+      Pending pending = new Pending(key, activityMap);
+      queue.add(pending);
+      if (key != null)
+        waiting.put(key, pending);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void deliver() {
+    while (running) {
+      Pending pending;
+      lock.lock();
+      try {
+        while (queue.isEmpty()) {
+          notEmpty.await();
+        }
+        pending = queue.poll();
+        if (pending.key != null)
+          waiting.remove(pending.key);
+        notFull.signal();
+      } catch (InterruptedException ex) {
+        break;
+      } finally {
+        lock.unlock();
+      }
+
+      long lag = System.nanoTime() - pending.enqueuedNanos;
+      lastLagNanos = lag;
+      if (lag > maxLagNanos)
+        maxLagNanos = lag;
+      try {
+        listener.eventReceived(pending.activityMap);
+      } catch (Throwable t) {
+        log.error("Event listener {} failed.", listener.getClass().getName(), t);
+      }
+      delivered.increment();
+    }
+  }
+
+  private static String adapterKey(ActivityMap activityMap) {
+    if (activityMap.getAdapters().size() == 1)
+      return String.valueOf(activityMap.getAdapters().keySet().iterator().next());
+    return String.valueOf(activityMap.getAdapters().keySet());
+  }
+
+  public EventReceiverListener getListener() {
+    return listener;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getDeliveredCount() {
+    return delivered.sum();
+  }
+
+  /**
+   * @return the activity discarded because the listener had fallen behind.
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * @return the activity replaced by later activity for the same adapter before the listener got to it.
+   */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * @return how long the last delivered activity waited in the queue.
+   */
+  public long getLastLagMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastLagNanos);
+  }
+
+  public long getMaxLagMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+  }
+
+  private static final class Pending {
+
+    private final String key;
+
+    private final long enqueuedNanos = System.nanoTime();
+
+    private ActivityMap activityMap;
+
+    Pending(String key, ActivityMap activityMap) {
+      this.key = key;
+      this.activityMap = activityMap;
+    }
+  }
+
+}
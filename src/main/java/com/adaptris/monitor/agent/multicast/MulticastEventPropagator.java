@@ -1,70 +1,279 @@
 package com.adaptris.monitor.agent.multicast;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
+import java.io.IOException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.apache.commons.lang.StringUtils;
 
 import com.adaptris.monitor.agent.AbstractEventPropagator;
 import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.MonitorSettings;
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.wire.ActivityEncoder;
+import com.adaptris.monitor.agent.wire.BinaryActivityEncoder;
+import com.adaptris.monitor.agent.wire.DatagramChunker;
+import com.adaptris.monitor.agent.wire.DeflateCompressor;
+import com.adaptris.monitor.agent.wire.PayloadCompression;
+import com.adaptris.monitor.agent.wire.WireBuffer;
+import com.adaptris.monitor.agent.wire.WireFormat;
 
+/**
+ * Sends each interval's activity to a multicast group.
+ * <p>
+ * A single unbound {@link DatagramChannel} is opened on first use and kept until the propagator stops (or a send fails),
+ * the group address is resolved once, and every datagram is copied into the same direct buffer, so sending a snapshot
+ * costs one encode into a reused buffer and one system call per datagram.
+ * </p>
+ * <p>
+ * Only payloads that older receivers could not read anyway, {@link WireFormat#BINARY} or compressed, are split into
+ * chunks. A plain {@link WireFormat#JAVA} payload is still sent as a single datagram, as earlier versions did, since their
+ * receivers read each datagram with an {@code ObjectInputStream}.
+ * </p>
+ */
 public class MulticastEventPropagator extends AbstractEventPropagator {
 
-  private static final String DEFAULT_MULTICAST_GROUP = "224.0.0.4";
+  public static final String MULTICAST_GROUP_KEY = "com.adaptris.monitor.agent.MulticastGroup";
+
+  public static final String MULTICAST_PORT_KEY = "com.adaptris.monitor.agent.MulticastPort";
+
+  public static final String MULTICAST_TTL_KEY = "com.adaptris.monitor.agent.MulticastTtl";
+
+  public static final String MULTICAST_INTERFACE_KEY = "com.adaptris.monitor.agent.MulticastInterface";
+
+  static final String DEFAULT_MULTICAST_GROUP = "224.0.0.4";
+
+  static final int DEFAULT_MULTICAST_PORT = 5577;
+
+  private static final int DEFAULT_TTL = 1;
+
+  private String group;
+
+  private int port;
+
+  private int timeToLive;
+
+  private String networkInterface;
+
+  private DatagramChannel channel;
+
+  private InetSocketAddress target;
+
+  private WireFormat wireFormat;
+
+  private int deltaKeyframeInterval;
+
+  private ActivityEncoder encoder;
+
+  private final WireBuffer buffer = new WireBuffer();
+
+  private final DatagramChunker chunker;
 
-  private static final int DEFAULT_MULTICAST_PORT = 5577;
+  private final ByteBuffer datagram;
 
-  private MulticastSocket socket;
+  private PayloadCompression compression;
+
+  private int compressionKeyframeInterval;
+
+  // Created on first use, closed when the propagator stops to release the native deflater.
+  private DeflateCompressor compressor;
 
   public MulticastEventPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
     super(eventMonitorReceiver);
+    group = MonitorSettings.getString(MULTICAST_GROUP_KEY, DEFAULT_MULTICAST_GROUP);
+    port = MonitorSettings.getInt(MULTICAST_PORT_KEY, DEFAULT_MULTICAST_PORT);
+    timeToLive = MonitorSettings.getInt(MULTICAST_TTL_KEY, DEFAULT_TTL);
+    networkInterface = MonitorSettings.getString(MULTICAST_INTERFACE_KEY, null);
+    chunker = new DatagramChunker(MonitorSettings.getInt(DatagramChunker.MAX_DATAGRAM_SIZE_KEY, DatagramChunker.DEFAULT_MAX_DATAGRAM_SIZE));
+    datagram = ByteBuffer.allocateDirect(chunker.getMaxDatagramSize());
+    deltaKeyframeInterval = MonitorSettings.getInt(BinaryActivityEncoder.DELTA_KEYFRAME_INTERVAL_KEY, 0);
+    this.setWireFormat(WireFormat.getFormat(MonitorSettings.getString(WireFormat.WIRE_FORMAT_KEY, WireFormat.JAVA.name())));
+    compression = PayloadCompression.getMode(MonitorSettings.getString(PayloadCompression.COMPRESSION_KEY, PayloadCompression.NONE.name()));
+    compressionKeyframeInterval = MonitorSettings.getInt(PayloadCompression.KEYFRAME_INTERVAL_KEY, DeflateCompressor.DEFAULT_KEYFRAME_INTERVAL);
   }
 
   @Override
   public void propagateProcessEvent(ActivityMap activityMap) {
-    log.debug(activityMap.toString());
+    propagateSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  @Override
+  public void propagateSnapshot(ActivitySnapshot snapshot) {
+    log.debug("Propagating {} messages over {} components", snapshot.getTotalMessageCount(), snapshot.size());
 
-    sendMulticast(activityMap);
+    sendMulticast(snapshot);
   }
 
-  private void sendMulticast(Object object) {
+  private synchronized void sendMulticast(ActivitySnapshot snapshot) {
     try {
-      if((socket == null) || (!socket.isConnected()))
-          this.initialiseSocket();
+      if (channel == null)
+        this.initialiseChannel();
       
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(baos);
-      oos.writeObject(object);
-      oos.flush();
-      byte[] data= baos.toByteArray();
-
-      DatagramPacket packet = new DatagramPacket(data, data.length, InetAddress.getByName(DEFAULT_MULTICAST_GROUP), DEFAULT_MULTICAST_PORT);
-      socket.send(packet);
+      buffer.reset();
+      encoder.encode(snapshot, buffer);
+
+      WireBuffer payload = buffer;
+      if (compression == PayloadCompression.DEFLATE) {
+        if (compressor == null)
+          compressor = new DeflateCompressor(compressionKeyframeInterval);
+        WireBuffer compressed = compressor.compress(buffer.array(), buffer.size(), encoder.getCompressionDictionary());
+        if (compressed != null)
+          payload = compressed;
+      }
+
+      if (payload == buffer && wireFormat == WireFormat.JAVA)
+        sendUnchunked(payload.array(), payload.size());
+      else
+        chunker.send(payload.array(), payload.size(), this::sendDatagram);
     } catch (Exception ex) {
       log.error("Error sending multicast profiling events.", ex);
-    } finally {
+      closeChannel();
     }
   }
+
+  private void sendUnchunked(byte[] data, int length) throws IOException {
+    if (length > MulticastEventReceiver.STANDARD_PACKET_SIZE)
+      throw new IOException("Payload of " + length + " bytes is too large for a single datagram");
+    channel.send(ByteBuffer.wrap(data, 0, length), target);
+  }
+
+  private void sendDatagram(byte[] data, int length) throws IOException {
+    datagram.clear();
+    datagram.put(data, 0, length);
+    datagram.flip();
+    channel.send(datagram, target);
+  }
   
-  private void initialiseSocket() {
+  private void initialiseChannel() throws IOException {
+    InetAddress groupAddress = InetAddress.getByName(group);
+    DatagramChannel newChannel = DatagramChannel.open(groupAddress instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
     try {
-      this.socket = new MulticastSocket(DEFAULT_MULTICAST_PORT);
-      this.socket.joinGroup(InetAddress.getByName(DEFAULT_MULTICAST_GROUP));
-      socket.setTimeToLive((byte) 1);
-    } catch (Exception ex) {
-      log.error("Could not initialise multicast socket.", ex);
+      newChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, timeToLive);
+      if (!StringUtils.isBlank(networkInterface)) {
+        NetworkInterface multicastInterface = NetworkInterface.getByName(networkInterface);
+        if (multicastInterface == null)
+          multicastInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(networkInterface));
+        if (multicastInterface == null)
+          throw new IOException("No network interface " + networkInterface);
+        newChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+      }
+    } catch (IOException ex) {
+      newChannel.close();
+      throw ex;
+    }
+    target = new InetSocketAddress(groupAddress, port);
+    channel = newChannel;
+    log.debug("Sending profiling events to {} (ttl {})", target, timeToLive);
+  }
+
+  private synchronized void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.trace("Failed to close multicast channel.", ex);
+      }
+      channel = null;
+    }
+  }
+
+  public String getGroup() {
+    return group;
+  }
+
+  public void setGroup(String group) {
+    this.group = group;
+    closeChannel();
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public void setPort(int port) {
+    this.port = port;
+    closeChannel();
+  }
+
+  public int getTimeToLive() {
+    return timeToLive;
+  }
+
+  public void setTimeToLive(int timeToLive) {
+    this.timeToLive = timeToLive;
+    closeChannel();
+  }
+
+  public String getNetworkInterface() {
+    return networkInterface;
+  }
+
+  /**
+   * @param networkInterface the name (e.g. eth0) or an address of the interface to send from, null for the system default.
+   */
+  public void setNetworkInterface(String networkInterface) {
+    this.networkInterface = networkInterface;
+    closeChannel();
+  }
+
+  public WireFormat getWireFormat() {
+    return wireFormat;
+  }
+
+  public synchronized void setWireFormat(WireFormat wireFormat) {
+    this.wireFormat = wireFormat;
+    this.encoder = wireFormat.createEncoder(deltaKeyframeInterval);
+  }
+
+  public int getDeltaKeyframeInterval() {
+    return deltaKeyframeInterval;
+  }
+
+  /**
+   * @param deltaKeyframeInterval send the full hierarchy in every Nth packet and only the active components in between; 0
+   *          to always send the full hierarchy.
+   */
+  public synchronized void setDeltaKeyframeInterval(int deltaKeyframeInterval) {
+    this.deltaKeyframeInterval = deltaKeyframeInterval;
+    this.encoder = wireFormat.createEncoder(deltaKeyframeInterval);
+  }
+
+  public PayloadCompression getCompression() {
+    return compression;
+  }
+
+  public synchronized void setCompression(PayloadCompression compression) {
+    this.compression = compression;
+    closeCompressor();
+  }
+
+  public int getCompressionKeyframeInterval() {
+    return compressionKeyframeInterval;
+  }
+
+  public synchronized void setCompressionKeyframeInterval(int compressionKeyframeInterval) {
+    this.compressionKeyframeInterval = compressionKeyframeInterval;
+    closeCompressor();
+  }
+
+  private synchronized void closeCompressor() {
+    if (compressor != null) {
+      compressor.close();
+      compressor = null;
     }
-    
   }
 
   @Override
   protected void stop() {
-    if((socket != null) && (socket.isConnected())) {
-      socket.close();
-    }
-    
+    closeChannel();
+    closeCompressor();
   }
 
 }
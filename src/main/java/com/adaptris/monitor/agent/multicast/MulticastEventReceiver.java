@@ -1,18 +1,24 @@
 package com.adaptris.monitor.agent.multicast;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
 import java.net.DatagramPacket;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.adaptris.core.CoreException;
 import com.adaptris.monitor.agent.EventReceiverListener;
+import com.adaptris.monitor.agent.MonitorSettings;
 import com.adaptris.monitor.agent.activity.ActivityMap;
 import com.adaptris.monitor.agent.json.EventJsonMarshaller;
+import com.adaptris.monitor.agent.wire.ActivityPacketReader;
+import com.adaptris.monitor.agent.wire.ChunkAssembler;
+import com.adaptris.monitor.agent.wire.SequenceTracker;
+import com.adaptris.monitor.agent.wire.WireFormat;
 
 /**
  * Instantiate an instance of this class, register your custom listener and execute the start method to begin receiving event data.
@@ -23,9 +29,17 @@ public class MulticastEventReceiver {
 
   protected transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-  private static final String DEFAULT_MULTICAST_GROUP = "224.0.0.4";
-  
-  private static final int DEFAULT_MULTICAST_PORT = 5577;
+  public static final String MULTICAST_RECEIVER_KEY = "com.adaptris.monitor.agent.MulticastReceiver";
+
+  public static final String MULTICAST_GROUPS_KEY = "com.adaptris.monitor.agent.MulticastGroups";
+
+  public static final String LISTENER_QUEUE_SIZE_KEY = "com.adaptris.monitor.agent.ListenerQueueSize";
+
+  public static final String LISTENER_OVERFLOW_POLICY_KEY = "com.adaptris.monitor.agent.ListenerOverflowPolicy";
+
+  private static final String NIO_RECEIVER = "NIO";
+
+  private static final int DEFAULT_LISTENER_QUEUE_SIZE = 64;
 
   protected static final int STANDARD_PACKET_SIZE = 120400;
   
@@ -34,19 +48,42 @@ public class MulticastEventReceiver {
   private MulticastSocketReceiver multicastSocketReceiver;
   
   private volatile boolean isRunning;
+
+  private final ActivityPacketReader packetReader;
+
+  private List<String> endpoints;
+
+  private final List<ListenerDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+
+  private OverflowPolicy overflowPolicy;
+
+  private int listenerQueueSize;
   
   public MulticastEventReceiver() {
     this.setListeners(new ArrayList<>());
-    this.setMulticastSocketReceiver(new MulticastSocketReceiverImpl());
+    this.setMulticastSocketReceiver(createSocketReceiver());
+    String defaultEndpoint = MonitorSettings.getString(MulticastEventPropagator.MULTICAST_GROUP_KEY, MulticastEventPropagator.DEFAULT_MULTICAST_GROUP)
+        + ":" + MonitorSettings.getInt(MulticastEventPropagator.MULTICAST_PORT_KEY, MulticastEventPropagator.DEFAULT_MULTICAST_PORT);
+    this.setOverflowPolicy(OverflowPolicy.getPolicy(MonitorSettings.getString(LISTENER_OVERFLOW_POLICY_KEY, OverflowPolicy.DROP_OLDEST.name())));
+    this.setListenerQueueSize(MonitorSettings.getInt(LISTENER_QUEUE_SIZE_KEY, DEFAULT_LISTENER_QUEUE_SIZE));
+    this.setEndpoints(Arrays.asList(MonitorSettings.getString(MULTICAST_GROUPS_KEY, defaultEndpoint).split("\\s*,\\s*")));
+    ChunkAssembler chunkAssembler = new ChunkAssembler(MonitorSettings.getLong(ChunkAssembler.REASSEMBLY_TIMEOUT_KEY, ChunkAssembler.DEFAULT_TIMEOUT_MS),
+        MonitorSettings.getLong(ChunkAssembler.REASSEMBLY_MAX_BYTES_KEY, ChunkAssembler.DEFAULT_MAX_BYTES));
+    packetReader = new ActivityPacketReader(chunkAssembler, MonitorSettings.getBoolean(WireFormat.ALLOW_JAVA_SERIALIZATION_KEY, true));
   }
   
   public void start() {
     isRunning = true;
+    for (EventReceiverListener listener : getListeners())
+      startDispatcher(listener);
     
-    try {
-      this.getMulticastSocketReceiver().connect(DEFAULT_MULTICAST_GROUP, DEFAULT_MULTICAST_PORT, true, 30000);
-    } catch (Exception ex) {
-      ex.printStackTrace();
+    for (String endpoint : getEndpoints()) {
+      try {
+        int separator = endpoint.lastIndexOf(':');
+        this.getMulticastSocketReceiver().connect(endpoint.substring(0, separator), Integer.parseInt(endpoint.substring(separator + 1)), true, 30000);
+      } catch (Exception ex) {
+        log.error("Could not listen for profiling events on {}", endpoint, ex);
+      }
     }
     new Thread(new Runnable() {
       
@@ -57,13 +94,19 @@ public class MulticastEventReceiver {
             log.trace("Attempting to read packet");
             final DatagramPacket packet = getMulticastSocketReceiver().receive(STANDARD_PACKET_SIZE);
             log.trace("Packet read");
-            ObjectInputStream iStream = new ObjectInputStream(new ByteArrayInputStream(packet.getData()));
-            ActivityMap activityMap = (ActivityMap) iStream.readObject();
+            ActivityMap activityMap;
+            try {
+              activityMap = packetReader.read(packet);
+            } finally {
+              getMulticastSocketReceiver().release(packet);
+            }
+            if (activityMap == null)
+              continue;
             
-            for(EventReceiverListener listener : getListeners())
-              listener.eventReceived(activityMap);
+            for(ListenerDispatcher dispatcher : dispatchers)
+              dispatcher.dispatch(activityMap);
             
-            log.debug("Activity map processed");
+            log.debug("Activity map dispatched");
           } catch (Exception ex) {
             ex.printStackTrace();
           }
@@ -76,10 +119,50 @@ public class MulticastEventReceiver {
   
   public void stop() {
     isRunning = false;
+    for (ListenerDispatcher dispatcher : dispatchers)
+      dispatcher.stop();
+    dispatchers.clear();
   }
   
   public void addEventReceiverListener(EventReceiverListener eventReceiverListener) {
     this.getListeners().add(eventReceiverListener);
+    if (isRunning)
+      startDispatcher(eventReceiverListener);
+  }
+
+  private synchronized void startDispatcher(EventReceiverListener listener) {
+    for (ListenerDispatcher dispatcher : dispatchers)
+      if (dispatcher.getListener() == listener)
+        return;
+    ListenerDispatcher dispatcher = new ListenerDispatcher(listener, getOverflowPolicy(), getListenerQueueSize());
+    dispatcher.start();
+    dispatchers.add(dispatcher);
+  }
+
+  /**
+   * @return the queue feeding each listener, with its depth, lag and drop counts; empty until started.
+   */
+  public List<ListenerDispatcher> getDispatchers() {
+    return Collections.unmodifiableList(dispatchers);
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Applies to listeners added after the receiver starts, or on the next start.
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  public int getListenerQueueSize() {
+    return listenerQueueSize;
+  }
+
+  public void setListenerQueueSize(int listenerQueueSize) {
+    this.listenerQueueSize = listenerQueueSize;
   }
   
   public List<EventReceiverListener> getListeners() {
@@ -101,6 +184,48 @@ public class MulticastEventReceiver {
     multicastEventReceiver.addEventReceiverListener(activityMap -> System.out.println(jsonMarshaller.marshallToJson(activityMap)));
   }
 
+  public boolean isAllowJavaSerialization() {
+    return packetReader.isAllowJavaSerialization();
+  }
+
+  public void setAllowJavaSerialization(boolean allowJavaSerialization) {
+    packetReader.setAllowJavaSerialization(allowJavaSerialization);
+  }
+
+  /**
+   * @return the reassembly of chunked activity, with counts of the messages that could not be completed.
+   */
+  public ChunkAssembler getChunkAssembler() {
+    return packetReader.getChunkAssembler();
+  }
+
+  /**
+   * @return the packets lost, duplicated and reordered by each sender.
+   */
+  public SequenceTracker getSequenceTracker() {
+    return packetReader.getSequenceTracker();
+  }
+
+  /**
+   * @return the group:port pairs listened to; more than one requires the NIO {@value #MULTICAST_RECEIVER_KEY}.
+   */
+  public List<String> getEndpoints() {
+    return endpoints;
+  }
+
+  public void setEndpoints(List<String> endpoints) {
+    this.endpoints = endpoints;
+  }
+
+  private static MulticastSocketReceiver createSocketReceiver() {
+    if (!NIO_RECEIVER.equalsIgnoreCase(MonitorSettings.getString(MULTICAST_RECEIVER_KEY, "")))
+      return new MulticastSocketReceiverImpl();
+    NioMulticastSocketReceiver receiver = new NioMulticastSocketReceiver();
+    receiver.setReceiveBufferSize(MonitorSettings.getInt(NioMulticastSocketReceiver.RECEIVE_BUFFER_SIZE_KEY, 0));
+    receiver.setNetworkInterface(MonitorSettings.getString(MulticastEventPropagator.MULTICAST_INTERFACE_KEY, null));
+    return receiver;
+  }
+
   public MulticastSocketReceiver getMulticastSocketReceiver() {
     return multicastSocketReceiver;
   }
@@ -9,5 +9,11 @@ public interface MulticastSocketReceiver {
   public void disconnect();
   
   public DatagramPacket receive(int packetSize) throws Exception;
+
+  /**
+   * Hand back a packet returned by {@link #receive(int)} once it has been processed, so that its buffer can be reused.
+   */
+  public default void release(DatagramPacket packet) {
+  }
   
 }
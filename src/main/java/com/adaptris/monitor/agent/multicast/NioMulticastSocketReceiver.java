@@ -0,0 +1,260 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MulticastSocketReceiver} built on non blocking {@link DatagramChannel}s and a single {@link Selector}.
+ * <p>
+ * Every call to {@link #connect(String, int, boolean, int)} adds a group; groups sharing a port share a channel, and all
+ * of them are read by the thread calling {@link #receive(int)}. Packets are received into buffers from a
+ * {@link DatagramBufferPool}, which go back to the pool on {@link #release(DatagramPacket)}. Each buffer has one spare
+ * byte, so a datagram that fills it must have been larger than the requested packet size and is counted as truncated.
+ * </p>
+ * <p>
+ * Only one thread should call {@link #receive(int)}; groups should be added before it starts.
+ * </p>
+ */
+public class NioMulticastSocketReceiver implements MulticastSocketReceiver {
+
+  public static final String RECEIVE_BUFFER_SIZE_KEY = "com.adaptris.monitor.agent.ReceiveBufferSize";
+
+  protected transient Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+  private volatile Selector selector;
+
+  private final Map<Integer, DatagramChannel> channels = new HashMap<>();
+
+  private final ArrayDeque<SelectionKey> readyKeys = new ArrayDeque<>();
+
+  private final DatagramBufferPool bufferPool;
+
+  private int receiveBufferSize;
+
+  private String networkInterface;
+
+  private int soTimeout;
+
+  private final LongAdder packets = new LongAdder();
+
+  private final LongAdder bytes = new LongAdder();
+
+  private final LongAdder truncations = new LongAdder();
+
+  public NioMulticastSocketReceiver() {
+    this(new DatagramBufferPool());
+  }
+
+  public NioMulticastSocketReceiver(DatagramBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  @Override
+  public synchronized void connect(String group, int port, boolean reuse, int soTimeout) throws Exception {
+    if (selector == null)
+      selector = Selector.open();
+    this.soTimeout = soTimeout;
+    InetAddress groupAddress = InetAddress.getByName(group);
+    DatagramChannel channel = channels.get(port);
+    if (channel == null) {
+      channel = DatagramChannel.open(groupAddress instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+      try {
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuse);
+        if (receiveBufferSize > 0)
+          channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+      } catch (IOException ex) {
+        channel.close();
+        throw ex;
+      }
+      channels.put(port, channel);
+    }
+    channel.join(groupAddress, multicastInterface());
+    log.debug("Receiving profiling events from {}:{}", group, port);
+  }
+
+  @Override
+  public void disconnect() {
+    Selector current = selector;
+    if (current != null)
+      current.wakeup();
+    closeChannels();
+  }
+
+  private synchronized void closeChannels() {
+    for (DatagramChannel channel : channels.values()) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.trace("Failed to close channel", ex);
+      }
+    }
+    channels.clear();
+    if (selector != null) {
+      try {
+        selector.close();
+      } catch (IOException ex) {
+        log.trace("Failed to close selector", ex);
+      }
+      selector = null;
+    }
+  }
+
+  /**
+   * Wait up to the timeout given on connect for a packet from any of the groups.
+   * 
+   * @throws SocketTimeoutException if nothing arrived in time.
+   */
+  @Override
+  public DatagramPacket receive(int packetSize) throws Exception {
+    byte[] buffer = bufferPool.acquire(packetSize + 1);
+    try {
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+      SocketAddress sender = receiveInto(byteBuffer);
+      int length = byteBuffer.position();
+      packets.increment();
+      bytes.add(length);
+      if (length > packetSize) {
+        truncations.increment();
+        length = packetSize;
+      }
+      DatagramPacket packet = new DatagramPacket(buffer, 0, length);
+      packet.setSocketAddress(sender);
+      return packet;
+    } catch (Exception ex) {
+      bufferPool.release(buffer);
+      throw ex;
+    }
+  }
+
+  private SocketAddress receiveInto(ByteBuffer buffer) throws IOException {
+    Selector selector = this.selector;
+    if (selector == null || !selector.isOpen()) {
+      readyKeys.clear();
+      throw new IOException("Not connected");
+    }
+    long deadline = soTimeout > 0 ? System.currentTimeMillis() + soTimeout : Long.MAX_VALUE;
+    while (true) {
+      while (!readyKeys.isEmpty()) {
+        SelectionKey key = readyKeys.peek();
+        SocketAddress sender = key.isValid() ? ((DatagramChannel) key.channel()).receive(buffer) : null;
+        if (sender != null)
+          return sender;
+        readyKeys.poll();
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0)
+        throw new SocketTimeoutException("Receive timed out");
+      try {
+        if (selector.select(remaining) > 0) {
+          Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+          while (selected.hasNext()) {
+            readyKeys.add(selected.next());
+            selected.remove();
+          }
+        }
+      } catch (ClosedSelectorException ex) {
+        readyKeys.clear();
+        throw new IOException("Disconnected");
+      }
+      if (this.selector != selector) {
+        readyKeys.clear();
+        throw new IOException("Disconnected");
+      }
+    }
+  }
+
+  @Override
+  public void release(DatagramPacket packet) {
+    bufferPool.release(packet.getData());
+  }
+
+  private NetworkInterface multicastInterface() throws IOException {
+    if (!StringUtils.isBlank(networkInterface)) {
+      NetworkInterface configured = NetworkInterface.getByName(networkInterface);
+      if (configured == null)
+        configured = NetworkInterface.getByInetAddress(InetAddress.getByName(networkInterface));
+      if (configured == null)
+        throw new IOException("No network interface " + networkInterface);
+      return configured;
+    }
+    // Unlike MulticastSocket, a channel has to be told which interface to join on; prefer a real one over loopback.
+    NetworkInterface loopback = null;
+    Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+    for (NetworkInterface candidate : interfaces == null ? Collections.<NetworkInterface> emptyList() : Collections.list(interfaces)) {
+      if (!candidate.isUp() || !candidate.supportsMulticast())
+        continue;
+      if (!candidate.isLoopback())
+        return candidate;
+      loopback = candidate;
+    }
+    if (loopback == null)
+      throw new IOException("No multicast capable network interface");
+    return loopback;
+  }
+
+  public int getReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  /**
+   * @param receiveBufferSize the SO_RCVBUF requested for channels opened after this call, 0 for the system default.
+   */
+  public void setReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  public String getNetworkInterface() {
+    return networkInterface;
+  }
+
+  public void setNetworkInterface(String networkInterface) {
+    this.networkInterface = networkInterface;
+  }
+
+  public DatagramBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public long getPacketCount() {
+    return packets.sum();
+  }
+
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  /**
+   * @return the number of datagrams larger than the requested packet size, of which only the start was kept.
+   */
+  public long getTruncationCount() {
+    return truncations.sum();
+  }
+
+}
@@ -0,0 +1,32 @@
+package com.adaptris.monitor.agent.multicast;
+
+/**
+ * What a {@link ListenerDispatcher} does with new activity when its listener has fallen a full queue behind.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Wait for the listener; the receiving thread stalls, so only suitable when every listener is fast.
+   */
+  BLOCK,
+
+  /**
+   * Discard the oldest activity still waiting.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Keep only the latest waiting activity per adapter, replacing older activity in place; when the queue holds more
+   * adapters than it has room for, the oldest is discarded.
+   */
+  COALESCE;
+
+  public static OverflowPolicy getPolicy(String policy) {
+    try {
+      return OverflowPolicy.valueOf(policy.toUpperCase().trim());
+    } catch (Exception ex) {
+      return OverflowPolicy.DROP_OLDEST;
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+package com.adaptris.monitor.agent.statsd;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Packs newline terminated lines into as few datagrams as possible without splitting a line across two.
+ * <p>
+ * Each line is built in a reusable line buffer and moved into the packet when complete; a packet is sent as soon as the
+ * next line would take it over the maximum size. A single line longer than the maximum is sent on its own. Not thread
+ * safe.
+ * </p>
+ */
+public class LinePacker {
+
+  public interface PacketSender {
+
+    public void send(byte[] data, int length) throws IOException;
+
+  }
+
+  private final int maxPacketSize;
+
+  private final PacketSender sender;
+
+  private final byte[] packet;
+
+  private int packetLength;
+
+  private byte[] line = new byte[256];
+
+  private int lineLength;
+
+  private final byte[] digits = new byte[20];
+
+  private long packetCount;
+
+  private long lineCount;
+
+  public LinePacker(int maxPacketSize, PacketSender sender) {
+    this.maxPacketSize = maxPacketSize;
+    this.sender = sender;
+    packet = new byte[maxPacketSize];
+  }
+
+  public LinePacker append(byte[] bytes) {
+    ensureLineCapacity(bytes.length);
+    System.arraycopy(bytes, 0, line, lineLength, bytes.length);
+    lineLength += bytes.length;
+    return this;
+  }
+
+  public LinePacker append(char c) {
+    ensureLineCapacity(1);
+    line[lineLength++] = (byte) c;
+    return this;
+  }
+
+  public LinePacker append(long value) {
+    if (value == Long.MIN_VALUE) {
+      for (char c : Long.toString(value).toCharArray())
+        append(c);
+      return this;
+    }
+    if (value < 0) {
+      append('-');
+      value = -value;
+    }
+    int position = digits.length;
+    do {
+      digits[--position] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    int length = digits.length - position;
+    ensureLineCapacity(length);
+    System.arraycopy(digits, position, line, lineLength, length);
+    lineLength += length;
+    return this;
+  }
+
+  /**
+   * Terminate the line and add it to the current packet, sending the packet first if the line does not fit.
+   *
+   * @throws UncheckedIOException if a datagram could not be sent.
+   */
+  public void endLine() {
+    append('\n');
+    lineCount++;
+    try {
+      if (packetLength + lineLength > maxPacketSize)
+        flush();
+      if (lineLength > maxPacketSize) {
+        send(line, lineLength);
+      } else {
+        System.arraycopy(line, 0, packet, packetLength, lineLength);
+        packetLength += lineLength;
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      lineLength = 0;
+    }
+  }
+
+  /**
+   * Send whatever is in the current packet.
+   */
+  public void flush() throws IOException {
+    if (packetLength > 0) {
+      int length = packetLength;
+      packetLength = 0;
+      send(packet, length);
+    }
+  }
+
+  /**
+   * Discard a partly built line and packet, after a failure.
+   */
+  public void clear() {
+    lineLength = 0;
+    packetLength = 0;
+  }
+
+  private void send(byte[] data, int length) throws IOException {
+    packetCount++;
+    sender.send(data, length);
+  }
+
+  private void ensureLineCapacity(int extra) {
+    if (lineLength + extra > line.length) {
+      byte[] grown = new byte[Math.max(line.length * 2, lineLength + extra)];
+      System.arraycopy(line, 0, grown, 0, lineLength);
+      line = grown;
+    }
+  }
+
+  public int getMaxPacketSize() {
+    return maxPacketSize;
+  }
+
+  public long getPacketCount() {
+    return packetCount;
+  }
+
+  public long getLineCount() {
+    return lineCount;
+  }
+
+}
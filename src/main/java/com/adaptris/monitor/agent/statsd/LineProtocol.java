@@ -0,0 +1,53 @@
+package com.adaptris.monitor.agent.statsd;
+
+/**
+ * The plain text protocols a {@link StatsdEventPropagator} can speak.
+ */
+public enum LineProtocol {
+
+  /**
+   * {@code name:value|c} for the interval message count, {@code name:value|g} for everything else; the statistics are
+   * already aggregated so they are gauges rather than timers.
+   */
+  STATSD(8125) {
+    @Override
+    void writeLine(LinePacker packer, byte[] name, byte[] stat, long value, boolean counter, long timestampSeconds) {
+      packer.append(name).append(stat).append(':').append(value).append(counter ? COUNTER : GAUGE).endLine();
+    }
+  },
+
+  /**
+   * Graphite plaintext, {@code name value timestamp}, sent to carbon's UDP listener.
+   */
+  GRAPHITE(2003) {
+    @Override
+    void writeLine(LinePacker packer, byte[] name, byte[] stat, long value, boolean counter, long timestampSeconds) {
+      packer.append(name).append(stat).append(' ').append(value).append(' ').append(timestampSeconds).endLine();
+    }
+  };
+
+  private static final byte[] COUNTER = { '|', 'c' };
+
+  private static final byte[] GAUGE = { '|', 'g' };
+
+  private final int defaultPort;
+
+  LineProtocol(int defaultPort) {
+    this.defaultPort = defaultPort;
+  }
+
+  abstract void writeLine(LinePacker packer, byte[] name, byte[] stat, long value, boolean counter, long timestampSeconds);
+
+  public int getDefaultPort() {
+    return defaultPort;
+  }
+
+  public static LineProtocol getProtocol(String protocol) {
+    try {
+      return LineProtocol.valueOf(protocol.toUpperCase().trim());
+    } catch (Exception ex) {
+      return LineProtocol.STATSD;
+    }
+  }
+
+}
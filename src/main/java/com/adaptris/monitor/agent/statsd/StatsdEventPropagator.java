@@ -0,0 +1,233 @@
+package com.adaptris.monitor.agent.statsd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.adaptris.monitor.agent.AbstractEventPropagator;
+import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.MonitorSettings;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+/**
+ * Sends each interval's statistics to StatsD or Graphite as plain text lines over UDP.
+ * <p>
+ * Every component that saw messages during the interval produces one line per statistic, named
+ * {@code prefix.adapter.channel.workflow.component.statistic} with anything other than letters, digits, '-' and '_' in the
+ * ids replaced by '_'. The lines are packed by a {@link LinePacker} into datagrams no larger than
+ * {@value #MAX_PACKET_SIZE_KEY}, 1432 bytes by default to fit a standard Ethernet MTU. Names are built once per topology and lines are
+ * written into reused buffers, so sending allocates nothing per line.
+ * </p>
+ */
+public class StatsdEventPropagator extends AbstractEventPropagator {
+
+  public static final String HOST_KEY = "com.adaptris.monitor.agent.StatsdHost";
+
+  public static final String PORT_KEY = "com.adaptris.monitor.agent.StatsdPort";
+
+  public static final String PREFIX_KEY = "com.adaptris.monitor.agent.StatsdPrefix";
+
+  public static final String MAX_PACKET_SIZE_KEY = "com.adaptris.monitor.agent.StatsdMaxPacketSize";
+
+  static final String DEFAULT_HOST = "localhost";
+
+  static final String DEFAULT_PREFIX = "interlok.profiler";
+
+  static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+  private static final byte[] MESSAGES = ascii("messages");
+
+  private static final byte[][] GAUGES = { ascii("avg_ms"), ascii("min_ms"), ascii("max_ms"), ascii("p50_ms"),
+      ascii("p95_ms"), ascii("p99_ms"), ascii("cumulative_messages"), ascii("cumulative_ms") };
+
+  private final LineProtocol protocol;
+
+  private String host;
+
+  private int port;
+
+  private String prefix;
+
+  private DatagramChannel channel;
+
+  private InetSocketAddress target;
+
+  private final LinePacker packer;
+
+  private final ByteBuffer datagram;
+
+  private ActivitySnapshot.Layout layout;
+
+  // Per component, the metric name up to and including the '.' before the statistic.
+  private byte[][] names;
+
+  public StatsdEventPropagator(EventMonitorReceiver eventMonitorReceiver, LineProtocol protocol) throws Exception {
+    super(eventMonitorReceiver);
+    this.protocol = protocol;
+    host = MonitorSettings.getString(HOST_KEY, DEFAULT_HOST);
+    port = MonitorSettings.getInt(PORT_KEY, protocol.getDefaultPort());
+    prefix = MonitorSettings.getString(PREFIX_KEY, DEFAULT_PREFIX);
+    int maxPacketSize = Math.max(64, MonitorSettings.getInt(MAX_PACKET_SIZE_KEY, DEFAULT_MAX_PACKET_SIZE));
+    packer = new LinePacker(maxPacketSize, this::sendDatagram);
+    datagram = ByteBuffer.allocateDirect(maxPacketSize);
+  }
+
+  @Override
+  public void propagateProcessEvent(ActivityMap activityMap) {
+    propagateSnapshot(ActivitySnapshot.capture(activityMap));
+  }
+
+  @Override
+  public void propagateSnapshot(ActivitySnapshot snapshot) {
+    log.debug("Propagating {} messages over {} components", snapshot.getTotalMessageCount(), snapshot.size());
+
+    sendLines(snapshot);
+  }
+
+  private synchronized void sendLines(ActivitySnapshot snapshot) {
+    try {
+      if (channel == null)
+        this.initialiseChannel();
+      prepareNames(snapshot.getLayout());
+
+      long timestamp = snapshot.getIntervalEndMillis() / 1000;
+      for (int ordinal = 0; ordinal < snapshot.size(); ordinal++) {
+        if (snapshot.getMessageCount(ordinal) == 0)
+          continue;
+        byte[] name = names[ordinal];
+        protocol.writeLine(packer, name, MESSAGES, snapshot.getMessageCount(ordinal), true, timestamp);
+        protocol.writeLine(packer, name, GAUGES[0], snapshot.getAvgTimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[1], snapshot.getMinTimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[2], snapshot.getMaxTimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[3], snapshot.getP50TimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[4], snapshot.getP95TimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[5], snapshot.getP99TimeTaken(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[6], snapshot.getCumulativeMessageCount(ordinal), false, timestamp);
+        protocol.writeLine(packer, name, GAUGES[7], snapshot.getCumulativeTimeTaken(ordinal), false, timestamp);
+      }
+      packer.flush();
+    } catch (Exception ex) {
+      log.error("Error sending {} profiling metrics.", protocol, ex);
+      packer.clear();
+      closeChannel();
+    }
+  }
+
+  private void sendDatagram(byte[] data, int length) throws IOException {
+    datagram.clear();
+    datagram.put(data, 0, length);
+    datagram.flip();
+    channel.send(datagram, target);
+  }
+
+  private void prepareNames(ActivitySnapshot.Layout snapshotLayout) {
+    if (snapshotLayout == layout)
+      return;
+    byte[][] metricNames = new byte[snapshotLayout.size()][];
+    StringBuilder builder = new StringBuilder();
+    for (int ordinal = 0; ordinal < metricNames.length; ordinal++) {
+      builder.setLength(0);
+      builder.append(prefix).append('.');
+      appendSegment(builder, snapshotLayout.adapterId(ordinal));
+      appendSegment(builder, snapshotLayout.channelId(ordinal));
+      appendSegment(builder, snapshotLayout.workflowId(ordinal));
+      appendSegment(builder, snapshotLayout.uniqueId(ordinal));
+      metricNames[ordinal] = builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+    names = metricNames;
+    layout = snapshotLayout;
+  }
+
+  private static void appendSegment(StringBuilder builder, String id) {
+    if (id == null)
+      return;
+    for (int index = 0; index < id.length(); index++) {
+      char c = id.charAt(index);
+      boolean plain = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+      builder.append(plain ? c : '_');
+    }
+    builder.append('.');
+  }
+
+  private void initialiseChannel() throws IOException {
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    if (address.isUnresolved())
+      throw new IOException("Cannot resolve " + host);
+    target = address;
+    channel = DatagramChannel.open();
+    log.debug("Sending {} profiling metrics to {}", protocol, target);
+  }
+
+  private synchronized void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.trace("Failed to close {} channel.", protocol, ex);
+      }
+      channel = null;
+    }
+  }
+
+  public LineProtocol getProtocol() {
+    return protocol;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public void setHost(String host) {
+    this.host = host;
+    closeChannel();
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public void setPort(int port) {
+    this.port = port;
+    closeChannel();
+  }
+
+  public String getPrefix() {
+    return prefix;
+  }
+
+  public synchronized void setPrefix(String prefix) {
+    this.prefix = prefix;
+    this.layout = null;
+  }
+
+  public int getMaxPacketSize() {
+    return packer.getMaxPacketSize();
+  }
+
+  /**
+   * @return the number of datagrams sent since the propagator was created.
+   */
+  public synchronized long getPacketCount() {
+    return packer.getPacketCount();
+  }
+
+  /**
+   * @return the number of lines sent since the propagator was created.
+   */
+  public synchronized long getLineCount() {
+    return packer.getLineCount();
+  }
+
+  @Override
+  protected void stop() {
+    closeChannel();
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+}
@@ -0,0 +1,22 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+
+public interface ActivityEncoder {
+
+  /**
+   * Encode the snapshot into the (reset) buffer.
+   */
+  public void encode(ActivitySnapshot snapshot, WireBuffer buffer) throws IOException;
+
+  /**
+   * @return the part of the last encoded payload that repeats from one interval to the next, to prime compression; null if
+   *         there is none.
+   */
+  public default WireBuffer getCompressionDictionary() {
+    return null;
+  }
+
+}
@@ -0,0 +1,92 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+
+/**
+ * Receiving side of the wire format, shared by the receivers: reassembles chunked payloads, inflates compressed ones and
+ * decodes them, rebuilding delta packets from the keyframes already received. Not thread safe, each receiving thread should
+ * own an instance.
+ */
+public class ActivityPacketReader {
+
+  private final ChunkAssembler chunkAssembler;
+
+  private volatile boolean allowJavaSerialization;
+
+  private final BinaryActivityDecoder binaryDecoder = new BinaryActivityDecoder();
+
+  private final DeflateDecompressor decompressor = new DeflateDecompressor();
+
+  private final SequenceTracker sequenceTracker;
+
+  public ActivityPacketReader(ChunkAssembler chunkAssembler, boolean allowJavaSerialization) {
+    this(chunkAssembler, new SequenceTracker(), allowJavaSerialization);
+  }
+
+  public ActivityPacketReader(ChunkAssembler chunkAssembler, SequenceTracker sequenceTracker, boolean allowJavaSerialization) {
+    this.chunkAssembler = chunkAssembler;
+    this.sequenceTracker = sequenceTracker;
+    this.allowJavaSerialization = allowJavaSerialization;
+  }
+
+  /**
+   * @return the activity carried by the packet, or null if it is one chunk of a message that is not yet complete or a
+   *         duplicate of one already read.
+   */
+  public ActivityMap read(DatagramPacket packet) throws IOException {
+    byte[] data = packet.getData();
+    int offset = packet.getOffset();
+    int length = packet.getLength();
+    if (DatagramChunker.isChunk(data, offset, length)) {
+      data = chunkAssembler.accept(ChunkAssembler.senderOf(packet), data, offset, length);
+      if (data == null)
+        return null;
+      offset = 0;
+      length = data.length;
+    }
+    if (PayloadCompression.isCompressed(data, offset, length)) {
+      WireBuffer inflated = decompressor.decompress(data, offset, length);
+      data = inflated.array();
+      offset = 0;
+      length = inflated.size();
+    }
+    if (BinaryActivityDecoder.isBinary(data, offset, length)) {
+      ActivityMap activityMap = binaryDecoder.decode(data, offset, length);
+      if (binaryDecoder.getTopologyLength() > 0)
+        decompressor.rememberDictionary(data, binaryDecoder.getTopologyOffset(), binaryDecoder.getTopologyLength());
+      if (!sequenceTracker.accept(binaryDecoder.getSenderId(), binaryDecoder.getSequence(),
+          binaryDecoder.getIntervalStartMillis(), binaryDecoder.getIntervalEndMillis()))
+        return null;
+      return activityMap;
+    }
+    return WireFormat.decode(data, offset, length, allowJavaSerialization);
+  }
+
+  public BinaryActivityDecoder getBinaryDecoder() {
+    return binaryDecoder;
+  }
+
+  public SequenceTracker getSequenceTracker() {
+    return sequenceTracker;
+  }
+
+  public DeflateDecompressor getDecompressor() {
+    return decompressor;
+  }
+
+  public ChunkAssembler getChunkAssembler() {
+    return chunkAssembler;
+  }
+
+  public boolean isAllowJavaSerialization() {
+    return allowJavaSerialization;
+  }
+
+  public void setAllowJavaSerialization(boolean allowJavaSerialization) {
+    this.allowJavaSerialization = allowJavaSerialization;
+  }
+
+}
@@ -0,0 +1,337 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.BaseFlowActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.LatencyHistogram;
+import com.adaptris.monitor.agent.activity.ProducerActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+/**
+ * Reads the {@link WireFormat#BINARY} format written by {@link BinaryActivityEncoder}.
+ * <p>
+ * Nothing read from the packet is trusted: every length is checked against the remaining data, dictionary references
+ * against the dictionary and nesting depth against {@link #MAX_SERVICE_DEPTH}, so a malformed or hostile packet fails
+ * with an {@link IOException}.
+ * </p>
+ * <p>
+ * The topology of every keyframe is remembered (the most recent {@value #MAX_KEYFRAMES}, keyed on checksum and length)
+ * so that delta packets, which only carry the statistics of active components, can be rebuilt into the full hierarchy. A
+ * delta whose keyframe has not been seen yet, after a receiver joins or a keyframe is lost, is counted and rejected. Not
+ * thread safe.
+ * </p>
+ */
+public class BinaryActivityDecoder {
+
+  static final int MAGIC_0 = 'I';
+
+  static final int MAGIC_1 = 'M';
+
+  public static final int VERSION = 1;
+
+  static final int FLAG_DELTA = 0x01;
+
+  static final int MAX_SERVICE_DEPTH = 64;
+
+  private static final int MAX_KEYFRAMES = 32;
+
+  private long senderId;
+
+  private long sequence;
+
+  private long intervalStartMillis;
+
+  private long intervalEndMillis;
+
+  private int topologyOffset;
+
+  private int topologyLength;
+
+  private final Map<Long, Keyframe> keyframes = new LinkedHashMap<Long, Keyframe>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Keyframe> eldest) {
+      return size() > MAX_KEYFRAMES;
+    }
+  };
+
+  private final LongAdder missingKeyframes = new LongAdder();
+
+  private final LongAdder deltas = new LongAdder();
+
+  public static boolean isBinary(byte[] data, int offset, int length) {
+    return length >= 3 && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+  }
+
+  public ActivityMap decode(byte[] data, int offset, int length) throws IOException {
+    WireReader reader = new WireReader(data, offset, length);
+    if (reader.readByte() != MAGIC_0 || reader.readByte() != MAGIC_1)
+      throw new IOException("Not a binary activity packet");
+    int version = reader.readByte();
+    if (version != VERSION)
+      throw new IOException("Unsupported binary activity version " + version);
+    int flags = reader.readByte();
+    senderId = reader.readVarLong();
+    sequence = reader.readVarLong();
+    intervalStartMillis = reader.readVarLong();
+    intervalEndMillis = reader.readVarLong();
+
+    String[] dictionary;
+    ActivityMap activityMap;
+    if ((flags & FLAG_DELTA) != 0) {
+      long checksum = reader.readVarLong();
+      int keyframeLength = reader.readVarInt();
+      Keyframe keyframe = keyframes.get(key(checksum, keyframeLength));
+      if (keyframe == null) {
+        missingKeyframes.increment();
+        throw new IOException("Delta activity received before its keyframe");
+      }
+      deltas.increment();
+      dictionary = keyframe.dictionary;
+      activityMap = keyframe.structure.copyStructure();
+      topologyOffset = reader.position();
+      topologyLength = 0;
+    } else {
+      int topologyStart = reader.position();
+      dictionary = new String[checkedCount(reader)];
+      for (int index = 0; index < dictionary.length; index++)
+        dictionary[index] = reader.readString();
+
+      activityMap = new ActivityMap();
+      int adapters = checkedCount(reader);
+      for (int index = 0; index < adapters; index++) {
+        AdapterActivity adapter = readAdapter(reader, dictionary);
+        activityMap.getAdapters().put(adapter.getUniqueId(), adapter);
+      }
+      topologyOffset = topologyStart;
+      topologyLength = reader.position() - topologyStart;
+      rememberKeyframe(data, dictionary, activityMap);
+    }
+
+    Map<String, BaseFlowActivity> index = activityMap.getFlowActivityIndex();
+    int active = checkedCount(reader);
+    for (int entry = 0; entry < active; entry++)
+      readStatistics(reader, dictionary, index);
+    int lifetime = checkedCount(reader);
+    for (int entry = 0; entry < lifetime; entry++)
+      readCumulative(reader, dictionary, index);
+    return activityMap;
+  }
+
+  public long getSenderId() {
+    return senderId;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the start of the interval covered by the last decoded packet, as measured by the sender.
+   */
+  public long getIntervalStartMillis() {
+    return intervalStartMillis;
+  }
+
+  public long getIntervalEndMillis() {
+    return intervalEndMillis;
+  }
+
+  /**
+   * @return where the dictionary and hierarchy of the last decoded packet start, see
+   *         {@link BinaryActivityEncoder#getCompressionDictionary()}.
+   */
+  public int getTopologyOffset() {
+    return topologyOffset;
+  }
+
+  /**
+   * @return the length of the topology in the last decoded packet, 0 for a delta.
+   */
+  public int getTopologyLength() {
+    return topologyLength;
+  }
+
+  public long getDeltaCount() {
+    return deltas.sum();
+  }
+
+  /**
+   * @return the number of deltas rejected because the keyframe they refer to had not been received.
+   */
+  public long getMissingKeyframeCount() {
+    return missingKeyframes.sum();
+  }
+
+  private void rememberKeyframe(byte[] data, String[] dictionary, ActivityMap activityMap) {
+    Long key = key(checksum(data, topologyOffset, topologyLength), topologyLength);
+    if (!keyframes.containsKey(key))
+      keyframes.put(key, new Keyframe(dictionary, activityMap.copyStructure()));
+  }
+
+  /**
+   * @return the checksum that delta packets use to refer to the topology of their keyframe.
+   */
+  static long checksum(byte[] data, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(data, offset, length);
+    return crc.getValue();
+  }
+
+  private static Long key(long checksum, int length) {
+    return (checksum << 32) | (length & 0xFFFFFFFFL);
+  }
+
+  private AdapterActivity readAdapter(WireReader reader, String[] dictionary) throws IOException {
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(string(reader, dictionary));
+    int channels = checkedCount(reader);
+    for (int channelIndex = 0; channelIndex < channels; channelIndex++) {
+      ChannelActivity channel = new ChannelActivity();
+      channel.setUniqueId(string(reader, dictionary));
+      int workflows = checkedCount(reader);
+      for (int workflowIndex = 0; workflowIndex < workflows; workflowIndex++)
+        channel.addWorkflow(readWorkflow(reader, dictionary));
+      adapter.addChannelActivity(channel);
+    }
+    return adapter;
+  }
+
+  private WorkflowActivity readWorkflow(WireReader reader, String[] dictionary) throws IOException {
+    WorkflowActivity workflow = new WorkflowActivity();
+    workflow.setUniqueId(string(reader, dictionary));
+    workflow.setConsumerActivity(readComponent(reader, dictionary, new ConsumerActivity()));
+    readServices(reader, dictionary, workflow.getServices(), 0);
+    workflow.setProducerActivity(readComponent(reader, dictionary, new ProducerActivity()));
+    return workflow;
+  }
+
+  private void readServices(WireReader reader, String[] dictionary, Map<String, ServiceActivity> services, int depth)
+      throws IOException {
+    if (depth > MAX_SERVICE_DEPTH)
+      throw new IOException("Services nested deeper than " + MAX_SERVICE_DEPTH);
+    int count = checkedCount(reader);
+    for (int index = 0; index < count; index++) {
+      ServiceActivity service = readComponent(reader, dictionary, new ServiceActivity());
+      if (service == null)
+        throw new IOException("Missing service");
+      readServices(reader, dictionary, service.getServices(), depth + 1);
+      services.put(service.getUniqueId(), service);
+    }
+  }
+
+  private <T extends BaseFlowActivity> T readComponent(WireReader reader, String[] dictionary, T component)
+      throws IOException {
+    if (reader.readByte() == 0)
+      return null;
+    component.setUniqueId(string(reader, dictionary));
+    component.setClassName(string(reader, dictionary));
+    return component;
+  }
+
+  private void readStatistics(WireReader reader, String[] dictionary, Map<String, BaseFlowActivity> index)
+      throws IOException {
+    BaseFlowActivity activity = index.get(string(reader, dictionary));
+    long count = reader.readVarLong();
+    long total = reader.readSignedVarLong();
+    long min = reader.readSignedVarLong();
+    long max = reader.readSignedVarLong();
+    long avg = reader.readSignedVarLong();
+    long p50 = reader.readSignedVarLong();
+    long p95 = reader.readSignedVarLong();
+    long p99 = reader.readSignedVarLong();
+    long p999 = reader.readSignedVarLong();
+    double stdDev = reader.readDouble();
+    double sumOfSquares = reader.readDouble();
+    int buckets = checkedBucketCount(reader);
+
+    if (activity != null) {
+      activity.resetActivity();
+      activity.setMessageCount((int) Math.min(count, Integer.MAX_VALUE));
+      activity.setMinMsTaken(min);
+      activity.setMaxMsTaken(max);
+      activity.setAvgMsTaken(avg);
+      activity.setStdDevMsTaken(stdDev);
+      activity.setP50MsTaken(p50);
+      activity.setP95MsTaken(p95);
+      activity.setP99MsTaken(p99);
+      activity.setP999MsTaken(p999);
+      activity.restoreAccumulators(total, sumOfSquares);
+    }
+    int bucketIndex = 0;
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      bucketIndex += reader.readVarInt();
+      long bucketCount = reader.readVarLong();
+      if (bucketIndex >= LatencyHistogram.BUCKET_COUNT)
+        throw new IOException("Histogram bucket out of range " + bucketIndex);
+      if (activity != null)
+        activity.getHistogram().addToBucket(bucketIndex, bucketCount);
+    }
+  }
+
+  private void readCumulative(WireReader reader, String[] dictionary, Map<String, BaseFlowActivity> index)
+      throws IOException {
+    BaseFlowActivity activity = index.get(string(reader, dictionary));
+    long count = reader.readVarLong();
+    long total = reader.readSignedVarLong();
+    if (activity != null)
+      activity.restoreCumulative(count, total);
+    if (reader.readByte() == 0)
+      return;
+    int buckets = checkedBucketCount(reader);
+    int bucketIndex = 0;
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      bucketIndex += reader.readVarInt();
+      long bucketCount = reader.readVarLong();
+      if (bucketIndex >= LatencyHistogram.BUCKET_COUNT)
+        throw new IOException("Histogram bucket out of range " + bucketIndex);
+      if (activity != null)
+        activity.restoreCumulativeBucket(bucketIndex, bucketCount);
+    }
+  }
+
+  private static int checkedBucketCount(WireReader reader) throws IOException {
+    int buckets = checkedCount(reader);
+    if (buckets > LatencyHistogram.BUCKET_COUNT)
+      throw new IOException("Too many histogram buckets " + buckets);
+    return buckets;
+  }
+
+  private static String string(WireReader reader, String[] dictionary) throws IOException {
+    int reference = reader.readVarInt();
+    if (reference > dictionary.length)
+      throw new IOException("Dictionary reference out of range " + reference);
+    return reference == 0 ? null : dictionary[reference - 1];
+  }
+
+  private static final class Keyframe {
+
+    private final String[] dictionary;
+
+    private final ActivityMap structure;
+
+    Keyframe(String[] dictionary, ActivityMap structure) {
+      this.dictionary = dictionary;
+      this.structure = structure;
+    }
+  }
+
+  // Every entry takes at least one byte, which bounds any count before we allocate for it.
+  private static int checkedCount(WireReader reader) throws IOException {
+    int count = reader.readVarInt();
+    if (count > reader.remaining())
+      throw new IOException("Count " + count + " exceeds remaining data");
+    return count;
+  }
+
+}
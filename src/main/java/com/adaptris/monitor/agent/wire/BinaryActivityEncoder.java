@@ -0,0 +1,265 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.BaseActivity;
+import com.adaptris.monitor.agent.activity.BaseFlowActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+/**
+ * Writes the {@link WireFormat#BINARY} format.
+ * <p>
+ * Every string (component ids and class names) is written once in a dictionary and referenced by position afterwards;
+ * the dictionary and the component hierarchy only change when the adapter does, so they are encoded once per
+ * {@link ActivitySnapshot.Layout} and copied into every subsequent packet. Only components that saw messages during the
+ * interval carry statistics. The lifetime message count and total time of every component that has ever been active
+ * follow; its lifetime histogram only when it changed during the interval, or in a keyframe.
+ * </p>
+ * <p>
+ * With a delta keyframe interval of N (greater than 1), only every Nth packet, and the first after the layout changes,
+ * carries the topology. The packets in between are deltas that reference the last keyframe's topology by checksum and hold
+ * nothing but the statistics of the components that were active; receivers rebuild the full hierarchy from the keyframe,
+ * see {@link BinaryActivityDecoder}.
+ * </p>
+ * <p>
+ * Every packet is stamped with a random id for this encoder and a sequence number that increases by one per packet, so
+ * that receivers can tell senders apart and account for lost packets, see {@link SequenceTracker}. Not thread safe, each
+ * sender should own an instance.
+ * </p>
+ */
+public class BinaryActivityEncoder implements ActivityEncoder {
+
+  public static final String DELTA_KEYFRAME_INTERVAL_KEY = "com.adaptris.monitor.agent.DeltaKeyframeInterval";
+
+  private final int deltaKeyframeInterval;
+
+  private final long senderId = UUID.randomUUID().getMostSignificantBits();
+
+  private long sequence;
+
+  private int packetsSinceKeyframe;
+
+  private ActivitySnapshot.Layout encodedLayout;
+
+  private final WireBuffer topology = new WireBuffer();
+
+  private long topologyChecksum;
+
+  private final Map<String, Integer> dictionary = new HashMap<>();
+
+  private int[] references = new int[0];
+
+  public BinaryActivityEncoder() {
+    this(0);
+  }
+
+  /**
+   * @param deltaKeyframeInterval send the topology in every Nth packet only; 0 or 1 to send it in every packet.
+   */
+  public BinaryActivityEncoder(int deltaKeyframeInterval) {
+    this.deltaKeyframeInterval = deltaKeyframeInterval;
+  }
+
+  @Override
+  public void encode(ActivitySnapshot snapshot, WireBuffer buffer) {
+    boolean delta = deltaKeyframeInterval > 1 && snapshot.getLayout() == encodedLayout
+        && ++packetsSinceKeyframe < deltaKeyframeInterval;
+    if (!delta) {
+      if (snapshot.getLayout() != encodedLayout)
+        encodeTopology(snapshot.getLayout());
+      packetsSinceKeyframe = 0;
+    }
+
+    buffer.write(BinaryActivityDecoder.MAGIC_0);
+    buffer.write(BinaryActivityDecoder.MAGIC_1);
+    buffer.write(BinaryActivityDecoder.VERSION);
+    buffer.write(delta ? BinaryActivityDecoder.FLAG_DELTA : 0);
+    buffer.writeVarLong(senderId);
+    buffer.writeVarLong(sequence++);
+    buffer.writeVarLong(snapshot.getIntervalStartMillis());
+    buffer.writeVarLong(snapshot.getIntervalEndMillis());
+    if (delta) {
+      buffer.writeVarLong(topologyChecksum);
+      buffer.writeVarInt(topology.size());
+    } else {
+      buffer.write(topology.array(), 0, topology.size());
+    }
+
+    int active = 0;
+    for (int ordinal = 0; ordinal < snapshot.size(); ordinal++)
+      if (snapshot.getMessageCount(ordinal) > 0)
+        active++;
+    buffer.writeVarInt(active);
+    for (int ordinal = 0; ordinal < snapshot.size(); ordinal++) {
+      if (snapshot.getMessageCount(ordinal) > 0)
+        writeStatistics(snapshot, ordinal, buffer);
+    }
+
+    int lifetime = 0;
+    for (int ordinal = 0; ordinal < snapshot.size(); ordinal++)
+      if (snapshot.getCumulativeMessageCount(ordinal) > 0)
+        lifetime++;
+    buffer.writeVarInt(lifetime);
+    for (int ordinal = 0; ordinal < snapshot.size(); ordinal++) {
+      if (snapshot.getCumulativeMessageCount(ordinal) > 0)
+        writeCumulative(snapshot, ordinal, !delta || snapshot.getMessageCount(ordinal) > 0, buffer);
+    }
+  }
+
+  /**
+   * @return the encoded dictionary and hierarchy of the last snapshot, which every packet for the same layout repeats.
+   */
+  @Override
+  public WireBuffer getCompressionDictionary() {
+    return topology;
+  }
+
+  public long getSenderId() {
+    return senderId;
+  }
+
+  /**
+   * @return the sequence number the next packet will carry.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  public int getDeltaKeyframeInterval() {
+    return deltaKeyframeInterval;
+  }
+
+  private void writeStatistics(ActivitySnapshot snapshot, int ordinal, WireBuffer buffer) {
+    buffer.writeVarInt(references[ordinal]);
+    buffer.writeVarLong(snapshot.getMessageCount(ordinal));
+    buffer.writeSignedVarLong(snapshot.getTotalTimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getMinTimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getMaxTimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getAvgTimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getP50TimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getP95TimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getP99TimeTaken(ordinal));
+    buffer.writeSignedVarLong(snapshot.getP999TimeTaken(ordinal));
+    buffer.writeDouble(snapshot.getStdDevTimeTaken(ordinal));
+    buffer.writeDouble(snapshot.getSumOfSquares(ordinal));
+
+    int start = snapshot.getHistogramBucketStart(ordinal);
+    int end = snapshot.getHistogramBucketEnd(ordinal);
+    buffer.writeVarInt(end - start);
+    int previous = 0;
+    for (int bucket = start; bucket < end; bucket++) {
+      int index = snapshot.getHistogramBucketIndex(bucket);
+      buffer.writeVarInt(index - previous);
+      buffer.writeVarLong(snapshot.getHistogramBucketCount(bucket));
+      previous = index;
+    }
+  }
+
+  private void writeCumulative(ActivitySnapshot snapshot, int ordinal, boolean withHistogram, WireBuffer buffer) {
+    buffer.writeVarInt(references[ordinal]);
+    buffer.writeVarLong(snapshot.getCumulativeMessageCount(ordinal));
+    buffer.writeSignedVarLong(snapshot.getCumulativeTimeTaken(ordinal));
+    if (!withHistogram) {
+      buffer.write(0);
+      return;
+    }
+    buffer.write(1);
+    int start = snapshot.getCumulativeHistogramBucketStart(ordinal);
+    int end = snapshot.getCumulativeHistogramBucketEnd(ordinal);
+    buffer.writeVarInt(end - start);
+    int previous = 0;
+    for (int bucket = start; bucket < end; bucket++) {
+      int index = snapshot.getCumulativeHistogramBucketIndex(bucket);
+      buffer.writeVarInt(index - previous);
+      buffer.writeVarLong(snapshot.getCumulativeHistogramBucketCount(bucket));
+      previous = index;
+    }
+  }
+
+  private void encodeTopology(ActivitySnapshot.Layout layout) {
+    dictionary.clear();
+    WireBuffer tree = new WireBuffer();
+    ActivityMap activityMap = layout.getTopology();
+    int adapterCount = 0;
+    for (BaseActivity adapter : activityMap.getAdapters().values())
+      if (adapter instanceof AdapterActivity)
+        adapterCount++;
+    tree.writeVarInt(adapterCount);
+    for (BaseActivity adapter : activityMap.getAdapters().values()) {
+      if (adapter instanceof AdapterActivity)
+        writeAdapter((AdapterActivity) adapter, tree);
+    }
+
+    String[] strings = new String[dictionary.size()];
+    for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+      strings[entry.getValue()] = entry.getKey();
+    topology.reset();
+    topology.writeVarInt(strings.length);
+    for (String value : strings)
+      topology.writeString(value);
+    topology.write(tree.array(), 0, tree.size());
+    topologyChecksum = BinaryActivityDecoder.checksum(topology.array(), 0, topology.size());
+
+    references = new int[layout.size()];
+    for (int ordinal = 0; ordinal < layout.size(); ordinal++)
+      references[ordinal] = reference(layout.uniqueId(ordinal));
+    encodedLayout = layout;
+  }
+
+  private void writeAdapter(AdapterActivity adapter, WireBuffer tree) {
+    tree.writeVarInt(reference(adapter.getUniqueId()));
+    tree.writeVarInt(adapter.getChannels().size());
+    for (ChannelActivity channel : adapter.getChannels().values()) {
+      tree.writeVarInt(reference(channel.getUniqueId()));
+      tree.writeVarInt(channel.getWorkflows().size());
+      for (WorkflowActivity workflow : channel.getWorkflows().values())
+        writeWorkflow(workflow, tree);
+    }
+  }
+
+  private void writeWorkflow(WorkflowActivity workflow, WireBuffer tree) {
+    tree.writeVarInt(reference(workflow.getUniqueId()));
+    writeComponent(workflow.getConsumerActivity(), tree);
+    writeServices(workflow.getServices(), tree);
+    writeComponent(workflow.getProducerActivity(), tree);
+  }
+
+  private void writeServices(Map<String, ServiceActivity> services, WireBuffer tree) {
+    tree.writeVarInt(services.size());
+    for (ServiceActivity service : services.values()) {
+      writeComponent(service, tree);
+      writeServices(service.getServices(), tree);
+    }
+  }
+
+  // Consumers and producers are optional, so flow components are preceded by a presence flag.
+  private void writeComponent(BaseFlowActivity component, WireBuffer tree) {
+    if (component == null) {
+      tree.write(0);
+      return;
+    }
+    tree.write(1);
+    tree.writeVarInt(reference(component.getUniqueId()));
+    tree.writeVarInt(reference(component.getClassName()));
+  }
+
+  // 0 is reserved for null, dictionary entries are referenced from 1.
+  private int reference(String value) {
+    if (value == null)
+      return 0;
+    Integer index = dictionary.get(value);
+    if (index == null) {
+      index = dictionary.size();
+      dictionary.put(value, index);
+    }
+    return index + 1;
+  }
+
+}
@@ -0,0 +1,278 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reassembles the chunks written by {@link DatagramChunker}.
+ * <p>
+ * Partial messages are held until every chunk has arrived, for at most the reassembly timeout, and the bytes held for
+ * partial messages never exceed the memory cap; when a new chunk would exceed it the oldest partial messages are
+ * discarded first. The slots reserved for a message's chunks are charged against the cap as soon as its first chunk
+ * arrives, and a chunk count that could never fit is rejected before anything is allocated. Expired and evicted
+ * messages are counted rather than logged, since a lossy network would otherwise flood the log.
+ * </p>
+ */
+public class ChunkAssembler {
+
+  public static final String REASSEMBLY_TIMEOUT_KEY = "com.adaptris.monitor.agent.ReassemblyTimeoutMs";
+
+  public static final String REASSEMBLY_MAX_BYTES_KEY = "com.adaptris.monitor.agent.ReassemblyMaxBytes";
+
+  public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  // Charged per chunk slot, generous enough for an uncompressed reference.
+  static final int SLOT_BYTES = 8;
+
+  // Every chunk carries at least one byte of payload.
+  private static final int MIN_CHUNK_BYTES = SLOT_BYTES + 1;
+
+  private final long timeoutMs;
+
+  private final long maxBytes;
+
+  // Insertion ordered, so the eldest entry is always the first to expire.
+  private final Map<Key, Reassembly> pending = new LinkedHashMap<>();
+
+  private long pendingBytes;
+
+  private final LongAdder completed = new LongAdder();
+
+  private final LongAdder expired = new LongAdder();
+
+  private final LongAdder evicted = new LongAdder();
+
+  private final LongAdder duplicates = new LongAdder();
+
+  private final LongAdder malformed = new LongAdder();
+
+  public ChunkAssembler() {
+    this(DEFAULT_TIMEOUT_MS, DEFAULT_MAX_BYTES);
+  }
+
+  public ChunkAssembler(long timeoutMs, long maxBytes) {
+    this.timeoutMs = timeoutMs;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return the address to pass to {@link #accept(SocketAddress, byte[], int, int)}, null if the packet has none.
+   */
+  public static SocketAddress senderOf(DatagramPacket packet) {
+    return packet.getAddress() == null ? null : new InetSocketAddress(packet.getAddress(), packet.getPort());
+  }
+
+  /**
+   * Add a chunk.
+   * 
+   * @return the complete payload once the last chunk of a message arrives, otherwise null.
+   * @throws IOException if the chunk header is invalid.
+   */
+  public synchronized byte[] accept(SocketAddress sender, byte[] data, int offset, int length) throws IOException {
+    return accept(sender, data, offset, length, System.currentTimeMillis());
+  }
+
+  synchronized byte[] accept(SocketAddress sender, byte[] data, int offset, int length, long now) throws IOException {
+    expire(now);
+    if (!DatagramChunker.isChunk(data, offset, length) || (data[offset + 2] & 0xFF) != DatagramChunker.VERSION) {
+      malformed.increment();
+      throw new IOException("Invalid chunk header");
+    }
+    int messageId = readInt(data, offset + 4);
+    int index = readShort(data, offset + 8);
+    int count = readShort(data, offset + 10);
+    if (count == 0 || index >= count) {
+      malformed.increment();
+      throw new IOException("Invalid chunk " + index + " of " + count);
+    }
+
+    if ((long) count * MIN_CHUNK_BYTES > maxBytes) {
+      malformed.increment();
+      throw new IOException("Chunk count " + count + " cannot fit within " + maxBytes + " bytes");
+    }
+
+    int payloadLength = length - DatagramChunker.HEADER_SIZE;
+    Key key = new Key(sender, messageId);
+    Reassembly reassembly = pending.get(key);
+    if (reassembly == null) {
+      long slotBytes = (long) count * SLOT_BYTES;
+      makeRoom(slotBytes, key);
+      if (pendingBytes + slotBytes > maxBytes) {
+        evicted.increment();
+        return null;
+      }
+      reassembly = new Reassembly(count, now);
+      pending.put(key, reassembly);
+      pendingBytes += slotBytes;
+    } else if (reassembly.chunks.length != count) {
+      malformed.increment();
+      throw new IOException("Chunk count changed from " + reassembly.chunks.length + " to " + count);
+    }
+    if (reassembly.chunks[index] != null) {
+      duplicates.increment();
+      return null;
+    }
+
+    makeRoom(payloadLength, key);
+    if (pendingBytes + payloadLength > maxBytes) {
+      remove(key);
+      evicted.increment();
+      return null;
+    }
+    byte[] payload = new byte[payloadLength];
+    System.arraycopy(data, offset + DatagramChunker.HEADER_SIZE, payload, 0, payloadLength);
+    reassembly.chunks[index] = payload;
+    reassembly.received++;
+    reassembly.bytes += payloadLength;
+    pendingBytes += payloadLength;
+    if (reassembly.received < count)
+      return null;
+
+    remove(key);
+    completed.increment();
+    byte[] result = new byte[reassembly.bytes];
+    int position = 0;
+    for (byte[] chunk : reassembly.chunks) {
+      System.arraycopy(chunk, 0, result, position, chunk.length);
+      position += chunk.length;
+    }
+    return result;
+  }
+
+  private void expire(long now) {
+    Iterator<Reassembly> iterator = pending.values().iterator();
+    while (iterator.hasNext()) {
+      Reassembly reassembly = iterator.next();
+      if (now - reassembly.firstSeen < timeoutMs)
+        break;
+      iterator.remove();
+      pendingBytes -= reassembly.held();
+      expired.increment();
+    }
+  }
+
+  private void makeRoom(long length, Key current) {
+    Iterator<Map.Entry<Key, Reassembly>> iterator = pending.entrySet().iterator();
+    while (pendingBytes + length > maxBytes && iterator.hasNext()) {
+      Map.Entry<Key, Reassembly> entry = iterator.next();
+      if (entry.getKey().equals(current))
+        continue;
+      iterator.remove();
+      pendingBytes -= entry.getValue().held();
+      evicted.increment();
+    }
+  }
+
+  private void remove(Key key) {
+    Reassembly reassembly = pending.remove(key);
+    if (reassembly != null)
+      pendingBytes -= reassembly.held();
+  }
+
+  private static int readInt(byte[] data, int position) {
+    return ((data[position] & 0xFF) << 24) | ((data[position + 1] & 0xFF) << 16) | ((data[position + 2] & 0xFF) << 8)
+        | (data[position + 3] & 0xFF);
+  }
+
+  private static int readShort(byte[] data, int position) {
+    return ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+  }
+
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  public synchronized long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  public long getCompletedCount() {
+    return completed.sum();
+  }
+
+  /**
+   * @return the number of partial messages discarded because their remaining chunks did not arrive in time.
+   */
+  public long getExpiredCount() {
+    return expired.sum();
+  }
+
+  /**
+   * @return the number of partial messages discarded to keep within the memory cap.
+   */
+  public long getEvictedCount() {
+    return evicted.sum();
+  }
+
+  public long getDuplicateCount() {
+    return duplicates.sum();
+  }
+
+  public long getMalformedCount() {
+    return malformed.sum();
+  }
+
+  public long getTimeoutMs() {
+    return timeoutMs;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  private static final class Key {
+
+    private final SocketAddress sender;
+
+    private final int messageId;
+
+    Key(SocketAddress sender, int messageId) {
+      this.sender = sender;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return messageId == other.messageId && Objects.equals(sender, other.sender);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Objects.hashCode(sender) + messageId;
+    }
+  }
+
+  private static final class Reassembly {
+
+    private final byte[][] chunks;
+
+    private final long firstSeen;
+
+    private int received;
+
+    private int bytes;
+
+    Reassembly(int count, long firstSeen) {
+      this.chunks = new byte[count][];
+      this.firstSeen = firstSeen;
+    }
+
+    // The bytes charged against the cap, slots included.
+    long held() {
+      return bytes + (long) chunks.length * SLOT_BYTES;
+    }
+  }
+
+}
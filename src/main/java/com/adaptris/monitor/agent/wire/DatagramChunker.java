@@ -0,0 +1,107 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits an encoded payload that does not fit in a single datagram into numbered chunks, reassembled on the receiving
+ * side by {@link ChunkAssembler}.
+ * <p>
+ * Every chunk carries a {@value #HEADER_SIZE} byte header: the magic bytes {@code 'I' 'C'}, a version, a flags byte, the
+ * message id (4 bytes), then the chunk index and the chunk count (2 bytes each). Payloads that already fit are sent
+ * untouched. The default datagram size keeps each chunk below a typical 1500 byte path MTU once the IP and UDP headers
+ * (and any tunnelling overhead) are added, so the network never has to fragment.
+ * </p>
+ */
+public class DatagramChunker {
+
+  public static final String MAX_DATAGRAM_SIZE_KEY = "com.adaptris.monitor.agent.MaxDatagramSize";
+
+  public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1400;
+
+  static final int MAGIC_0 = 'I';
+
+  static final int MAGIC_1 = 'C';
+
+  static final int VERSION = 1;
+
+  public static final int HEADER_SIZE = 12;
+
+  static final int MAX_CHUNKS = 0xFFFF;
+
+  public interface DatagramSender {
+
+    public void send(byte[] data, int length) throws IOException;
+
+  }
+
+  private final int maxDatagramSize;
+
+  private final byte[] chunk;
+
+  // Random start so that a restarted sender does not reuse the ids of the chunks still held by the receivers.
+  private int nextMessageId = ThreadLocalRandom.current().nextInt();
+
+  public DatagramChunker() {
+    this(DEFAULT_MAX_DATAGRAM_SIZE);
+  }
+
+  public DatagramChunker(int maxDatagramSize) {
+    if (maxDatagramSize <= HEADER_SIZE)
+      throw new IllegalArgumentException("Datagram size must be greater than " + HEADER_SIZE);
+    this.maxDatagramSize = maxDatagramSize;
+    this.chunk = new byte[maxDatagramSize];
+  }
+
+  /**
+   * Send the payload as one datagram, or as chunks of at most {@link #getMaxDatagramSize()} bytes; not thread safe.
+   * 
+   * @return the number of datagrams sent.
+   */
+  public int send(byte[] data, int length, DatagramSender sender) throws IOException {
+    if (length <= maxDatagramSize) {
+      sender.send(data, length);
+      return 1;
+    }
+    int payloadSize = maxDatagramSize - HEADER_SIZE;
+    int count = (length + payloadSize - 1) / payloadSize;
+    if (count > MAX_CHUNKS)
+      throw new IOException("Payload of " + length + " bytes needs more than " + MAX_CHUNKS + " chunks");
+    int messageId = nextMessageId++;
+    chunk[0] = (byte) MAGIC_0;
+    chunk[1] = (byte) MAGIC_1;
+    chunk[2] = (byte) VERSION;
+    chunk[3] = 0;
+    writeInt(messageId, 4);
+    writeShort(count, 10);
+    for (int index = 0; index < count; index++) {
+      int offset = index * payloadSize;
+      int chunkLength = Math.min(payloadSize, length - offset);
+      writeShort(index, 8);
+      System.arraycopy(data, offset, chunk, HEADER_SIZE, chunkLength);
+      sender.send(chunk, HEADER_SIZE + chunkLength);
+    }
+    return count;
+  }
+
+  public static boolean isChunk(byte[] data, int offset, int length) {
+    return length > HEADER_SIZE && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+  }
+
+  public int getMaxDatagramSize() {
+    return maxDatagramSize;
+  }
+
+  private void writeInt(int value, int position) {
+    chunk[position] = (byte) (value >>> 24);
+    chunk[position + 1] = (byte) (value >>> 16);
+    chunk[position + 2] = (byte) (value >>> 8);
+    chunk[position + 3] = (byte) value;
+  }
+
+  private void writeShort(int value, int position) {
+    chunk[position] = (byte) (value >>> 8);
+    chunk[position + 1] = (byte) value;
+  }
+
+}
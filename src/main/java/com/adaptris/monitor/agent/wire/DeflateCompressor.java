@@ -0,0 +1,83 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses encoded payloads for {@link PayloadCompression#DEFLATE}.
+ * <p>
+ * Most of every binary packet is the component dictionary and hierarchy, identical from one interval to the next. Using
+ * those bytes as the deflate preset dictionary reduces them to a single back reference. A receiver can only inflate such a
+ * packet once it has seen that topology, so the first packet after the topology changes, and every
+ * {@code keyframeInterval}th packet after that, is compressed without the dictionary. Zlib identifies the dictionary
+ * needed by its Adler-32 checksum, which is how the receiver picks it (see {@link DeflateDecompressor}). Not thread safe.
+ * </p>
+ */
+public class DeflateCompressor {
+
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+  private final WireBuffer output = new WireBuffer();
+
+  private final byte[] scratch = new byte[4096];
+
+  private final Adler32 checksum = new Adler32();
+
+  private final int keyframeInterval;
+
+  private long keyframeDictionary = -1;
+
+  private int sinceKeyframe;
+
+  public DeflateCompressor() {
+    this(DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  public DeflateCompressor(int keyframeInterval) {
+    this.keyframeInterval = Math.max(1, keyframeInterval);
+  }
+
+  /**
+   * @param dictionary the topology of the payload, or null.
+   * @return the compressed payload (valid until the next call), or null if compressing did not make it any smaller.
+   */
+  public WireBuffer compress(byte[] data, int length, WireBuffer dictionary) {
+    boolean useDictionary = false;
+    if (dictionary != null && dictionary.size() > 0) {
+      checksum.reset();
+      checksum.update(dictionary.array(), 0, dictionary.size());
+      long dictionaryId = checksum.getValue();
+      if (dictionaryId != keyframeDictionary || ++sinceKeyframe >= keyframeInterval) {
+        keyframeDictionary = dictionaryId;
+        sinceKeyframe = 0;
+      } else {
+        useDictionary = true;
+      }
+    }
+
+    output.reset();
+    output.write(PayloadCompression.MAGIC_0);
+    output.write(PayloadCompression.MAGIC_1);
+    output.write(PayloadCompression.VERSION);
+    output.write(0);
+    deflater.reset();
+    if (useDictionary)
+      deflater.setDictionary(dictionary.array(), 0, dictionary.size());
+    deflater.setInput(data, 0, length);
+    deflater.finish();
+    while (!deflater.finished()) {
+      int deflated = deflater.deflate(scratch);
+      output.write(scratch, 0, deflated);
+      if (output.size() >= length)
+        return null;
+    }
+    return output;
+  }
+
+  public void close() {
+    deflater.end();
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates payloads written by {@link DeflateCompressor}.
+ * <p>
+ * The preset dictionaries are the topologies of the binary packets already received, see
+ * {@link #rememberDictionary(byte[], int, int)}; a packet that needs one we have not seen yet is counted and rejected until
+ * the sender's next keyframe. The inflated size is capped so that a small hostile packet cannot exhaust memory. Not thread
+ * safe.
+ * </p>
+ */
+public class DeflateDecompressor {
+
+  public static final int DEFAULT_MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+  private static final int MAX_DICTIONARIES = 32;
+
+  private final Inflater inflater = new Inflater();
+
+  private final WireBuffer output = new WireBuffer();
+
+  private final byte[] scratch = new byte[4096];
+
+  private final Adler32 checksum = new Adler32();
+
+  private final int maxInflatedSize;
+
+  private final Map<Long, byte[]> dictionaries = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+      return size() > MAX_DICTIONARIES;
+    }
+  };
+
+  private final LongAdder missingDictionary = new LongAdder();
+
+  public DeflateDecompressor() {
+    this(DEFAULT_MAX_INFLATED_SIZE);
+  }
+
+  public DeflateDecompressor(int maxInflatedSize) {
+    this.maxInflatedSize = maxInflatedSize;
+  }
+
+  /**
+   * @return the inflated payload, valid until the next call.
+   */
+  public WireBuffer decompress(byte[] data, int offset, int length) throws IOException {
+    if (!PayloadCompression.isCompressed(data, offset, length) || data[offset + 2] != PayloadCompression.VERSION)
+      throw new IOException("Invalid compressed payload header");
+    output.reset();
+    inflater.reset();
+    inflater.setInput(data, offset + PayloadCompression.HEADER_SIZE, length - PayloadCompression.HEADER_SIZE);
+    try {
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(scratch);
+        if (inflated == 0) {
+          if (inflater.needsDictionary()) {
+            byte[] dictionary = dictionaries.get(inflater.getAdler() & 0xFFFFFFFFL);
+            if (dictionary == null) {
+              missingDictionary.increment();
+              throw new IOException("Compressed payload needs a dictionary that has not been received yet");
+            }
+            inflater.setDictionary(dictionary);
+          } else if (inflater.needsInput()) {
+            throw new IOException("Truncated compressed payload");
+          } else if (!inflater.finished()) {
+            throw new IOException("Invalid compressed payload");
+          }
+        }
+        output.write(scratch, 0, inflated);
+        if (output.size() > maxInflatedSize)
+          throw new IOException("Compressed payload inflates beyond " + maxInflatedSize + " bytes");
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException(ex);
+    }
+    return output;
+  }
+
+  /**
+   * Make the topology of a received binary packet available as a preset dictionary for subsequent packets.
+   */
+  public void rememberDictionary(byte[] data, int offset, int length) {
+    checksum.reset();
+    checksum.update(data, offset, length);
+    Long dictionaryId = checksum.getValue();
+    if (!dictionaries.containsKey(dictionaryId))
+      dictionaries.put(dictionaryId, Arrays.copyOfRange(data, offset, offset + length));
+  }
+
+  /**
+   * @return the number of packets rejected because they referenced a topology not yet received.
+   */
+  public long getMissingDictionaryCount() {
+    return missingDictionary.sum();
+  }
+
+}
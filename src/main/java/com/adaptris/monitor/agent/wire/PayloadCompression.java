@@ -0,0 +1,36 @@
+package com.adaptris.monitor.agent.wire;
+
+public enum PayloadCompression {
+
+  NONE,
+
+  /**
+   * Deflate, using the topology of the last keyframe as a preset dictionary; see {@link DeflateCompressor}.
+   */
+  DEFLATE;
+
+  public static final String COMPRESSION_KEY = "com.adaptris.monitor.agent.Compression";
+
+  public static final String KEYFRAME_INTERVAL_KEY = "com.adaptris.monitor.agent.CompressionKeyframeInterval";
+
+  static final int MAGIC_0 = 'I';
+
+  static final int MAGIC_1 = 'Z';
+
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 4;
+
+  public static PayloadCompression getMode(String mode) {
+    try {
+      return PayloadCompression.valueOf(mode.toUpperCase().trim());
+    } catch (Exception ex) {
+      return PayloadCompression.NONE;
+    }
+  }
+
+  public static boolean isCompressed(byte[] data, int offset, int length) {
+    return length > HEADER_SIZE && data[offset] == MAGIC_0 && data[offset + 1] == MAGIC_1;
+  }
+
+}
@@ -0,0 +1,271 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accounts for the sequence numbers stamped on binary packets by each sender, so that a receiver can tell how much of what
+ * was sent it actually saw.
+ * <p>
+ * For every sender the highest sequence number seen so far is kept, along with a bitmap of which of the
+ * {@value #WINDOW} numbers below it have arrived. A jump past the highest counts the numbers skipped as lost; one of those
+ * arriving later is counted as reordered (and no longer lost), and a number that has already arrived is a duplicate.
+ * Anything older than the window cannot be told apart from a replay, so it is discarded and counted as out of window
+ * rather than received; the number it carries stays lost. The most recently heard {@value #MAX_SENDERS}
+ * senders are tracked. Thread safe, one tracker is normally shared by every reader of a receiver.
+ * </p>
+ */
+public class SequenceTracker {
+
+  static final int WINDOW = 64;
+
+  static final int MAX_SENDERS = 1024;
+
+  private final Map<Long, Sender> senders = new LinkedHashMap<Long, Sender>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Sender> eldest) {
+      return size() > MAX_SENDERS;
+    }
+  };
+
+  private long received;
+
+  private long lost;
+
+  private long duplicates;
+
+  private long reordered;
+
+  private long outOfWindow;
+
+  /**
+   * Record a packet.
+   *
+   * @return false if the packet is a duplicate, or too old to tell, and should be discarded.
+   */
+  public synchronized boolean accept(long senderId, long sequence, long intervalStartMillis, long intervalEndMillis) {
+    Sender sender = senders.get(senderId);
+    if (sender == null) {
+      sender = new Sender(senderId);
+      senders.put(senderId, sender);
+    }
+    int outcome = sender.accept(sequence);
+    if (outcome == Sender.DUPLICATE) {
+      duplicates++;
+      return false;
+    }
+    if (outcome == Sender.OUT_OF_WINDOW) {
+      outOfWindow++;
+      return false;
+    }
+    received++;
+    if (outcome > 0) {
+      lost += outcome;
+    } else if (outcome == Sender.LATE) {
+      reordered++;
+      lost--;
+    }
+    sender.intervalStartMillis = intervalStartMillis;
+    sender.intervalEndMillis = intervalEndMillis;
+    sender.lastReceivedMillis = System.currentTimeMillis();
+    return true;
+  }
+
+  public synchronized long getReceivedCount() {
+    return received;
+  }
+
+  /**
+   * @return the number of sequence numbers skipped and not (yet) received, across all senders.
+   */
+  public synchronized long getLostCount() {
+    return lost;
+  }
+
+  public synchronized long getDuplicateCount() {
+    return duplicates;
+  }
+
+  public synchronized long getReorderedCount() {
+    return reordered;
+  }
+
+  /**
+   * @return the number of packets discarded because they were older than the window, across all senders.
+   */
+  public synchronized long getOutOfWindowCount() {
+    return outOfWindow;
+  }
+
+  public synchronized int getSenderCount() {
+    return senders.size();
+  }
+
+  /**
+   * @return a copy of the current state of each sender.
+   */
+  public synchronized List<SenderStatistics> getSenders() {
+    List<SenderStatistics> result = new ArrayList<>(senders.size());
+    for (Sender sender : senders.values())
+      result.add(new SenderStatistics(sender));
+    return result;
+  }
+
+  private static final class Sender {
+
+    static final int DUPLICATE = -1;
+
+    static final int OUT_OF_WINDOW = -2;
+
+    static final int LATE = -3;
+
+    private final long senderId;
+
+    private long highest = -1;
+
+    // Bit n is set once sequence (highest - n) has arrived.
+    private long window;
+
+    private long received;
+
+    private long lost;
+
+    private long duplicates;
+
+    private long reordered;
+
+    private long outOfWindow;
+
+    private long intervalStartMillis;
+
+    private long intervalEndMillis;
+
+    private long lastReceivedMillis;
+
+    Sender(long senderId) {
+      this.senderId = senderId;
+    }
+
+    // @return the number of sequence numbers skipped, or one of the negative outcomes.
+    int accept(long sequence) {
+      if (highest < 0 || sequence > highest) {
+        long skipped = highest < 0 ? 0 : sequence - highest - 1;
+        long shift = sequence - highest;
+        window = highest < 0 || shift >= WINDOW ? 1 : (window << shift) | 1;
+        highest = sequence;
+        received++;
+        lost += skipped;
+        return (int) Math.min(skipped, Integer.MAX_VALUE);
+      }
+      long age = highest - sequence;
+      if (age >= WINDOW) {
+        outOfWindow++;
+        return OUT_OF_WINDOW;
+      }
+      long bit = 1L << age;
+      if ((window & bit) != 0) {
+        duplicates++;
+        return DUPLICATE;
+      }
+      window |= bit;
+      received++;
+      reordered++;
+      lost--;
+      return LATE;
+    }
+  }
+
+  /**
+   * What has been received from one sender.
+   */
+  public static final class SenderStatistics {
+
+    private final long senderId;
+
+    private final long lastSequence;
+
+    private final long received;
+
+    private final long lost;
+
+    private final long duplicates;
+
+    private final long reordered;
+
+    private final long outOfWindow;
+
+    private final long intervalStartMillis;
+
+    private final long intervalEndMillis;
+
+    private final long lastReceivedMillis;
+
+    private SenderStatistics(Sender sender) {
+      senderId = sender.senderId;
+      lastSequence = sender.highest;
+      received = sender.received;
+      lost = sender.lost;
+      duplicates = sender.duplicates;
+      reordered = sender.reordered;
+      outOfWindow = sender.outOfWindow;
+      intervalStartMillis = sender.intervalStartMillis;
+      intervalEndMillis = sender.intervalEndMillis;
+      lastReceivedMillis = sender.lastReceivedMillis;
+    }
+
+    public long getSenderId() {
+      return senderId;
+    }
+
+    public long getLastSequence() {
+      return lastSequence;
+    }
+
+    public long getReceivedCount() {
+      return received;
+    }
+
+    public long getLostCount() {
+      return lost;
+    }
+
+    public long getDuplicateCount() {
+      return duplicates;
+    }
+
+    public long getReorderedCount() {
+      return reordered;
+    }
+
+    public long getOutOfWindowCount() {
+      return outOfWindow;
+    }
+
+    /**
+     * @return the interval covered by the last packet received, as measured by the sender.
+     */
+    public long getIntervalStartMillis() {
+      return intervalStartMillis;
+    }
+
+    public long getIntervalEndMillis() {
+      return intervalEndMillis;
+    }
+
+    public long getLastReceivedMillis() {
+      return lastReceivedMillis;
+    }
+
+    /**
+     * @return the proportion of the packets sent since the first one received that never arrived.
+     */
+    public double getLossRatio() {
+      long expected = received + lost;
+      return expected == 0 ? 0 : (double) lost / expected;
+    }
+  }
+}
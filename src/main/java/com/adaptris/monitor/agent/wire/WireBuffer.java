@@ -0,0 +1,58 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable output buffer with the primitive encodings used by the {@link WireFormat#BINARY} format.
+ * <p>
+ * Unsigned values are written as base 128 varints (7 bits per byte, high bit set on all but the last byte); signed
+ * values are zig-zag encoded first so that small negative numbers stay small.
+ * </p>
+ */
+public class WireBuffer extends ByteArrayOutputStream {
+
+  public WireBuffer() {
+    super(1024);
+  }
+
+  public WireBuffer(int size) {
+    super(size);
+  }
+
+  public void writeVarLong(long value) {
+    while ((value & ~0x7FL) != 0) {
+      write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    write((int) value);
+  }
+
+  public void writeVarInt(int value) {
+    writeVarLong(value & 0xFFFFFFFFL);
+  }
+
+  public void writeSignedVarLong(long value) {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  public void writeDouble(double value) {
+    long bits = Double.doubleToLongBits(value);
+    for (int shift = 56; shift >= 0; shift -= 8)
+      write((int) (bits >>> shift));
+  }
+
+  public void writeString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(bytes.length);
+    write(bytes, 0, bytes.length);
+  }
+
+  /**
+   * @return the backing array, valid up to {@link #size()}; not a copy.
+   */
+  public byte[] array() {
+    return buf;
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+
+/**
+ * The encodings an {@link ActivityMap} can be sent with over UDP.
+ * <p>
+ * Senders pick one with the {@value #WIRE_FORMAT_KEY} setting; receivers recognise either from the first bytes of the
+ * packet, so a receiver can be upgraded before its senders.
+ * </p>
+ * <p>
+ * Senders default to {@link #JAVA}, which every receiver understands. {@link #BINARY} is opt-in: older receivers read
+ * every datagram with an {@code ObjectInputStream} and fail on binary packets, so upgrade all receivers before switching
+ * any sender to it. For the same reason an uncompressed {@link #JAVA} payload is never split into chunks by
+ * {@link DatagramChunker}.
+ * </p>
+ */
+public enum WireFormat {
+
+  /**
+   * Compact, versioned binary format; see {@link BinaryActivityEncoder}.
+   */
+  BINARY {
+    @Override
+    public ActivityEncoder createEncoder(int deltaKeyframeInterval) {
+      return new BinaryActivityEncoder(deltaKeyframeInterval);
+    }
+  },
+
+  /**
+   * Java serialization of the rebuilt {@link ActivityMap}, as sent by earlier versions.
+   */
+  JAVA {
+    @Override
+    public ActivityEncoder createEncoder(int deltaKeyframeInterval) {
+      return (snapshot, buffer) -> {
+        ObjectOutputStream oos = new ObjectOutputStream(buffer);
+        oos.writeObject(snapshot.toActivityMap());
+        oos.flush();
+      };
+    }
+  };
+
+  public static final String WIRE_FORMAT_KEY = "com.adaptris.monitor.agent.WireFormat";
+
+  public static final String ALLOW_JAVA_SERIALIZATION_KEY = "com.adaptris.monitor.agent.AllowJavaSerialization";
+
+  private static final int STREAM_MAGIC_0 = 0xAC;
+
+  private static final int STREAM_MAGIC_1 = 0xED;
+
+  protected static final Logger log = LoggerFactory.getLogger(WireFormat.class);
+
+  public ActivityEncoder createEncoder() {
+    return createEncoder(0);
+  }
+
+  /**
+   * @param deltaKeyframeInterval see {@link BinaryActivityEncoder#DELTA_KEYFRAME_INTERVAL_KEY}; {@link #JAVA} always sends
+   *          the full hierarchy.
+   */
+  public abstract ActivityEncoder createEncoder(int deltaKeyframeInterval);
+
+  public static WireFormat getFormat(String format) {
+    try {
+      return WireFormat.valueOf(format.toUpperCase().trim());
+    } catch (Exception ex) {
+      log.trace("Could not find wire format for value {}.  Defaulting to JAVA ", format);
+      return WireFormat.JAVA;
+    }
+  }
+
+  public static boolean isJavaSerialization(byte[] data, int offset, int length) {
+    return length >= 2 && (data[offset] & 0xFF) == STREAM_MAGIC_0 && (data[offset + 1] & 0xFF) == STREAM_MAGIC_1;
+  }
+
+  /**
+   * Decode a packet in either format. Nothing is remembered between calls, so binary deltas are rejected; receivers should
+   * use an {@link ActivityPacketReader}.
+   * 
+   * @param allowJavaSerialization whether packets from senders still using {@link #JAVA} are accepted; Java
+   *          deserialization of untrusted data is unsafe, so disable this once every sender has moved to {@link #BINARY}.
+   */
+  public static ActivityMap decode(byte[] data, int offset, int length, boolean allowJavaSerialization) throws IOException {
+    if (BinaryActivityDecoder.isBinary(data, offset, length))
+      return new BinaryActivityDecoder().decode(data, offset, length);
+    if (isJavaSerialization(data, offset, length)) {
+      if (!allowJavaSerialization)
+        throw new IOException("Java serialized activity received but Java serialization is not allowed");
+      try (ObjectInputStream iStream = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+        Object object = iStream.readObject();
+        if (!(object instanceof ActivityMap))
+          throw new IOException("Unexpected object received " + (object == null ? null : object.getClass().getName()));
+        return (ActivityMap) object;
+      } catch (ClassNotFoundException ex) {
+        throw new IOException(ex);
+      }
+    }
+    throw new IOException("Unrecognised activity packet");
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bounds checked reader for the encodings written by {@link WireBuffer}; any attempt to read past the end of the data
+ * fails with an {@link IOException} rather than trusting the lengths found in the packet.
+ */
+public class WireReader {
+
+  private final byte[] data;
+
+  private final int limit;
+
+  private int position;
+
+  public WireReader(byte[] data, int offset, int length) {
+    this.data = data;
+    this.position = offset;
+    this.limit = offset + length;
+  }
+
+  public int readByte() throws IOException {
+    if (position >= limit)
+      throw new IOException("Unexpected end of data");
+    return data[position++] & 0xFF;
+  }
+
+  public long readVarLong() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return result;
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  public int readVarInt() throws IOException {
+    long value = readVarLong();
+    if (value < 0 || value > Integer.MAX_VALUE)
+      throw new IOException("Varint out of range: " + value);
+    return (int) value;
+  }
+
+  public long readSignedVarLong() throws IOException {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  public double readDouble() throws IOException {
+    long bits = 0;
+    for (int index = 0; index < 8; index++)
+      bits = (bits << 8) | readByte();
+    return Double.longBitsToDouble(bits);
+  }
+
+  public String readString() throws IOException {
+    int length = readVarInt();
+    if (length > remaining())
+      throw new IOException("String length " + length + " exceeds remaining data");
+    String value = new String(data, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return value;
+  }
+
+  public int remaining() {
+    return limit - position;
+  }
+
+  public int position() {
+    return position;
+  }
+
+}
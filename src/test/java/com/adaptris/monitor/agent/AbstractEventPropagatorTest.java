@@ -0,0 +1,121 @@
+package com.adaptris.monitor.agent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+import com.adaptris.profiler.MessageProcessStep;
+import com.adaptris.profiler.StepType;
+
+import junit.framework.TestCase;
+
+public class AbstractEventPropagatorTest extends TestCase {
+
+  private EventMonitorReceiver receiver;
+
+  private RecordingPropagator propagator;
+
+  private EventPropagator originalPropagator;
+
+  public void setUp() throws Exception {
+    receiver = EventMonitorReceiver.getInstance();
+    receiver.setAdapterActivityMap(new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter()));
+    propagator = new RecordingPropagator(receiver);
+    propagator.setIntervalMs(50);
+    originalPropagator = receiver.getEventPropagator();
+    receiver.setEventPropagator(propagator);
+  }
+
+  public void tearDown() throws Exception {
+    propagator.stopPropagator();
+    receiver.setEventPropagator(originalPropagator);
+    receiver.setAdapterActivityMap(null);
+  }
+
+  public void testFixedRatePropagation() throws Exception {
+    propagator.setPropagationMode(PropagationMode.FIXED_RATE);
+    propagator.startPropagator();
+    receiver.onEvent(step());
+
+    assertTrue(propagator.propagated.await(5, TimeUnit.SECONDS));
+    assertEquals(1, propagator.snapshot.getTotalMessageCount());
+  }
+
+  public void testAdaptiveBacksOffWhenIdle() throws Exception {
+    propagator.setPropagationMode(PropagationMode.ADAPTIVE);
+    propagator.setMaxIdleIntervalMs(200);
+    propagator.startPropagator();
+
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (propagator.getCurrentDelayMs() != 200 && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertEquals(200, propagator.getCurrentDelayMs());
+
+    receiver.onEvent(step());
+    assertTrue(propagator.propagated.await(5, TimeUnit.SECONDS));
+  }
+
+  public void testAdaptiveFlushesEarly() throws Exception {
+    propagator.setPropagationMode(PropagationMode.ADAPTIVE);
+    propagator.setIntervalMs(TimeUnit.MINUTES.toMillis(1));
+    propagator.setFlushThreshold(3);
+    propagator.startPropagator();
+    assertEquals(3, receiver.getFlushThreshold());
+
+    receiver.onEvent(step());
+    receiver.onEvent(step());
+    receiver.onEvent(step());
+
+    assertTrue(propagator.propagated.await(5, TimeUnit.SECONDS));
+  }
+
+  public void testFlushAfterStop() throws Exception {
+    propagator.setPropagationMode(PropagationMode.ADAPTIVE);
+    propagator.setIntervalMs(TimeUnit.MINUTES.toMillis(1));
+    propagator.startPropagator();
+    propagator.stopPropagator();
+    propagator.requestFlush();
+
+    propagator.startPropagator();
+    receiver.onEvent(step());
+    propagator.requestFlush();
+    assertTrue(propagator.propagated.await(5, TimeUnit.SECONDS));
+  }
+
+  private MessageProcessStep step() {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId("1");
+    step.setStepInstanceId("service1");
+    step.setStepType(StepType.SERVICE);
+    step.setTimeTakenMs(1);
+    return step;
+  }
+
+  private static class RecordingPropagator extends AbstractEventPropagator {
+
+    private final CountDownLatch propagated = new CountDownLatch(1);
+
+    private volatile ActivitySnapshot snapshot;
+
+    RecordingPropagator(EventMonitorReceiver eventMonitorReceiver) throws Exception {
+      super(eventMonitorReceiver);
+    }
+
+    @Override
+    public void propagateSnapshot(ActivitySnapshot snapshot) {
+      this.snapshot = snapshot;
+      propagated.countDown();
+    }
+
+    @Override
+    public void propagateProcessEvent(ActivityMap activityMap) {
+    }
+
+    @Override
+    protected void stop() {
+    }
+  }
+}
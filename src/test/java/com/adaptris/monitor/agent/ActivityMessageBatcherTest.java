@@ -0,0 +1,70 @@
+package com.adaptris.monitor.agent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+public class ActivityMessageBatcherTest extends TestCase {
+
+  private List<String> emitted;
+
+  public void setUp() throws Exception {
+    emitted = new CopyOnWriteArrayList<>();
+  }
+
+  public void testNdjsonBySize() throws Exception {
+    ActivityMessageBatcher batcher = new ActivityMessageBatcher(3, 60000, BatchFormat.NDJSON, this::capture);
+    batcher.add(bytes("{\"a\":1}"));
+    batcher.add(bytes("{\"a\":2}"));
+    assertEquals(0, emitted.size());
+    batcher.add(bytes("{\"a\":3}"));
+
+    assertEquals(1, emitted.size());
+    assertEquals("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n", emitted.get(0));
+    assertEquals(0, batcher.size());
+  }
+
+  public void testJsonArrayByTime() throws Exception {
+    ActivityMessageBatcher batcher = new ActivityMessageBatcher(100, 1000, BatchFormat.JSON_ARRAY, this::capture);
+    batcher.add(bytes("{\"a\":1}"));
+    batcher.add(bytes("{\"a\":2}"));
+    batcher.flushIfDue(System.currentTimeMillis());
+    assertEquals(0, emitted.size());
+    batcher.flushIfDue(System.currentTimeMillis() + 1000);
+
+    assertEquals(1, emitted.size());
+    assertEquals("[{\"a\":1},{\"a\":2}]", emitted.get(0));
+  }
+
+  public void testTimerEmitsPartialBatch() throws Exception {
+    ActivityMessageBatcher batcher = new ActivityMessageBatcher(100, 50, BatchFormat.NDJSON, this::capture);
+    batcher.start();
+    try {
+      batcher.add(bytes("{}"));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (emitted.isEmpty() && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      assertEquals("{}\n", emitted.get(0));
+    } finally {
+      batcher.stop();
+    }
+  }
+
+  public void testStopEmitsRemainder() throws Exception {
+    ActivityMessageBatcher batcher = new ActivityMessageBatcher(100, 60000, BatchFormat.JSON_ARRAY, this::capture);
+    batcher.add(bytes("1"));
+    batcher.stop();
+
+    assertEquals("[1]", emitted.get(0));
+  }
+
+  private void capture(byte[] payload) {
+    emitted.add(new String(payload, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
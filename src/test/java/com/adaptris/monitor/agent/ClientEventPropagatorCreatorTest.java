@@ -1,7 +1,10 @@
 package com.adaptris.monitor.agent;
 
+import com.adaptris.monitor.agent.http.HttpMetricsPropagator;
 import com.adaptris.monitor.agent.jmx.JmxEventPropagator;
 import com.adaptris.monitor.agent.multicast.MulticastEventPropagator;
+import com.adaptris.monitor.agent.statsd.LineProtocol;
+import com.adaptris.monitor.agent.statsd.StatsdEventPropagator;
 
 import junit.framework.TestCase;
 
@@ -26,9 +29,50 @@ public class ClientEventPropagatorCreatorTest extends TestCase {
     assertTrue(createClientPropagator instanceof MulticastEventPropagator);
   }
   
+  public void testHttpPropagator() throws Exception {
+    EventPropagator createClientPropagator = ClientEventPropagatorCreator.getCreator("http").createClientPropagator(EventMonitorReceiver.getInstance());
+
+    assertTrue(createClientPropagator instanceof HttpMetricsPropagator);
+    createClientPropagator.stopPropagator();
+  }
+
+  public void testLineProtocolPropagators() throws Exception {
+    EventPropagator statsd = ClientEventPropagatorCreator.getCreator("statsd").createClientPropagator(EventMonitorReceiver.getInstance());
+    EventPropagator graphite = ClientEventPropagatorCreator.getCreator("graphite").createClientPropagator(EventMonitorReceiver.getInstance());
+
+    assertEquals(LineProtocol.STATSD, ((StatsdEventPropagator) statsd).getProtocol());
+    assertEquals(8125, ((StatsdEventPropagator) statsd).getPort());
+    assertEquals(LineProtocol.GRAPHITE, ((StatsdEventPropagator) graphite).getProtocol());
+    assertEquals(2003, ((StatsdEventPropagator) graphite).getPort());
+  }
+
   public void testJMXPropagatorWithNonsenseSetting() throws Exception {
     EventPropagator createClientPropagator = ClientEventPropagatorCreator.getCreator(NONSENSE).createClientPropagator(EventMonitorReceiver.getInstance());
     
     assertTrue(createClientPropagator instanceof JmxEventPropagator);
   }
+
+  public void testCompositePropagator() throws Exception {
+    EventPropagator createClientPropagator = ClientEventPropagatorCreator.createPropagator("jmx, multicast", EventMonitorReceiver.getInstance());
+
+    assertTrue(createClientPropagator instanceof CompositeEventPropagator);
+    assertEquals(2, ((CompositeEventPropagator) createClientPropagator).getPropagators().size());
+    createClientPropagator.stopPropagator();
+  }
+
+  public void testSinglePropagatorIsNotComposite() throws Exception {
+    EventPropagator createClientPropagator = ClientEventPropagatorCreator.createPropagator("JMX,JMX", EventMonitorReceiver.getInstance());
+
+    assertTrue(createClientPropagator instanceof JmxEventPropagator);
+  }
+
+  public void testSinglePropagatorWithSeparators() throws Exception {
+    EventPropagator statsd = ClientEventPropagatorCreator.createPropagator("STATSD,", EventMonitorReceiver.getInstance());
+    EventPropagator http = ClientEventPropagatorCreator.createPropagator(" http, ", EventMonitorReceiver.getInstance());
+
+    assertTrue(statsd instanceof StatsdEventPropagator);
+    assertTrue(http instanceof HttpMetricsPropagator);
+    statsd.stopPropagator();
+    http.stopPropagator();
+  }
 }
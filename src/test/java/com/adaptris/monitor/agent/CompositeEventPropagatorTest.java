@@ -0,0 +1,108 @@
+package com.adaptris.monitor.agent;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.adaptris.core.Adapter;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+
+import junit.framework.TestCase;
+
+public class CompositeEventPropagatorTest extends TestCase {
+
+  private RecordingPropagator fast;
+
+  private RecordingPropagator slow;
+
+  private CompositeEventPropagator composite;
+
+  public void setUp() throws Exception {
+    EventMonitorReceiver receiver = EventMonitorReceiver.getInstance();
+    fast = new RecordingPropagator(receiver, new CountDownLatch(0));
+    slow = new RecordingPropagator(receiver, new CountDownLatch(1));
+    composite = new CompositeEventPropagator(receiver, Arrays.<EventPropagator> asList(fast, slow));
+  }
+
+  public void tearDown() throws Exception {
+    slow.release.countDown();
+    composite.stopPropagator();
+  }
+
+  public void testSnapshotSharedByAllTransports() throws Exception {
+    ActivitySnapshot snapshot = snapshot();
+    composite.propagateSnapshot(snapshot);
+    slow.release.countDown();
+
+    assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+    assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+    assertSame(snapshot, fast.snapshot);
+    assertSame(snapshot, slow.snapshot);
+  }
+
+  public void testSlowTransportDropsOldest() throws Exception {
+    // one in flight, 16 queued and the rest dropped; the latest snapshot is always delivered.
+    ActivitySnapshot latest = null;
+    for (int i = 0; i < 100; i++)
+      composite.propagateSnapshot(latest = snapshot());
+    assertEquals(83, composite.getDroppedCount(slow));
+
+    slow.release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((fast.snapshot != latest || slow.snapshot != latest) && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertSame(latest, fast.snapshot);
+    assertSame(latest, slow.snapshot);
+  }
+
+  public void testStopStopsTransports() throws Exception {
+    composite.stopPropagator();
+
+    assertTrue(fast.stopped);
+    assertTrue(slow.stopped);
+  }
+
+  private ActivitySnapshot snapshot() {
+    Adapter adapter = new Adapter();
+    adapter.setUniqueId("adapter");
+    return ActivitySnapshot.capture(new AdapterInstanceActivityMapCreator().createBaseMap(adapter));
+  }
+
+  private static class RecordingPropagator extends AbstractEventPropagator {
+
+    private volatile CountDownLatch received = new CountDownLatch(1);
+
+    private final CountDownLatch release;
+
+    private volatile ActivitySnapshot snapshot;
+
+    private volatile boolean stopped;
+
+    RecordingPropagator(EventMonitorReceiver eventMonitorReceiver, CountDownLatch release) throws Exception {
+      super(eventMonitorReceiver);
+      this.release = release;
+    }
+
+    @Override
+    public void propagateSnapshot(ActivitySnapshot snapshot) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.snapshot = snapshot;
+      received.countDown();
+    }
+
+    @Override
+    public void propagateProcessEvent(ActivityMap activityMap) {
+    }
+
+    @Override
+    protected void stop() {
+      stopped = true;
+    }
+  }
+}
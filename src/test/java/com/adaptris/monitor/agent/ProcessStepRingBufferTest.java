@@ -0,0 +1,93 @@
+package com.adaptris.monitor.agent;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import com.adaptris.profiler.MessageProcessStep;
+
+import junit.framework.TestCase;
+
+public class ProcessStepRingBufferTest extends TestCase {
+
+  public void testCapacityRoundedToPowerOfTwo() throws Exception {
+    assertEquals(8, new ProcessStepRingBuffer(5).capacity());
+    assertEquals(16, new ProcessStepRingBuffer(16).capacity());
+  }
+
+  public void testOfferAndDrain() throws Exception {
+    ProcessStepRingBuffer buffer = new ProcessStepRingBuffer(8);
+    ProcessStepBatch batch = new ProcessStepBatch(4);
+
+    for (int i = 0; i < 6; i++)
+      assertTrue(buffer.offer(step(i)));
+    assertEquals(6, buffer.size());
+
+    assertEquals(4, buffer.drain(batch));
+    assertEquals("0", batch.get(0).getMessageId());
+    assertEquals("3", batch.get(3).getMessageId());
+    assertEquals(2, buffer.drain(batch));
+    assertEquals("5", batch.get(1).getMessageId());
+    assertEquals(0, buffer.drain(batch));
+    assertEquals(0, buffer.size());
+  }
+
+  public void testDropsWhenFull() throws Exception {
+    ProcessStepRingBuffer buffer = new ProcessStepRingBuffer(4);
+
+    for (int i = 0; i < 4; i++)
+      assertTrue(buffer.offer(step(i)));
+    assertFalse(buffer.offer(step(4)));
+
+    assertEquals(5, buffer.getOfferedCount());
+    assertEquals(1, buffer.getDroppedCount());
+    assertEquals(4, buffer.getHighWaterMark());
+
+    buffer.drain(new ProcessStepBatch(4));
+    assertTrue(buffer.offer(step(5)));
+    buffer.resetHighWaterMark();
+    assertEquals(0, buffer.getHighWaterMark());
+  }
+
+  public void testConcurrentProducers() throws Exception {
+    final ProcessStepRingBuffer buffer = new ProcessStepRingBuffer(1 << 14);
+    final int producers = 4;
+    final int perProducer = 2000;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int offset = p * perProducer;
+      threads[p] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perProducer; i++)
+          buffer.offer(step(offset + i));
+      });
+      threads[p].start();
+    }
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+
+    Set<String> seen = new HashSet<>();
+    ProcessStepBatch batch = new ProcessStepBatch(1000);
+    int drained;
+    do {
+      drained = buffer.drain(batch);
+      for (int i = 0; i < drained; i++)
+        seen.add(batch.get(i).getMessageId());
+    } while (drained > 0);
+
+    assertEquals(producers * perProducer, seen.size());
+    assertEquals(0, buffer.getDroppedCount());
+  }
+
+  private static MessageProcessStep step(int id) {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId(String.valueOf(id));
+    return step;
+  }
+}
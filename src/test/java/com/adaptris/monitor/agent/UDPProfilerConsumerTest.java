@@ -9,6 +9,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -68,9 +72,56 @@ public class UDPProfilerConsumerTest extends TestCase {
     }
   }
   
+  public void testPerSenderOrder() throws Exception {
+    final BlockingQueue<DatagramPacket> packets = new LinkedBlockingQueue<>();
+    for (int index = 0; index < 50; index++) {
+      packets.add(buildPacket("a" + index, 1000));
+      packets.add(buildPacket("b" + index, 2000));
+    }
+    final List<String> received = new CopyOnWriteArrayList<>();
+    consumer.registerAdaptrisMessageListener(new AdaptrisMessageListener() {
+      @Override
+      public void onAdaptrisMessage(AdaptrisMessage msg) {
+        received.add(msg.getContent());
+      }
+    });
+    consumer.setDecodeThreads(4);
+    poller.setDatagramReceiver(c -> packets.take());
+
+    LifecycleHelper.initAndStart(connection);
+    LifecycleHelper.initAndStart(consumer);
+    try {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (poller.getProcessedCount() < 100 && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      assertEquals(100, poller.getProcessedCount());
+      assertEquals(100, received.size());
+      assertEquals(4, poller.getDecodeStageCount());
+
+      int nextA = 0, nextB = 0;
+      for (String json : received) {
+        if (json.contains("\"a" + nextA + "\""))
+          nextA++;
+        else if (json.contains("\"b" + nextB + "\""))
+          nextB++;
+        else
+          fail("Out of order " + json);
+      }
+    } finally {
+      LifecycleHelper.stopAndClose(consumer);
+      LifecycleHelper.stopAndClose(connection);
+    }
+  }
+
   private DatagramPacket buildPacket() throws Exception {
+    return buildPacket("adapter", DEFAULT_MULTICAST_PORT);
+  }
+
+  private DatagramPacket buildPacket(String adapterId, int senderPort) throws Exception {
     ActivityMap activityMap = new ActivityMap();
-    activityMap.getAdapters().put("adapter", new AdapterActivity());
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(adapterId);
+    activityMap.getAdapters().put(adapterId, adapter);
     
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     ObjectOutputStream oos = new ObjectOutputStream(baos);
@@ -78,7 +129,7 @@ public class UDPProfilerConsumerTest extends TestCase {
     oos.flush();
     byte[] data= baos.toByteArray();
 
-    return new DatagramPacket(data, data.length, InetAddress.getByName(DEFAULT_MULTICAST_GROUP), DEFAULT_MULTICAST_PORT);
+    return new DatagramPacket(data, data.length, InetAddress.getByName(DEFAULT_MULTICAST_GROUP), senderPort);
   }
 
 }
@@ -1,5 +1,7 @@
 package com.adaptris.monitor.agent.activity;
 
+import java.util.ArrayList;
+
 import com.adaptris.core.Adapter;
 import com.adaptris.core.Channel;
 import com.adaptris.core.NullMessageConsumer;
@@ -77,6 +79,47 @@ public class ActivityMapTest extends TestCase {
     
   }
   
+  public void testFlowActivityIndex() {
+    assertTrue(this.activityMap.getFlowActivityIndex().get("consumer") instanceof ConsumerActivity);
+    assertTrue(this.activityMap.getFlowActivityIndex().get("producer") instanceof ProducerActivity);
+    assertTrue(this.activityMap.getFlowActivityIndex().get("service1") instanceof ServiceActivity);
+    assertTrue(this.activityMap.getFlowActivityIndex().get("service2") instanceof ServiceActivity);
+    assertFalse(this.activityMap.getFlowActivityIndex().containsKey("workflow1"));
+  }
+
+  public void testUnknownActivityCounted() {
+    MessageProcessStep unknownStep = new MessageProcessStep();
+    unknownStep.setMessageId("1");
+    unknownStep.setStepInstanceId("not-in-this-adapter");
+    unknownStep.setStepType(StepType.SERVICE);
+    unknownStep.setTimeTakenMs(1);
+
+    this.activityMap.addActivity(unknownStep);
+
+    assertEquals(1, this.activityMap.getUnknownActivityCount());
+  }
+
+  public void testUnmatchedConsumerStepIsUnknown() {
+    MessageProcessStep consumerStep = new MessageProcessStep();
+    consumerStep.setMessageId("1");
+    consumerStep.setStepInstanceId("another-consumer");
+    consumerStep.setStepType(StepType.CONSUMER);
+    consumerStep.setTimeTakenMs(1);
+
+    this.activityMap.addActivity(consumerStep);
+
+    assertEquals(1, this.activityMap.getUnknownActivityCount());
+    assertEquals(0, this.activityMap.getFlowActivityIndex().get("consumer").getMessageCount());
+  }
+
+  public void testLazyIndexMatchesCreatorIndex() {
+    ActivityMap copy = new ActivityMap();
+    copy.setAdapters(this.activityMap.getAdapters());
+
+    assertEquals(new ArrayList<>(this.activityMap.getFlowActivityIndex().keySet()),
+        new ArrayList<>(copy.getFlowActivityIndex().keySet()));
+  }
+
   private Adapter buildNestedServiceTestAdapter() {
     Adapter adapter = new Adapter();
     adapter.setUniqueId(ADAPTER_ID);
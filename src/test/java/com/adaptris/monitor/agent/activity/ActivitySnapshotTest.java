@@ -0,0 +1,98 @@
+package com.adaptris.monitor.agent.activity;
+
+import com.adaptris.profiler.MessageProcessStep;
+import com.adaptris.profiler.StepType;
+
+import junit.framework.TestCase;
+
+public class ActivitySnapshotTest extends TestCase {
+
+  private ActivityMap activityMap;
+
+  public void setUp() throws Exception {
+    activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter());
+  }
+
+  public void testSnapshotIsolatedFromLiveMap() throws Exception {
+    activityMap.addActivity(step("service1", 10));
+    activityMap.addActivity(step("service1", 20));
+    activityMap.calculateStatistics();
+
+    ActivitySnapshot snapshot = ActivitySnapshot.capture(activityMap, 1000, 6000);
+
+    activityMap.resetActivity();
+    activityMap.addActivity(step("service1", 500));
+    activityMap.calculateStatistics();
+
+    int ordinal = snapshot.getLayout().ordinalOf("service1");
+    assertEquals(2, snapshot.getMessageCount(ordinal));
+    assertEquals(15, snapshot.getAvgTimeTaken(ordinal));
+    assertEquals(1000, snapshot.getIntervalStartMillis());
+    assertEquals(6000, snapshot.getIntervalEndMillis());
+
+    ActivityMap materialized = snapshot.toActivityMap();
+    assertNotSame(activityMap, materialized);
+    assertNotSame(materialized, snapshot.toActivityMap());
+    ServiceActivity service = (ServiceActivity) materialized.getFlowActivityIndex().get("service1");
+    assertEquals(2, service.getMessageCount());
+    assertEquals(15, service.getAvgMsTaken());
+    assertEquals(10, service.getMinMsTaken());
+    assertEquals(20, service.getMaxMsTaken());
+    assertEquals(2, service.getHistogram().getTotalCount());
+    assertEquals(1, ((ServiceActivity) activityMap.getFlowActivityIndex().get("service1")).getMessageCount());
+
+    materialized.resetActivity();
+    assertEquals(2, ((ServiceActivity) snapshot.toActivityMap().getFlowActivityIndex().get("service1")).getMessageCount());
+  }
+
+  public void testCumulativeCarriedAcrossIntervals() throws Exception {
+    activityMap.addActivity(step("service1", 10));
+    activityMap.calculateStatistics();
+    activityMap.resetActivity();
+    activityMap.addActivity(step("service1", 20));
+    activityMap.addActivity(step("service1", 30));
+    activityMap.calculateStatistics();
+
+    ActivitySnapshot snapshot = ActivitySnapshot.capture(activityMap);
+    int ordinal = snapshot.getLayout().ordinalOf("service1");
+    assertEquals(2, snapshot.getMessageCount(ordinal));
+    assertEquals(3, snapshot.getCumulativeMessageCount(ordinal));
+    assertEquals(60, snapshot.getCumulativeTimeTaken(ordinal));
+    assertEquals(3, snapshot.getCumulativeHistogramBucketEnd(ordinal) - snapshot.getCumulativeHistogramBucketStart(ordinal));
+
+    ServiceActivity service = (ServiceActivity) snapshot.toActivityMap().getFlowActivityIndex().get("service1");
+    assertEquals(3, service.getCumulativeMessageCount());
+    assertEquals(60, service.getCumulativeMsTaken());
+    assertEquals(1, service.getCumulativeCountInBucket(LatencyHistogram.bucketIndex(10)));
+    assertEquals(2, service.getHistogram().getTotalCount());
+  }
+
+  public void testSnapshotsShareLayout() throws Exception {
+    ActivitySnapshot first = ActivitySnapshot.capture(activityMap);
+    ActivitySnapshot second = ActivitySnapshot.capture(activityMap);
+
+    assertSame(first.getLayout(), second.getLayout());
+    assertEquals(3, first.size());
+  }
+
+  public void testLayoutLocatesComponents() throws Exception {
+    ActivitySnapshot.Layout layout = ActivitySnapshot.capture(activityMap).getLayout();
+
+    int service = layout.ordinalOf("service1");
+    assertEquals("adapter", layout.adapterId(service));
+    assertEquals("channel1", layout.channelId(service));
+    assertEquals("workflow1", layout.workflowId(service));
+    assertEquals("service", layout.componentType(service));
+    assertEquals("consumer", layout.componentType(layout.ordinalOf("consumer")));
+    assertEquals("producer", layout.componentType(layout.ordinalOf("producer")));
+  }
+
+  private MessageProcessStep step(String id, long timeTaken) {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId("1");
+    step.setStepInstanceId(id);
+    step.setStepType(StepType.SERVICE);
+    step.setTimeTakenMs(timeTaken);
+    return step;
+  }
+}
@@ -0,0 +1,64 @@
+package com.adaptris.monitor.agent.activity;
+
+import junit.framework.TestCase;
+
+public class BaseFlowActivityTest extends TestCase {
+
+  public void testRunningStatistics() throws Exception {
+    ServiceActivity activity = new ServiceActivity();
+    activity.addTimeTaken(2);
+    activity.addTimeTaken(4);
+    activity.addTimeTaken(4);
+    activity.addTimeTaken(4);
+    activity.addTimeTaken(5);
+    activity.addTimeTaken(5);
+    activity.addTimeTaken(7);
+    activity.addTimeTaken(9);
+    activity.calculateStatistics();
+
+    assertEquals(8, activity.getMessageCount());
+    assertEquals(5, activity.getAvgMsTaken());
+    assertEquals(2, activity.getMinMsTaken());
+    assertEquals(9, activity.getMaxMsTaken());
+    assertEquals(2.0, activity.getStdDevMsTaken(), 0.0001);
+    assertEquals(4, activity.getP50MsTaken());
+    assertEquals(9, activity.getP99MsTaken());
+    assertEquals(9, activity.getP999MsTaken());
+  }
+
+  public void testReset() throws Exception {
+    ProducerActivity activity = new ProducerActivity();
+    activity.addTimeTaken(10);
+    activity.calculateStatistics();
+    activity.resetActivity();
+    activity.addTimeTaken(20);
+    activity.calculateStatistics();
+
+    assertEquals(1, activity.getMessageCount());
+    assertEquals(20, activity.getAvgMsTaken());
+    assertEquals(20, activity.getMinMsTaken());
+    assertEquals(20, activity.getMaxMsTaken());
+    assertEquals(0.0, activity.getStdDevMsTaken(), 0.0001);
+  }
+
+  public void testCumulativeSurvivesReset() throws Exception {
+    ServiceActivity activity = new ServiceActivity();
+    activity.addTimeTaken(10);
+    activity.addTimeTaken(20);
+    activity.calculateStatistics();
+    assertEquals(2, activity.getCumulativeMessageCount());
+    assertEquals(30, activity.getCumulativeMsTaken());
+
+    activity.resetActivity();
+    assertEquals(2, activity.getCumulativeMessageCount());
+    activity.addTimeTaken(40);
+    activity.calculateStatistics();
+
+    assertEquals(1, activity.getMessageCount());
+    assertEquals(3, activity.getCumulativeMessageCount());
+    assertEquals(70, activity.getCumulativeMsTaken());
+    assertEquals(1, activity.getCumulativeCountInBucket(LatencyHistogram.bucketIndex(10)));
+    assertEquals(1, activity.getCumulativeCountInBucket(LatencyHistogram.bucketIndex(40)));
+    assertEquals(0, activity.getHistogram().getCountInBucket(LatencyHistogram.bucketIndex(10)));
+  }
+}
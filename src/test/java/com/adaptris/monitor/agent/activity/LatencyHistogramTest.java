@@ -0,0 +1,64 @@
+package com.adaptris.monitor.agent.activity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+  public void testBucketsAreContiguous() throws Exception {
+    for (int index = 1; index < LatencyHistogram.BUCKET_COUNT; index++) {
+      long lowest = LatencyHistogram.lowestValueInBucket(index);
+      assertEquals(index, LatencyHistogram.bucketIndex(lowest));
+      assertEquals(index - 1, LatencyHistogram.bucketIndex(lowest - 1));
+    }
+    assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    assertEquals(0, LatencyHistogram.bucketIndex(-1));
+  }
+
+  public void testRelativeErrorBounded() throws Exception {
+    for (long value = 1; value < LatencyHistogram.HIGHEST_TRACKABLE_VALUE; value = value * 3 + 7) {
+      long reported = LatencyHistogram.representativeValue(LatencyHistogram.bucketIndex(value));
+      assertTrue("value " + value + " reported as " + reported, Math.abs(reported - value) <= value * 0.035);
+    }
+  }
+
+  public void testPercentiles() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int value = 1; value <= 1000; value++)
+      histogram.recordValue(value);
+
+    assertEquals(1000, histogram.getTotalCount());
+    assertEquals(500, histogram.getValueAtPercentile(50), 500 * 0.035);
+    assertEquals(950, histogram.getValueAtPercentile(95), 950 * 0.035);
+    assertEquals(990, histogram.getValueAtPercentile(99), 990 * 0.035);
+    assertEquals(1, histogram.getValueAtPercentile(0));
+
+    histogram.reset();
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+
+  public void testSerializeCompact() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.recordValue(5);
+    histogram.recordValue(5000);
+    histogram.recordValue(5000000);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(histogram);
+    }
+    assertTrue(bytes.size() < 200);
+
+    LatencyHistogram copy;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (LatencyHistogram) in.readObject();
+    }
+    assertEquals(3, copy.getTotalCount());
+    assertEquals(1, copy.getCountInBucket(LatencyHistogram.bucketIndex(5000)));
+  }
+}
@@ -0,0 +1,51 @@
+package com.adaptris.monitor.agent.activity;
+
+import com.adaptris.profiler.MessageProcessStep;
+import com.adaptris.profiler.StepType;
+
+import junit.framework.TestCase;
+
+public class StreamingActivityAggregatorTest extends TestCase {
+
+  private ActivityMap activityMap;
+
+  private StreamingActivityAggregator aggregator;
+
+  public void setUp() throws Exception {
+    activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter());
+    aggregator = new StreamingActivityAggregator(activityMap);
+  }
+
+  public void testSnapshotAndReset() throws Exception {
+    aggregator.record(step("service1", StepType.SERVICE, 10));
+    aggregator.record(step("service1", StepType.SERVICE, 30));
+    aggregator.record(step("consumer", StepType.CONSUMER, 5));
+    aggregator.record(step("unknown", StepType.SERVICE, 5));
+
+    assertEquals(3, aggregator.snapshot());
+    assertEquals(1, aggregator.getUnknownStepCount());
+
+    WorkflowActivity workflow = ((AdapterActivity) activityMap.getAdapters().get("adapter")).getChannels().get("channel1")
+        .getWorkflows().get("workflow1");
+    ServiceActivity service = workflow.getServices().get("service1");
+    assertEquals(2, service.getMessageCount());
+    assertEquals(20, service.getAvgMsTaken());
+    assertEquals(10, service.getMinMsTaken());
+    assertEquals(30, service.getMaxMsTaken());
+    assertEquals(1, workflow.getConsumerActivity().getMessageCount());
+    assertEquals(0, workflow.getProducerActivity().getMessageCount());
+
+    assertEquals(0, aggregator.snapshot());
+    assertEquals(0, service.getMessageCount());
+    assertEquals(0, service.getAvgMsTaken());
+  }
+
+  private MessageProcessStep step(String id, StepType type, long timeTaken) {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId("1");
+    step.setStepInstanceId(id);
+    step.setStepType(type);
+    step.setTimeTakenMs(timeTaken);
+    return step;
+  }
+}
@@ -0,0 +1,61 @@
+package com.adaptris.monitor.agent.activity;
+
+import com.adaptris.core.Adapter;
+import com.adaptris.core.Channel;
+import com.adaptris.core.NullMessageConsumer;
+import com.adaptris.core.NullMessageProducer;
+import com.adaptris.core.StandardWorkflow;
+import com.adaptris.core.services.LogMessageService;
+
+/**
+ * The adapter most activity tests profile: adapter / channel1 / workflow1, with service1, a consumer and a producer; or
+ * with a given number of services (service0 onwards) and nothing else, for tests that need a larger hierarchy.
+ */
+public final class TestAdapters {
+
+  private TestAdapters() {
+  }
+
+  public static Adapter buildTestAdapter() {
+    return buildTestAdapter("workflow1");
+  }
+
+  public static Adapter buildTestAdapter(String workflowId) {
+    Adapter adapter = new Adapter();
+    adapter.setUniqueId("adapter");
+    Channel channel = new Channel();
+    channel.setUniqueId("channel1");
+    StandardWorkflow workflow = new StandardWorkflow();
+    workflow.setUniqueId(workflowId);
+    LogMessageService service = new LogMessageService();
+    service.setUniqueId("service1");
+    NullMessageConsumer consumer = new NullMessageConsumer();
+    consumer.setUniqueId("consumer");
+    NullMessageProducer producer = new NullMessageProducer();
+    producer.setUniqueId("producer");
+
+    workflow.getServiceCollection().add(service);
+    workflow.setConsumer(consumer);
+    workflow.setProducer(producer);
+    channel.getWorkflowList().add(workflow);
+    adapter.getChannelList().add(channel);
+    return adapter;
+  }
+
+  public static Adapter buildTestAdapter(int services) {
+    Adapter adapter = new Adapter();
+    adapter.setUniqueId("adapter");
+    Channel channel = new Channel();
+    channel.setUniqueId("channel1");
+    StandardWorkflow workflow = new StandardWorkflow();
+    workflow.setUniqueId("workflow1");
+    for (int index = 0; index < services; index++) {
+      LogMessageService service = new LogMessageService();
+      service.setUniqueId("service" + index);
+      workflow.getServiceCollection().add(service);
+    }
+    channel.getWorkflowList().add(workflow);
+    adapter.getChannelList().add(channel);
+    return adapter;
+  }
+}
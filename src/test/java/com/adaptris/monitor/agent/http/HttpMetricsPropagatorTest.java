@@ -0,0 +1,111 @@
+package com.adaptris.monitor.agent.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.ProducerActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+import junit.framework.TestCase;
+
+public class HttpMetricsPropagatorTest extends TestCase {
+
+  private HttpMetricsPropagator propagator;
+
+  public void setUp() throws Exception {
+    propagator = new HttpMetricsPropagator(EventMonitorReceiver.getInstance(),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), "/metrics");
+    propagator.startPropagator();
+  }
+
+  public void tearDown() throws Exception {
+    propagator.stopPropagator();
+  }
+
+  public void testScrape() throws Exception {
+    assertEquals("# EOF\n", scrape());
+
+    ActivityMap activityMap = buildActivityMap();
+    ((ConsumerActivity) activityMap.getFlowActivityIndex().get("consumer")).addTimeTaken(7);
+    activityMap.calculateStatistics();
+    propagator.propagateProcessEvent(activityMap);
+
+    String document = scrape();
+    assertTrue(document, document.contains(
+        "interlok_profiler_interval_messages{adapter=\"adapter\",channel=\"channel\",workflow=\"workflow\",component=\"consumer\",type=\"consumer\"} 1\n"));
+    assertTrue(document, document.endsWith("# EOF\n"));
+  }
+
+  public void testIdleAdapterScrapesZero() throws Exception {
+    ActivityMap activityMap = buildActivityMap();
+    ((ConsumerActivity) activityMap.getFlowActivityIndex().get("consumer")).addTimeTaken(7);
+    activityMap.calculateStatistics();
+    long idleSince = System.currentTimeMillis() - 3 * propagator.getIntervalMs();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap, idleSince - propagator.getIntervalMs(), idleSince));
+
+    String document = scrape();
+    assertTrue(document, document.contains("component=\"consumer\",type=\"consumer\"} 0\n"));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds_count{adapter=\"adapter\",channel=\"channel\",workflow=\"workflow\",component=\"consumer\",type=\"consumer\"} 1\n"));
+  }
+
+  public void testServesAgainAfterRestart() throws Exception {
+    propagator.stopPropagator();
+    propagator.startPropagator();
+
+    assertEquals("# EOF\n", scrape());
+  }
+
+  public void testRejectsPost() throws Exception {
+    HttpURLConnection connection = connect();
+    connection.setRequestMethod("POST");
+    assertEquals(405, connection.getResponseCode());
+  }
+
+  private String scrape() throws Exception {
+    HttpURLConnection connection = connect();
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(OpenMetricsWriter.CONTENT_TYPE, connection.getContentType());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = connection.getInputStream()) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) > 0)
+        out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private HttpURLConnection connect() throws Exception {
+    InetSocketAddress address = propagator.getAddress();
+    return (HttpURLConnection) new URL("http", address.getHostString(), address.getPort(), "/metrics").openConnection();
+  }
+
+  private static ActivityMap buildActivityMap() {
+    WorkflowActivity workflow = new WorkflowActivity();
+    workflow.setUniqueId("workflow");
+    workflow.setConsumerActivity(new ConsumerActivity());
+    workflow.getConsumerActivity().setUniqueId("consumer");
+    workflow.setProducerActivity(new ProducerActivity());
+    workflow.getProducerActivity().setUniqueId("producer");
+    ChannelActivity channel = new ChannelActivity();
+    channel.setUniqueId("channel");
+    channel.getWorkflows().put(workflow.getUniqueId(), workflow);
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId("adapter");
+    adapter.addChannelActivity(channel);
+    ActivityMap activityMap = new ActivityMap();
+    activityMap.getAdapters().put("adapter", adapter);
+    return activityMap;
+  }
+}
@@ -0,0 +1,77 @@
+package com.adaptris.monitor.agent.http;
+
+import java.nio.charset.StandardCharsets;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+
+import junit.framework.TestCase;
+
+public class OpenMetricsWriterTest extends TestCase {
+
+  private static final String SERVICE_LABELS = "{adapter=\"adapter\",channel=\"channel1\",workflow=\"workflow \\\"1\\\"\",component=\"service1\",type=\"service\"";
+
+  private ActivityMap activityMap;
+
+  public void setUp() throws Exception {
+    activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter("workflow \"1\""));
+  }
+
+  public void testWritesEveryComponent() throws Exception {
+    ServiceActivity service = (ServiceActivity) activityMap.getFlowActivityIndex().get("service1");
+    service.addTimeTaken(10);
+    service.addTimeTaken(30);
+    activityMap.calculateStatistics();
+
+    OpenMetricsWriter writer = new OpenMetricsWriter();
+    String document = text(writer, ActivitySnapshot.capture(activityMap));
+
+    assertTrue(document, document.contains("# TYPE interlok_profiler_time_taken_milliseconds summary\n"));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds" + SERVICE_LABELS + ",quantile=\"0.5\"} "));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds_count" + SERVICE_LABELS + "} 2\n"));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds_sum" + SERVICE_LABELS + "} 40\n"));
+    assertTrue(document, document.contains("interlok_profiler_interval_messages" + SERVICE_LABELS + "} 2\n"));
+    assertTrue(document, document.contains("interlok_profiler_interval_max_time_taken_milliseconds" + SERVICE_LABELS + "} 30\n"));
+    assertTrue(document, document.contains("component=\"consumer\",type=\"consumer\"} 0\n"));
+    assertTrue(document, document.endsWith("\n# EOF\n"));
+  }
+
+  public void testIdleIntervalWritesZeros() throws Exception {
+    ServiceActivity service = (ServiceActivity) activityMap.getFlowActivityIndex().get("service1");
+    service.addTimeTaken(10);
+    activityMap.calculateStatistics();
+
+    String document = text(new OpenMetricsWriter(), ActivitySnapshot.capture(activityMap), true);
+
+    assertTrue(document, document.contains("interlok_profiler_interval_messages" + SERVICE_LABELS + "} 0\n"));
+    assertTrue(document, document.contains("interlok_profiler_interval_max_time_taken_milliseconds" + SERVICE_LABELS + "} 0\n"));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds" + SERVICE_LABELS + ",quantile=\"0.99\"} 0\n"));
+    assertTrue(document, document.contains("interlok_profiler_time_taken_milliseconds_count" + SERVICE_LABELS + "} 1\n"));
+  }
+
+  public void testReusesBuffer() throws Exception {
+    OpenMetricsWriter writer = new OpenMetricsWriter();
+    String first = text(writer, ActivitySnapshot.capture(activityMap));
+    byte[] array = writer.array();
+    String second = text(writer, ActivitySnapshot.capture(activityMap));
+
+    assertEquals(first, second);
+    assertSame(array, writer.array());
+  }
+
+  public void testEmpty() throws Exception {
+    assertEquals("# EOF\n", text(new OpenMetricsWriter(), null));
+  }
+
+  private static String text(OpenMetricsWriter writer, ActivitySnapshot snapshot) {
+    return text(writer, snapshot, false);
+  }
+
+  private static String text(OpenMetricsWriter writer, ActivitySnapshot snapshot, boolean idle) {
+    int length = writer.write(snapshot, idle);
+    return new String(writer.array(), 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -1,8 +1,20 @@
 package com.adaptris.monitor.agent.jmx;
 
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import com.adaptris.monitor.agent.EventMonitorReceiver;
 import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
 import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.ProducerActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
 
 import junit.framework.TestCase;
 
@@ -30,9 +42,86 @@ public class JmxEventPropagatorTest extends TestCase {
     assertNotNull(propagator.getEventMBean().getEventActivityMap());
   }
 
+  public void testHistoryIsNotLive() throws Exception {
+    ActivityMap activityMap = new ActivityMap();
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(ADAPTER);
+    activityMap.getAdapters().put(ADAPTER, adapter);
+
+    propagator.propagateProcessEvent(activityMap);
+    propagator.propagateProcessEvent(activityMap);
+
+    ActivityMap first = propagator.getEventMBean().getEventActivityMap();
+    ActivityMap second = propagator.getEventMBean().getEventActivityMap();
+    assertNotSame(activityMap, first);
+    assertNotSame(first, second);
+    assertEquals(ADAPTER, first.getAdapters().get(ADAPTER).getUniqueId());
+  }
+
   public void testSettingMaxHistory() throws Exception {
     propagator.getEventMBean().setMaxEventHistory(64);
     
     assertEquals(64, propagator.getEventMBean().maxEventHistory());
   }
+
+  public void testComponentMBeans() throws Exception {
+    ServiceActivity service = new ServiceActivity();
+    service.setUniqueId("service:1");
+    WorkflowActivity workflow = new WorkflowActivity();
+    workflow.setUniqueId("workflow");
+    workflow.addServiceActivity(service);
+    workflow.setConsumerActivity(new ConsumerActivity());
+    workflow.getConsumerActivity().setUniqueId("consumer");
+    workflow.setProducerActivity(new ProducerActivity());
+    workflow.getProducerActivity().setUniqueId("producer");
+    ChannelActivity channel = new ChannelActivity();
+    channel.setUniqueId("channel");
+    channel.getWorkflows().put(workflow.getUniqueId(), workflow);
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(ADAPTER);
+    adapter.addChannelActivity(channel);
+    ActivityMap activityMap = new ActivityMap();
+    activityMap.getAdapters().put(ADAPTER, adapter);
+    service.addTimeTaken(10);
+    service.addTimeTaken(20);
+    activityMap.calculateStatistics();
+
+    propagator.propagateProcessEvent(activityMap);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    Set<ObjectName> names = server.queryNames(new ObjectName("com.adaptris:type=ProfiledComponent,adapter=" + ADAPTER + ",*"), null);
+    assertEquals(3, names.size());
+    ObjectName name = new ObjectName("com.adaptris:type=ProfiledComponent,adapter=adapter,channel=channel,workflow=workflow,component="
+        + ObjectName.quote("service:1"));
+    assertTrue(names.contains(name));
+    assertEquals(2L, server.getAttribute(name, "MessageCount"));
+    assertEquals(15L, server.getAttribute(name, "AvgMsTaken"));
+    assertEquals("service", server.getAttribute(name, "ComponentType"));
+
+    activityMap.resetActivity();
+    service.addTimeTaken(30);
+    activityMap.calculateStatistics();
+    propagator.propagateProcessEvent(activityMap);
+    assertEquals(1L, server.getAttribute(name, "MessageCount"));
+    assertEquals(3L, server.getAttribute(name, "CumulativeMessageCount"));
+
+    // The last busy interval ended long enough ago that nothing has happened since.
+    long idleSince = System.currentTimeMillis() - 3 * propagator.getIntervalMs();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap, idleSince - propagator.getIntervalMs(), idleSince));
+    assertEquals(0L, server.getAttribute(name, "MessageCount"));
+    assertEquals(0.0, server.getAttribute(name, "MessagesPerSecond"));
+    assertEquals(0L, server.getAttribute(name, "P99MsTaken"));
+    assertEquals(3L, server.getAttribute(name, "CumulativeMessageCount"));
+
+    propagator.stop();
+    assertFalse(server.isRegistered(name));
+
+    // An interval that was still in flight when the propagator stopped.
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+    assertFalse(server.isRegistered(name));
+
+    propagator.start();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+    assertTrue(server.isRegistered(name));
+  }
 }
@@ -0,0 +1,173 @@
+package com.adaptris.monitor.agent.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+import junit.framework.TestCase;
+
+public class ProfilerEventClientTest extends TestCase {
+
+  private ProfilerEventClient client;
+
+  public void setUp() throws Exception {
+    client = new ProfilerEventClient();
+    client.setMaxEventHistory(4);
+  }
+
+  public void testIndependentCursors() throws Exception {
+    add("a");
+    add("b");
+    add("c");
+
+    EventBatch dashboard = client.getEventsSince(0, 10);
+    EventBatch scraper = client.getEventsSince(0, 2);
+    assertEquals(3, dashboard.getEvents().size());
+    assertEquals(3, dashboard.getNextSequence());
+    assertEquals(2, scraper.getEvents().size());
+    assertTrue(scraper.getEvents().get(1).getAdapters().containsKey("b"));
+
+    add("d");
+    EventBatch next = client.getEventsSince(scraper.getNextSequence(), 10);
+    assertEquals(2, next.getFirstSequence());
+    assertEquals(2, next.getEvents().size());
+    assertTrue(next.getEvents().get(1).getAdapters().containsKey("d"));
+    assertEquals(0, client.getEventsSince(client.getNextSequence(), 10).getEvents().size());
+  }
+
+  public void testMissedWhenHistoryOverwritten() throws Exception {
+    for (int index = 0; index < 6; index++)
+      add("adapter" + index);
+
+    EventBatch batch = client.getEventsSince(1, 10);
+    assertEquals(2, batch.getFirstSequence());
+    assertEquals(1, batch.getMissedCount());
+    assertEquals(4, batch.getEvents().size());
+    assertTrue(batch.getEvents().get(0).getAdapters().containsKey("adapter2"));
+
+    EventBatch fromOldest = client.getEventsSince(0, 10);
+    assertEquals(2, fromOldest.getFirstSequence());
+    assertEquals(0, fromOldest.getMissedCount());
+    assertFalse(fromOldest.isReset());
+  }
+
+  public void testCursorAheadOfRestartedHistory() throws Exception {
+    for (int index = 0; index < 6; index++)
+      add("adapter" + index);
+    long cursor = client.getEventsSince(0, 10).getNextSequence();
+
+    client = new ProfilerEventClient();
+    client.setMaxEventHistory(4);
+    add("restarted");
+    EventBatch batch = client.getEventsSince(cursor, 10);
+    assertTrue(batch.isReset());
+    assertEquals(0, batch.getFirstSequence());
+    assertEquals(0, batch.getMissedCount());
+    assertEquals(1, batch.getEvents().size());
+    assertEquals(1, batch.getNextSequence());
+    assertFalse(client.getEventsSince(batch.getNextSequence(), 10).isReset());
+  }
+
+  public void testPollingDoesNotAffectCursors() throws Exception {
+    add("a");
+    add("b");
+    assertEquals(2, client.getEventCount());
+
+    assertTrue(client.getEventActivityMap().getAdapters().containsKey("a"));
+    assertEquals(1, client.getEventCount());
+    assertTrue(client.getEventActivityMap().getAdapters().containsKey("b"));
+    assertNull(client.getEventActivityMap());
+    assertEquals(0, client.getEventCount());
+
+    assertEquals(2, client.getEventsSince(0, 10).getEvents().size());
+  }
+
+  public void testPollingSkipsOverwrittenEvents() throws Exception {
+    for (int index = 0; index < 6; index++)
+      add("adapter" + index);
+
+    assertEquals(4, client.getEventCount());
+    assertTrue(client.getEventActivityMap().getAdapters().containsKey("adapter2"));
+  }
+
+  public void testNotificationsFilteredByComponent() throws Exception {
+    List<Notification> everything = new ArrayList<>();
+    List<Notification> filtered = new ArrayList<>();
+    NotificationListener filteredListener = (notification, handback) -> filtered.add(notification);
+    client.addNotificationListener((notification, handback) -> everything.add(notification), null, null);
+    ComponentNotificationFilter filter = new ComponentNotificationFilter("service-b");
+    client.addNotificationListener(filteredListener, filter, null);
+
+    client.addEventSnapshot(activeSnapshot());
+
+    assertEquals(3, everything.size());
+    assertEquals(ProfilerEventClient.INTERVAL_NOTIFICATION, everything.get(0).getType());
+    CompositeData interval = (CompositeData) everything.get(0).getUserData();
+    assertEquals(4L, interval.get("totalMessageCount"));
+    assertEquals(2, interval.get("activeComponentCount"));
+    assertEquals(1, filtered.size());
+    CompositeData component = (CompositeData) filtered.get(0).getUserData();
+    assertEquals("service-b", component.get(ComponentStatistics.UNIQUE_ID));
+    assertEquals(3L, component.get("messageCount"));
+    assertEquals(3L, component.get("cumulativeMessageCount"));
+
+    client.removeNotificationListener(filteredListener, filter, null);
+    filter.setIncludeIntervals(true);
+    client.addNotificationListener(filteredListener, filter, null);
+    client.addEventSnapshot(activeSnapshot());
+    assertEquals(3, filtered.size());
+    assertEquals(ProfilerEventClient.INTERVAL_NOTIFICATION, filtered.get(1).getType());
+  }
+
+  public void testNoNotificationsAfterRemoval() throws Exception {
+    List<Notification> received = new ArrayList<>();
+    NotificationListener listener = (notification, handback) -> received.add(notification);
+    client.addNotificationListener(listener, null, null);
+    client.removeNotificationListener(listener);
+
+    client.addEventSnapshot(activeSnapshot());
+    assertEquals(0, received.size());
+    assertEquals(1, client.getEventCount());
+  }
+
+  private static ActivitySnapshot activeSnapshot() {
+    WorkflowActivity workflow = new WorkflowActivity();
+    workflow.setUniqueId("workflow");
+    for (String serviceId : new String[] { "service-a", "service-b", "service-c" }) {
+      ServiceActivity service = new ServiceActivity();
+      service.setUniqueId(serviceId);
+      workflow.addServiceActivity(service);
+    }
+    ((ServiceActivity) workflow.getServices().get("service-a")).addTimeTaken(5);
+    for (int index = 0; index < 3; index++)
+      ((ServiceActivity) workflow.getServices().get("service-b")).addTimeTaken(10);
+    ChannelActivity channel = new ChannelActivity();
+    channel.setUniqueId("channel");
+    channel.getWorkflows().put(workflow.getUniqueId(), workflow);
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId("adapter");
+    adapter.addChannelActivity(channel);
+    ActivityMap activityMap = new ActivityMap();
+    activityMap.getAdapters().put("adapter", adapter);
+    activityMap.calculateStatistics();
+    return ActivitySnapshot.capture(activityMap);
+  }
+
+  private void add(String adapterId) {
+    ActivityMap activityMap = new ActivityMap();
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(adapterId);
+    activityMap.getAdapters().put(adapterId, adapter);
+    client.addEventActivityMap(activityMap);
+  }
+}
@@ -0,0 +1,100 @@
+package com.adaptris.monitor.agent.json;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.ChannelActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.ProducerActivity;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+
+import junit.framework.TestCase;
+
+public class ActivityJsonWriterTest extends TestCase {
+
+  private static final String TIMESTAMP_PATTERN = "\"datetimestamp\":\"[^\"]*\"";
+
+  private EventJsonMarshaller marshaller;
+
+  public void setUp() throws Exception {
+    marshaller = new EventJsonMarshaller();
+  }
+
+  public void testMatchesGson() throws Exception {
+    ActivityMap activityMap = buildActivityMap("adapter", "service");
+    ServiceActivity service = (ServiceActivity) activityMap.getFlowActivityIndex().get("service");
+    service.addTimeTaken(10);
+    service.addTimeTaken(30);
+    ProducerActivity producer = (ProducerActivity) activityMap.getFlowActivityIndex().get("producer");
+    producer.addTimeTaken(5);
+    activityMap.calculateStatistics();
+
+    assertSameDocument(marshaller.marshallToJson(activityMap), marshaller.marshallToJsonBytes(activityMap));
+  }
+
+  public void testEscapingMatchesGson() throws Exception {
+    ActivityMap activityMap = buildActivityMap("adapter \"<1>\" & 'b'=\u00e9\u20ac\ud83d\ude00", "tab\tnew\nline\\\u2028\u0001");
+
+    assertSameDocument(marshaller.marshallToJson(activityMap), marshaller.marshallToJsonBytes(activityMap));
+  }
+
+  public void testMissingMembersMatchGson() throws Exception {
+    ActivityMap activityMap = buildActivityMap("adapter", "service");
+    WorkflowActivity workflow = ((AdapterActivity) activityMap.getAdapters().get("adapter")).getChannels().get("channel")
+        .getWorkflows().get("workflow");
+    workflow.setProducerActivity(null);
+    workflow.getConsumerActivity().setUniqueId(null);
+    activityMap.getAdapters().put("empty", null);
+
+    assertSameDocument(marshaller.marshallToJson(activityMap), marshaller.marshallToJsonBytes(activityMap));
+  }
+
+  public void testReusableBuffer() throws Exception {
+    ActivityJsonWriter writer = new ActivityJsonWriter();
+    int first = writer.write(buildActivityMap("a-much-longer-adapter-name", "service"), "now");
+    int second = writer.write(buildActivityMap("a", "s"), "now");
+
+    assertTrue(second < first);
+    String json = new String(writer.array(), 0, second, StandardCharsets.UTF_8);
+    assertTrue(json, json.startsWith("{\"datetimestamp\":\"now\",\"adapters\":{\"a\":"));
+    assertTrue(json, json.endsWith("}"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(buildActivityMap("a", "s"), "now", out);
+    assertEquals(json, new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  private static void assertSameDocument(String expected, byte[] actual) {
+    assertEquals(expected.replaceFirst(TIMESTAMP_PATTERN, ""),
+        new String(actual, StandardCharsets.UTF_8).replaceFirst(TIMESTAMP_PATTERN, ""));
+  }
+
+  private static ActivityMap buildActivityMap(String adapterId, String serviceId) {
+    ServiceActivity nested = new ServiceActivity();
+    nested.setUniqueId(serviceId + "-nested");
+    ServiceActivity service = new ServiceActivity();
+    service.setUniqueId(serviceId);
+    service.getServices().put(nested.getUniqueId(), nested);
+    ConsumerActivity consumer = new ConsumerActivity();
+    consumer.setUniqueId("consumer");
+    ProducerActivity producer = new ProducerActivity();
+    producer.setUniqueId("producer");
+    WorkflowActivity workflow = new WorkflowActivity();
+    workflow.setUniqueId("workflow");
+    workflow.addServiceActivity(service);
+    workflow.setConsumerActivity(consumer);
+    workflow.setProducerActivity(producer);
+    ChannelActivity channel = new ChannelActivity();
+    channel.setUniqueId("channel");
+    channel.getWorkflows().put(workflow.getUniqueId(), workflow);
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(adapterId);
+    adapter.addChannelActivity(channel);
+    ActivityMap activityMap = new ActivityMap();
+    activityMap.getAdapters().put(adapterId, adapter);
+    return activityMap;
+  }
+}
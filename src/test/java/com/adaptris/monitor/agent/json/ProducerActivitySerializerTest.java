@@ -18,12 +18,18 @@ public class ProducerActivitySerializerTest extends TestCase {
     producerActivity.setUniqueId("consumer-activity");
     producerActivity.setMessageCount(10);
     producerActivity.setAvgMsTaken(1000);
+    producerActivity.setMinMsTaken(500);
+    producerActivity.setMaxMsTaken(1500);
+    producerActivity.setStdDevMsTaken(250.5);
     
     JsonObject json = (JsonObject) serializer.serialize(producerActivity, null, null);
     
     assertEquals("consumer-activity", json.get("uniqueId").getAsString());
     assertEquals(10, json.get("msgCount").getAsInt());
     assertEquals(1000, json.get("averageTimeTaken").getAsLong());
+    assertEquals(500, json.get("minTimeTaken").getAsLong());
+    assertEquals(1500, json.get("maxTimeTaken").getAsLong());
+    assertEquals(250.5, json.get("stdDevTimeTaken").getAsDouble(), 0.0001);
   }
 
 }
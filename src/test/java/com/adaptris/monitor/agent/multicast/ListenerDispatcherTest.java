@@ -0,0 +1,130 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.adaptris.monitor.agent.EventReceiverListener;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+
+import junit.framework.TestCase;
+
+public class ListenerDispatcherTest extends TestCase {
+
+  private BlockingListener listener;
+
+  private ListenerDispatcher dispatcher;
+
+  public void setUp() throws Exception {
+    listener = new BlockingListener();
+  }
+
+  public void tearDown() throws Exception {
+    listener.release.countDown();
+    dispatcher.stop();
+  }
+
+  public void testDropOldest() throws Exception {
+    dispatcher = start(OverflowPolicy.DROP_OLDEST, 2);
+    ActivityMap first = map("a");
+    dispatcher.dispatch(first);
+    assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+    dispatcher.dispatch(map("b"));
+    dispatcher.dispatch(map("c"));
+    dispatcher.dispatch(map("d"));
+
+    assertEquals(2, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getDroppedCount());
+    listener.release.countDown();
+    awaitDelivered(3);
+    assertSame(first, listener.received.get(0));
+    assertEquals("c", adapter(listener.received.get(1)));
+    assertEquals("d", adapter(listener.received.get(2)));
+  }
+
+  public void testCoalescePerAdapter() throws Exception {
+    dispatcher = start(OverflowPolicy.COALESCE, 10);
+    dispatcher.dispatch(map("a"));
+    assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+    dispatcher.dispatch(map("b"));
+    dispatcher.dispatch(map("c"));
+    ActivityMap latest = map("b");
+    dispatcher.dispatch(latest);
+
+    assertEquals(2, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getCoalescedCount());
+    listener.release.countDown();
+    awaitDelivered(3);
+    assertSame(latest, listener.received.get(1));
+    assertEquals("c", adapter(listener.received.get(2)));
+  }
+
+  public void testBlockWaitsForListener() throws Exception {
+    dispatcher = start(OverflowPolicy.BLOCK, 1);
+    dispatcher.dispatch(map("a"));
+    assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+    dispatcher.dispatch(map("b"));
+
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+      }
+      listener.release.countDown();
+    });
+    releaser.start();
+    long start = System.currentTimeMillis();
+    dispatcher.dispatch(map("c"));
+    assertTrue(System.currentTimeMillis() - start >= 150);
+    awaitDelivered(3);
+    assertEquals(0, dispatcher.getDroppedCount());
+    assertTrue(dispatcher.getMaxLagMillis() >= 150);
+  }
+
+  private ListenerDispatcher start(OverflowPolicy policy, int capacity) {
+    ListenerDispatcher result = new ListenerDispatcher(listener, policy, capacity);
+    result.start();
+    return result;
+  }
+
+  private void awaitDelivered(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dispatcher.getDeliveredCount() < count && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertEquals(count, dispatcher.getDeliveredCount());
+  }
+
+  private static ActivityMap map(String adapterId) {
+    ActivityMap activityMap = new ActivityMap();
+    AdapterActivity adapter = new AdapterActivity();
+    adapter.setUniqueId(adapterId);
+    activityMap.getAdapters().put(adapterId, adapter);
+    return activityMap;
+  }
+
+  private static String adapter(ActivityMap activityMap) {
+    return activityMap.getAdapters().keySet().iterator().next();
+  }
+
+  private static class BlockingListener implements EventReceiverListener {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<ActivityMap> received = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void eventReceived(ActivityMap activityMap) {
+      received.add(activityMap);
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+import com.adaptris.core.Adapter;
+import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+import com.adaptris.monitor.agent.wire.DatagramChunker;
+import com.adaptris.monitor.agent.wire.ActivityPacketReader;
+import com.adaptris.monitor.agent.wire.ChunkAssembler;
+import com.adaptris.monitor.agent.wire.PayloadCompression;
+import com.adaptris.monitor.agent.wire.WireFormat;
+
+import junit.framework.TestCase;
+
+public class MulticastEventPropagatorTest extends TestCase {
+
+  private DatagramSocket socket;
+
+  private MulticastEventPropagator propagator;
+
+  public void setUp() throws Exception {
+    socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    socket.setSoTimeout(5000);
+    propagator = new MulticastEventPropagator(EventMonitorReceiver.getInstance());
+    // Any address will do for the channel; loopback unicast keeps the test independent of multicast routing.
+    propagator.setGroup(InetAddress.getLoopbackAddress().getHostAddress());
+    propagator.setPort(socket.getLocalPort());
+    propagator.setWireFormat(WireFormat.BINARY);
+  }
+
+  public void tearDown() throws Exception {
+    propagator.stopPropagator();
+    socket.close();
+  }
+
+  public void testSendsSnapshots() throws Exception {
+    propagator.setCompression(PayloadCompression.DEFLATE);
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    ActivityMap activityMap = buildActivityMap();
+
+    for (int interval = 0; interval < 3; interval++) {
+      propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+
+      DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+      socket.receive(packet);
+      ActivityMap received = reader.read(packet);
+      assertNotNull(received);
+      assertTrue(received.getAdapters().containsKey("adapter"));
+    }
+  }
+
+  public void testDefaultSendsSingleJavaDatagram() throws Exception {
+    MulticastEventPropagator defaultPropagator = new MulticastEventPropagator(EventMonitorReceiver.getInstance());
+    defaultPropagator.setGroup(InetAddress.getLoopbackAddress().getHostAddress());
+    defaultPropagator.setPort(socket.getLocalPort());
+    assertEquals(WireFormat.JAVA, defaultPropagator.getWireFormat());
+    try {
+      ActivityMap activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter());
+      defaultPropagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+
+      DatagramPacket packet = new DatagramPacket(new byte[MulticastEventReceiver.STANDARD_PACKET_SIZE],
+          MulticastEventReceiver.STANDARD_PACKET_SIZE);
+      socket.receive(packet);
+      assertTrue(packet.getLength() > DatagramChunker.DEFAULT_MAX_DATAGRAM_SIZE);
+      try (ObjectInputStream iStream = new ObjectInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()))) {
+        ActivityMap received = (ActivityMap) iStream.readObject();
+        assertTrue(received.getAdapters().containsKey("adapter"));
+      }
+    } finally {
+      defaultPropagator.stopPropagator();
+    }
+  }
+
+  public void testReopensAfterStop() throws Exception {
+    ActivityMap activityMap = buildActivityMap();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+    propagator.stopPropagator();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+
+    DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+    socket.receive(packet);
+    socket.receive(packet);
+  }
+
+  public void testCompressionSurvivesStop() throws Exception {
+    propagator.setCompression(PayloadCompression.DEFLATE);
+    propagator.setCompressionKeyframeInterval(1);
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    ActivityMap activityMap = buildActivityMap();
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+    propagator.stopPropagator();
+
+    assertEquals(PayloadCompression.DEFLATE, propagator.getCompression());
+    assertEquals(1, propagator.getCompressionKeyframeInterval());
+    propagator.propagateSnapshot(ActivitySnapshot.capture(activityMap));
+    for (int index = 0; index < 2; index++) {
+      DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+      socket.receive(packet);
+      assertNotNull(reader.read(packet));
+    }
+  }
+
+  private ActivityMap buildActivityMap() {
+    Adapter adapter = new Adapter();
+    adapter.setUniqueId("adapter");
+    return new AdapterInstanceActivityMapCreator().createBaseMap(adapter);
+  }
+}
@@ -0,0 +1,86 @@
+package com.adaptris.monitor.agent.multicast;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+public class NioMulticastSocketReceiverTest extends TestCase {
+
+  private static final String GROUP = "224.0.0.4";
+
+  private NioMulticastSocketReceiver receiver;
+
+  private DatagramSocket sender;
+
+  private int port;
+
+  public void setUp() throws Exception {
+    receiver = new NioMulticastSocketReceiver(new DatagramBufferPool(2));
+    receiver.setReceiveBufferSize(256 * 1024);
+    port = freePort();
+    receiver.connect(GROUP, port, true, 2000);
+    sender = new DatagramSocket();
+  }
+
+  public void tearDown() throws Exception {
+    receiver.disconnect();
+    sender.close();
+  }
+
+  // The channels are bound to the wildcard address, so unicast datagrams to the port arrive too.
+  public void testReceiveAndRelease() throws Exception {
+    send(new byte[100], port);
+    DatagramPacket packet = receiver.receive(1000);
+
+    assertEquals(100, packet.getLength());
+    assertNotNull(packet.getSocketAddress());
+    assertEquals(1, receiver.getPacketCount());
+    assertEquals(100, receiver.getByteCount());
+    assertEquals(0, receiver.getTruncationCount());
+
+    receiver.release(packet);
+    assertEquals(1, receiver.getBufferPool().available());
+    send(new byte[10], port);
+    assertSame(packet.getData(), receiver.receive(1000).getData());
+  }
+
+  public void testTruncation() throws Exception {
+    send(new byte[500], port);
+    DatagramPacket packet = receiver.receive(100);
+
+    assertEquals(100, packet.getLength());
+    assertEquals(1, receiver.getTruncationCount());
+  }
+
+  public void testSeveralPortsOneThread() throws Exception {
+    int otherPort = freePort();
+    receiver.connect(GROUP, otherPort, true, 2000);
+    send(new byte[1], port);
+    send(new byte[2], otherPort);
+
+    int total = receiver.receive(1000).getLength() + receiver.receive(1000).getLength();
+    assertEquals(3, total);
+  }
+
+  public void testTimeout() throws Exception {
+    try {
+      receiver.receive(1000);
+      fail();
+    } catch (SocketTimeoutException expected) {
+    }
+  }
+
+  private void send(byte[] data, int port) throws Exception {
+    sender.send(new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), port));
+  }
+
+  private static int freePort() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
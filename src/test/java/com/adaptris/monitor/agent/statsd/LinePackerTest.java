@@ -0,0 +1,46 @@
+package com.adaptris.monitor.agent.statsd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LinePackerTest extends TestCase {
+
+  private List<String> packets;
+
+  private LinePacker packer;
+
+  public void setUp() throws Exception {
+    packets = new ArrayList<>();
+    packer = new LinePacker(16, (data, length) -> packets.add(new String(data, 0, length, StandardCharsets.US_ASCII)));
+  }
+
+  public void testPacksWholeLines() throws Exception {
+    packer.append(ascii("a:")).append(1).endLine();
+    packer.append(ascii("b:")).append(-22).endLine();
+    packer.append(ascii("c:")).append(3333).endLine();
+    packer.flush();
+
+    assertEquals(2, packets.size());
+    assertEquals("a:1\nb:-22\n", packets.get(0));
+    assertEquals("c:3333\n", packets.get(1));
+    assertEquals(3, packer.getLineCount());
+  }
+
+  public void testOversizedLineSentAlone() throws Exception {
+    packer.append(ascii("a:")).append(1).endLine();
+    packer.append(ascii("a-very-long-name:")).append(123456789L).endLine();
+    packer.append(ascii("b:")).append(2).endLine();
+    packer.flush();
+
+    assertEquals(3, packets.size());
+    assertEquals("a-very-long-name:123456789\n", packets.get(1));
+    assertEquals("b:2\n", packets.get(2));
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+}
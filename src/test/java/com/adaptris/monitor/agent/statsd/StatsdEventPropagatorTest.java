@@ -0,0 +1,101 @@
+package com.adaptris.monitor.agent.statsd;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.adaptris.core.Adapter;
+import com.adaptris.monitor.agent.EventMonitorReceiver;
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.ServiceActivity;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+
+import junit.framework.TestCase;
+
+public class StatsdEventPropagatorTest extends TestCase {
+
+  private static final int SERVICES = 40;
+
+  private DatagramSocket socket;
+
+  public void setUp() throws Exception {
+    socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    socket.setSoTimeout(5000);
+  }
+
+  public void tearDown() throws Exception {
+    socket.close();
+  }
+
+  public void testStatsdLinesPackedIntoDatagrams() throws Exception {
+    StatsdEventPropagator propagator = createPropagator(LineProtocol.STATSD);
+    try {
+      propagator.propagateSnapshot(ActivitySnapshot.capture(buildActivityMap(), 1000, 61000));
+
+      List<String> lines = receiveLines(propagator);
+      assertEquals(SERVICES * 9, lines.size());
+      assertEquals(SERVICES * 9, propagator.getLineCount());
+      assertTrue(lines.contains("interlok.profiler.adapter.channel_1.workflow1.service0.messages:2|c"));
+      assertTrue(lines.contains("interlok.profiler.adapter.channel_1.workflow1.service0.max_ms:20|g"));
+      assertTrue(lines.contains("interlok.profiler.adapter.channel_1.workflow1.service39.cumulative_ms:30|g"));
+    } finally {
+      propagator.stopPropagator();
+    }
+  }
+
+  public void testGraphiteLines() throws Exception {
+    StatsdEventPropagator propagator = createPropagator(LineProtocol.GRAPHITE);
+    try {
+      propagator.setPrefix("test");
+      propagator.propagateSnapshot(ActivitySnapshot.capture(buildActivityMap(), 1000, 61000));
+
+      List<String> lines = receiveLines(propagator);
+      assertTrue(lines.contains("test.adapter.channel_1.workflow1.service7.avg_ms 15 61"));
+    } finally {
+      propagator.stopPropagator();
+    }
+  }
+
+  private StatsdEventPropagator createPropagator(LineProtocol protocol) throws Exception {
+    StatsdEventPropagator propagator = new StatsdEventPropagator(EventMonitorReceiver.getInstance(), protocol);
+    propagator.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+    propagator.setPort(socket.getLocalPort());
+    return propagator;
+  }
+
+  // Every datagram must be within the limit and hold only whole lines.
+  private List<String> receiveLines(StatsdEventPropagator propagator) throws Exception {
+    assertTrue(propagator.getPacketCount() > 1);
+    assertTrue(propagator.getPacketCount() < propagator.getLineCount() / 4);
+    List<String> lines = new ArrayList<>();
+    for (long packetIndex = 0; packetIndex < propagator.getPacketCount(); packetIndex++) {
+      DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+      socket.receive(packet);
+      assertTrue(packet.getLength() <= propagator.getMaxPacketSize());
+      String text = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII);
+      assertTrue(text, text.endsWith("\n"));
+      for (String line : text.split("\n"))
+        lines.add(line);
+    }
+    return lines;
+  }
+
+  private static ActivityMap buildActivityMap() {
+    Adapter adapter = TestAdapters.buildTestAdapter(SERVICES);
+    // A space, which has to be replaced in the metric names.
+    adapter.getChannelList().get(0).setUniqueId("channel 1");
+    ActivityMap activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(adapter);
+    for (int index = 0; index < SERVICES; index++) {
+      ServiceActivity service = (ServiceActivity) activityMap.getFlowActivityIndex().get("service" + index);
+      service.addTimeTaken(10);
+      service.addTimeTaken(20);
+    }
+    activityMap.calculateStatistics();
+    return activityMap;
+  }
+}
@@ -0,0 +1,125 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+import com.adaptris.profiler.MessageProcessStep;
+import com.adaptris.profiler.StepType;
+
+import junit.framework.TestCase;
+
+public class ActivityPacketReaderTest extends TestCase {
+
+  private ActivityMap activityMap;
+
+  private BinaryActivityEncoder encoder;
+
+  private DeflateCompressor compressor;
+
+  public void setUp() throws Exception {
+    activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter(50));
+    activityMap.addActivity(step("service7", 12));
+    activityMap.calculateStatistics();
+    encoder = new BinaryActivityEncoder();
+    compressor = new DeflateCompressor(10);
+  }
+
+  public void testCompressedWithDictionary() throws Exception {
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    byte[] keyframe = compress();
+    byte[] delta = compress();
+    int uncompressed = encode().size();
+
+    assertTrue(PayloadCompression.isCompressed(keyframe, 0, keyframe.length));
+    assertTrue(keyframe.length < uncompressed);
+    assertTrue(delta.length + " < " + keyframe.length, delta.length * 2 < keyframe.length);
+
+    assertEquals(1, reader.read(packet(keyframe)).getFlowActivityIndex().get("service7").getMessageCount());
+    assertEquals(12, reader.read(packet(delta)).getFlowActivityIndex().get("service7").getAvgMsTaken());
+  }
+
+  public void testDictionaryNotYetReceived() throws Exception {
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    compress();
+    try {
+      reader.read(packet(compress()));
+      fail();
+    } catch (IOException expected) {
+    }
+    assertEquals(1, reader.getDecompressor().getMissingDictionaryCount());
+  }
+
+  public void testCompressedDeltas() throws Exception {
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    encoder = new BinaryActivityEncoder(10);
+    byte[] keyframe = compress();
+    byte[] delta = compress();
+
+    assertEquals(activityMap.getFlowActivityIndex().size(), reader.read(packet(keyframe)).getFlowActivityIndex().size());
+    ActivityMap rebuilt = reader.read(packet(delta));
+    assertEquals(activityMap.getFlowActivityIndex().keySet(), rebuilt.getFlowActivityIndex().keySet());
+    assertEquals(12, rebuilt.getFlowActivityIndex().get("service7").getAvgMsTaken());
+    assertEquals(1, reader.getBinaryDecoder().getDeltaCount());
+  }
+
+  public void testDuplicateDiscarded() throws Exception {
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    byte[] first = encode().toByteArray();
+    encode();
+    byte[] third = encode().toByteArray();
+
+    assertNotNull(reader.read(packet(first)));
+    assertNotNull(reader.read(packet(third)));
+    assertNull(reader.read(packet(third)));
+    assertEquals(2, reader.getSequenceTracker().getReceivedCount());
+    assertEquals(1, reader.getSequenceTracker().getLostCount());
+    assertEquals(1, reader.getSequenceTracker().getDuplicateCount());
+  }
+
+  public void testChunkedPayload() throws Exception {
+    ActivityPacketReader reader = new ActivityPacketReader(new ChunkAssembler(), false);
+    WireBuffer payload = encode();
+    List<byte[]> datagrams = new ArrayList<>();
+    new DatagramChunker(200).send(payload.array(), payload.size(), (data, length) -> datagrams.add(Arrays.copyOf(data, length)));
+    assertTrue(datagrams.size() > 1);
+
+    ActivityMap result = null;
+    for (byte[] datagram : datagrams) {
+      assertNull(result);
+      result = reader.read(packet(datagram));
+    }
+    assertEquals(activityMap.getFlowActivityIndex().keySet(), result.getFlowActivityIndex().keySet());
+  }
+
+  private WireBuffer encode() throws Exception {
+    WireBuffer buffer = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap), buffer);
+    return buffer;
+  }
+
+  private byte[] compress() throws Exception {
+    WireBuffer buffer = encode();
+    return compressor.compress(buffer.array(), buffer.size(), encoder.getCompressionDictionary()).toByteArray();
+  }
+
+  private DatagramPacket packet(byte[] data) throws Exception {
+    return new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), 5577);
+  }
+
+  private MessageProcessStep step(String id, long timeTaken) {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId("1");
+    step.setStepInstanceId(id);
+    step.setStepType(StepType.SERVICE);
+    step.setTimeTakenMs(timeTaken);
+    return step;
+  }
+}
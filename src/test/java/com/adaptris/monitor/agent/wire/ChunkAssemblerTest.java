@@ -0,0 +1,150 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ChunkAssemblerTest extends TestCase {
+
+  private static final SocketAddress SENDER = new InetSocketAddress("127.0.0.1", 5577);
+
+  private DatagramChunker chunker;
+
+  private List<byte[]> datagrams;
+
+  public void setUp() throws Exception {
+    chunker = new DatagramChunker(100);
+    datagrams = new ArrayList<>();
+  }
+
+  public void testSmallPayloadNotChunked() throws Exception {
+    byte[] payload = payload(100);
+    assertEquals(1, chunker.send(payload, payload.length, this::capture));
+
+    assertTrue(Arrays.equals(payload, datagrams.get(0)));
+    assertFalse(DatagramChunker.isChunk(payload, 0, payload.length));
+  }
+
+  public void testReassembleOutOfOrder() throws Exception {
+    byte[] payload = payload(1000);
+    int count = chunker.send(payload, payload.length, this::capture);
+    assertEquals(12, count);
+    for (byte[] datagram : datagrams)
+      assertTrue(datagram.length <= 100);
+
+    ChunkAssembler assembler = new ChunkAssembler();
+    byte[] result = null;
+    for (int index = count - 1; index >= 0; index--) {
+      assertNull(result);
+      byte[] datagram = datagrams.get(index);
+      result = assembler.accept(SENDER, datagram, 0, datagram.length);
+    }
+    assertTrue(Arrays.equals(payload, result));
+    assertEquals(1, assembler.getCompletedCount());
+    assertEquals(0, assembler.getPendingCount());
+    assertEquals(0, assembler.getPendingBytes());
+  }
+
+  public void testDuplicateChunk() throws Exception {
+    byte[] payload = payload(200);
+    chunker.send(payload, payload.length, this::capture);
+    ChunkAssembler assembler = new ChunkAssembler();
+
+    assertNull(assembler.accept(SENDER, datagrams.get(0), 0, datagrams.get(0).length));
+    assertNull(assembler.accept(SENDER, datagrams.get(0), 0, datagrams.get(0).length));
+    assertEquals(1, assembler.getDuplicateCount());
+  }
+
+  public void testIncompleteMessageExpires() throws Exception {
+    byte[] payload = payload(200);
+    chunker.send(payload, payload.length, this::capture);
+    ChunkAssembler assembler = new ChunkAssembler(1000, ChunkAssembler.DEFAULT_MAX_BYTES);
+
+    assembler.accept(SENDER, datagrams.get(0), 0, datagrams.get(0).length, 0);
+    assertEquals(1, assembler.getPendingCount());
+    assembler.accept(SENDER, datagrams.get(1), 0, datagrams.get(1).length, 5000);
+
+    assertEquals(1, assembler.getExpiredCount());
+    assertEquals(1, assembler.getPendingCount());
+  }
+
+  public void testMemoryCapEvictsOldest() throws Exception {
+    ChunkAssembler assembler = new ChunkAssembler(ChunkAssembler.DEFAULT_TIMEOUT_MS, 400);
+    byte[] payload = payload(1000);
+    chunker.send(payload, payload.length, this::capture);
+    chunker.send(payload, payload.length, this::capture);
+
+    assembler.accept(SENDER, datagrams.get(0), 0, datagrams.get(0).length);
+    assembler.accept(SENDER, datagrams.get(12), 0, datagrams.get(12).length);
+    assertEquals(0, assembler.getEvictedCount());
+    assembler.accept(SENDER, datagrams.get(13), 0, datagrams.get(13).length);
+
+    assertEquals(1, assembler.getEvictedCount());
+    assertEquals(1, assembler.getPendingCount());
+    assertTrue(assembler.getPendingBytes() <= 400);
+  }
+
+  public void testHighCountFloodStaysWithinCap() throws Exception {
+    long maxBytes = 64 * 1024;
+    ChunkAssembler assembler = new ChunkAssembler(ChunkAssembler.DEFAULT_TIMEOUT_MS, maxBytes);
+
+    try {
+      assembler.accept(SENDER, chunk(0, 0xFFFF), 0, DatagramChunker.HEADER_SIZE + 1);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertEquals(0, assembler.getPendingCount());
+
+    int count = 4096;
+    for (int messageId = 1; messageId <= 1000; messageId++) {
+      byte[] datagram = chunk(messageId, count);
+      assertNull(assembler.accept(SENDER, datagram, 0, datagram.length));
+      assertTrue(assembler.getPendingBytes() <= maxBytes);
+    }
+    assertTrue(assembler.getPendingCount() <= maxBytes / (count * ChunkAssembler.SLOT_BYTES));
+    assertTrue(assembler.getEvictedCount() > 900);
+  }
+
+  public void testInvalidHeader() throws Exception {
+    byte[] payload = payload(200);
+    chunker.send(payload, payload.length, this::capture);
+    byte[] datagram = datagrams.get(0);
+    datagram[8] = 0x7F; // index beyond count
+
+    try {
+      new ChunkAssembler().accept(SENDER, datagram, 0, datagram.length);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  // A single one byte chunk of a message claiming the given number of chunks.
+  private static byte[] chunk(int messageId, int count) throws Exception {
+    List<byte[]> captured = new ArrayList<>();
+    new DatagramChunker(DatagramChunker.HEADER_SIZE + 1).send(new byte[20], 20, (data, length) -> captured.add(Arrays.copyOf(data, length)));
+    byte[] datagram = captured.get(0);
+    datagram[4] = (byte) (messageId >>> 24);
+    datagram[5] = (byte) (messageId >>> 16);
+    datagram[6] = (byte) (messageId >>> 8);
+    datagram[7] = (byte) messageId;
+    datagram[10] = (byte) (count >>> 8);
+    datagram[11] = (byte) count;
+    return datagram;
+  }
+
+  private void capture(byte[] data, int length) {
+    datagrams.add(Arrays.copyOf(data, length));
+  }
+
+  private static byte[] payload(int size) {
+    byte[] payload = new byte[size];
+    for (int index = 0; index < size; index++)
+      payload[index] = (byte) index;
+    return payload;
+  }
+}
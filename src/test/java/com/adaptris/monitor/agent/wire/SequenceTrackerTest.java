@@ -0,0 +1,74 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SequenceTrackerTest extends TestCase {
+
+  private SequenceTracker tracker;
+
+  public void setUp() throws Exception {
+    tracker = new SequenceTracker();
+  }
+
+  public void testInOrder() throws Exception {
+    for (long sequence = 5; sequence < 10; sequence++)
+      assertTrue(tracker.accept(1, sequence, sequence * 1000, sequence * 1000 + 1000));
+
+    assertEquals(5, tracker.getReceivedCount());
+    assertEquals(0, tracker.getLostCount());
+    assertEquals(0, tracker.getReorderedCount());
+    List<SequenceTracker.SenderStatistics> senders = tracker.getSenders();
+    assertEquals(1, senders.size());
+    assertEquals(9, senders.get(0).getLastSequence());
+    assertEquals(9000, senders.get(0).getIntervalStartMillis());
+    assertEquals(10000, senders.get(0).getIntervalEndMillis());
+  }
+
+  public void testGapThenLateArrival() throws Exception {
+    tracker.accept(1, 0, 0, 0);
+    tracker.accept(1, 4, 0, 0);
+    assertEquals(3, tracker.getLostCount());
+
+    assertTrue(tracker.accept(1, 2, 0, 0));
+    assertEquals(2, tracker.getLostCount());
+    assertEquals(1, tracker.getReorderedCount());
+    assertEquals(0.4, tracker.getSenders().get(0).getLossRatio(), 0.0001);
+  }
+
+  public void testDuplicates() throws Exception {
+    tracker.accept(1, 0, 0, 0);
+    tracker.accept(1, 1, 0, 0);
+
+    assertFalse(tracker.accept(1, 1, 0, 0));
+    assertFalse(tracker.accept(1, 0, 0, 0));
+    assertEquals(2, tracker.getDuplicateCount());
+    assertEquals(2, tracker.getReceivedCount());
+  }
+
+  public void testSendersTrackedSeparately() throws Exception {
+    tracker.accept(1, 0, 0, 0);
+    tracker.accept(2, 7, 0, 0);
+    tracker.accept(1, 1, 0, 0);
+    tracker.accept(2, 8, 0, 0);
+
+    assertEquals(2, tracker.getSenderCount());
+    assertEquals(0, tracker.getLostCount());
+  }
+
+  public void testOlderThanWindow() throws Exception {
+    tracker.accept(1, 1000, 0, 0);
+
+    tracker.accept(1, 1002, 0, 0);
+    assertEquals(1, tracker.getLostCount());
+
+    assertFalse(tracker.accept(1, 1002 - SequenceTracker.WINDOW, 0, 0));
+    assertFalse(tracker.accept(1, 1002 - SequenceTracker.WINDOW, 0, 0));
+    assertEquals(2, tracker.getOutOfWindowCount());
+    assertEquals(0, tracker.getReorderedCount());
+    assertEquals(2, tracker.getReceivedCount());
+    assertEquals(1, tracker.getLostCount());
+    assertEquals(2, tracker.getSenders().get(0).getOutOfWindowCount());
+  }
+}
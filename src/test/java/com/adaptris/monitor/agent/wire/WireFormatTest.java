@@ -0,0 +1,215 @@
+package com.adaptris.monitor.agent.wire;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.adaptris.monitor.agent.activity.ActivityMap;
+import com.adaptris.monitor.agent.activity.ActivitySnapshot;
+import com.adaptris.monitor.agent.activity.AdapterActivity;
+import com.adaptris.monitor.agent.activity.AdapterInstanceActivityMapCreator;
+import com.adaptris.monitor.agent.activity.BaseFlowActivity;
+import com.adaptris.monitor.agent.activity.ConsumerActivity;
+import com.adaptris.monitor.agent.activity.LatencyHistogram;
+import com.adaptris.monitor.agent.activity.TestAdapters;
+import com.adaptris.monitor.agent.activity.WorkflowActivity;
+import com.adaptris.profiler.MessageProcessStep;
+import com.adaptris.profiler.StepType;
+
+import junit.framework.TestCase;
+
+public class WireFormatTest extends TestCase {
+
+  private ActivityMap activityMap;
+
+  public void setUp() throws Exception {
+    activityMap = new AdapterInstanceActivityMapCreator().createBaseMap(TestAdapters.buildTestAdapter());
+    activityMap.addActivity(step("service1", 10));
+    activityMap.addActivity(step("service1", 30));
+    activityMap.addActivity(step("consumer", 5));
+    activityMap.calculateStatistics();
+  }
+
+  public void testBinaryRoundTrip() throws Exception {
+    WireBuffer buffer = encode(WireFormat.BINARY, ActivitySnapshot.capture(activityMap));
+    ActivityMap decoded = WireFormat.decode(buffer.array(), 0, buffer.size(), false);
+
+    AdapterActivity adapter = (AdapterActivity) decoded.getAdapters().get("adapter");
+    WorkflowActivity workflow = adapter.getChannels().get("channel1").getWorkflows().get("workflow1");
+    assertEquals("producer", workflow.getProducerActivity().getUniqueId());
+    assertEquals(activityMap.getFlowActivityIndex().keySet(), decoded.getFlowActivityIndex().keySet());
+    BaseFlowActivity service = decoded.getFlowActivityIndex().get("service1");
+    assertEquals(2, service.getMessageCount());
+    assertEquals(20, service.getAvgMsTaken());
+    assertEquals(10, service.getMinMsTaken());
+    assertEquals(30, service.getMaxMsTaken());
+    assertEquals(40, service.getTotalMsTaken());
+    assertEquals(10.0, service.getStdDevMsTaken(), 0.001);
+    assertEquals(2, service.getHistogram().getTotalCount());
+    assertEquals(1, decoded.getFlowActivityIndex().get("consumer").getMessageCount());
+    assertTrue(decoded.getFlowActivityIndex().get("consumer") instanceof ConsumerActivity);
+    assertEquals(0, decoded.getFlowActivityIndex().get("producer").getMessageCount());
+  }
+
+  public void testBinaryIsSmallerThanJava() throws Exception {
+    ActivitySnapshot snapshot = ActivitySnapshot.capture(activityMap);
+    int binary = encode(WireFormat.BINARY, snapshot).size();
+    int java = encode(WireFormat.JAVA, snapshot).size();
+
+    assertTrue(binary + " < " + java, binary * 4 < java);
+  }
+
+  public void testTopologyReusedBetweenSnapshots() throws Exception {
+    BinaryActivityEncoder encoder = new BinaryActivityEncoder();
+    WireBuffer first = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap, 1, 2), first);
+    WireBuffer second = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap, 1, 2), second);
+
+    // Only the sequence number in the header differs.
+    BinaryActivityDecoder decoder = new BinaryActivityDecoder();
+    decoder.decode(first.array(), 0, first.size());
+    int bodyOffset = decoder.getTopologyOffset();
+    assertEquals(first.size(), second.size());
+    assertTrue(Arrays.equals(Arrays.copyOfRange(first.toByteArray(), bodyOffset, first.size()),
+        Arrays.copyOfRange(second.toByteArray(), bodyOffset, second.size())));
+  }
+
+  public void testSenderAndSequence() throws Exception {
+    BinaryActivityEncoder encoder = new BinaryActivityEncoder();
+    BinaryActivityDecoder decoder = new BinaryActivityDecoder();
+    for (int packet = 0; packet < 3; packet++) {
+      WireBuffer buffer = new WireBuffer();
+      encoder.encode(ActivitySnapshot.capture(activityMap, 1000 + packet, 2000 + packet), buffer);
+      decoder.decode(buffer.array(), 0, buffer.size());
+
+      assertEquals(encoder.getSenderId(), decoder.getSenderId());
+      assertEquals(packet, decoder.getSequence());
+      assertEquals(1000 + packet, decoder.getIntervalStartMillis());
+      assertEquals(2000 + packet, decoder.getIntervalEndMillis());
+    }
+    assertFalse(encoder.getSenderId() == new BinaryActivityEncoder().getSenderId());
+  }
+
+  public void testJavaSerializationFallback() throws Exception {
+    WireBuffer buffer = encode(WireFormat.JAVA, ActivitySnapshot.capture(activityMap));
+    assertTrue(WireFormat.isJavaSerialization(buffer.array(), 0, buffer.size()));
+
+    ActivityMap decoded = WireFormat.decode(buffer.array(), 0, buffer.size(), true);
+    assertEquals(2, decoded.getFlowActivityIndex().get("service1").getMessageCount());
+    try {
+      WireFormat.decode(buffer.array(), 0, buffer.size(), false);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  public void testDeltaRebuildsFullHierarchy() throws Exception {
+    BinaryActivityEncoder encoder = new BinaryActivityEncoder(3);
+    BinaryActivityDecoder decoder = new BinaryActivityDecoder();
+    int[] sizes = new int[4];
+    for (int packet = 0; packet < sizes.length; packet++) {
+      WireBuffer buffer = new WireBuffer();
+      encoder.encode(ActivitySnapshot.capture(activityMap, packet, packet + 1), buffer);
+      sizes[packet] = buffer.size();
+
+      ActivityMap decoded = decoder.decode(buffer.array(), 0, buffer.size());
+      assertEquals(activityMap.getFlowActivityIndex().keySet(), decoded.getFlowActivityIndex().keySet());
+      assertEquals(2, decoded.getFlowActivityIndex().get("service1").getMessageCount());
+      assertEquals(40, decoded.getFlowActivityIndex().get("service1").getTotalMsTaken());
+      assertEquals(0, decoded.getFlowActivityIndex().get("producer").getMessageCount());
+      assertEquals("producer", ((AdapterActivity) decoded.getAdapters().get("adapter")).getChannels().get("channel1")
+          .getWorkflows().get("workflow1").getProducerActivity().getUniqueId());
+    }
+    assertTrue(sizes[1] < sizes[0]);
+    assertEquals(sizes[1], sizes[2]);
+    assertEquals(sizes[0], sizes[3]);
+    assertEquals(2, decoder.getDeltaCount());
+  }
+
+  public void testDeltaBeforeKeyframeRejected() throws Exception {
+    BinaryActivityEncoder encoder = new BinaryActivityEncoder(5);
+    encoder.encode(ActivitySnapshot.capture(activityMap), new WireBuffer());
+    WireBuffer delta = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap), delta);
+
+    BinaryActivityDecoder lateJoiner = new BinaryActivityDecoder();
+    try {
+      lateJoiner.decode(delta.array(), 0, delta.size());
+      fail();
+    } catch (IOException expected) {
+    }
+    assertEquals(1, lateJoiner.getMissingKeyframeCount());
+  }
+
+  public void testCumulativeRoundTrip() throws Exception {
+    BinaryActivityEncoder encoder = new BinaryActivityEncoder(5);
+    BinaryActivityDecoder decoder = new BinaryActivityDecoder();
+    WireBuffer keyframe = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap), keyframe);
+    decoder.decode(keyframe.array(), 0, keyframe.size());
+
+    activityMap.resetActivity();
+    activityMap.addActivity(step("service1", 50));
+    activityMap.calculateStatistics();
+    WireBuffer delta = new WireBuffer();
+    encoder.encode(ActivitySnapshot.capture(activityMap), delta);
+    ActivityMap decoded = decoder.decode(delta.array(), 0, delta.size());
+
+    BaseFlowActivity service = decoded.getFlowActivityIndex().get("service1");
+    assertEquals(1, service.getMessageCount());
+    assertEquals(3, service.getCumulativeMessageCount());
+    assertEquals(90, service.getCumulativeMsTaken());
+    assertEquals(1, service.getCumulativeCountInBucket(LatencyHistogram.bucketIndex(50)));
+    assertEquals(1, service.getCumulativeCountInBucket(LatencyHistogram.bucketIndex(10)));
+    BaseFlowActivity consumer = decoded.getFlowActivityIndex().get("consumer");
+    assertEquals(0, consumer.getMessageCount());
+    assertEquals(1, consumer.getCumulativeMessageCount());
+    assertEquals(5, consumer.getCumulativeMsTaken());
+  }
+
+  public void testTruncatedPacket() throws Exception {
+    WireBuffer buffer = encode(WireFormat.BINARY, ActivitySnapshot.capture(activityMap));
+    for (int length = 0; length < buffer.size(); length++) {
+      try {
+        WireFormat.decode(buffer.array(), 0, length, false);
+        fail("Decoded " + length + " of " + buffer.size() + " bytes");
+      } catch (IOException expected) {
+      }
+    }
+  }
+
+  public void testVarints() throws Exception {
+    WireBuffer buffer = new WireBuffer();
+    long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+    for (long value : values)
+      buffer.writeSignedVarLong(value);
+    buffer.writeVarLong(-1);
+
+    WireReader reader = new WireReader(buffer.array(), 0, buffer.size());
+    for (long value : values)
+      assertEquals(value, reader.readSignedVarLong());
+    assertEquals(-1, reader.readVarLong());
+    assertEquals(0, reader.remaining());
+  }
+
+  public void testDefaultFormat() throws Exception {
+    assertEquals(WireFormat.JAVA, WireFormat.getFormat("java"));
+    assertEquals(WireFormat.JAVA, WireFormat.getFormat("nonsense"));
+    assertEquals(WireFormat.JAVA, WireFormat.getFormat(null));
+  }
+
+  private WireBuffer encode(WireFormat format, ActivitySnapshot snapshot) throws Exception {
+    WireBuffer buffer = new WireBuffer();
+    format.createEncoder().encode(snapshot, buffer);
+    return buffer;
+  }
+
+  private MessageProcessStep step(String id, long timeTaken) {
+    MessageProcessStep step = new MessageProcessStep();
+    step.setMessageId("1");
+    step.setStepInstanceId(id);
+    step.setStepType(StepType.SERVICE);
+    step.setTimeTakenMs(timeTaken);
+    return step;
+  }
+}